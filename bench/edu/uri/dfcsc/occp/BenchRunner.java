@@ -0,0 +1,154 @@
+package edu.uri.dfcsc.occp;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Properties;
+import java.util.TreeMap;
+import java.util.regex.Pattern;
+
+/**
+ * Runs benchmarks and compares them with a stored baseline. Each case is run repeatedly for a warmup period and then
+ * for a measurement period, and the median time per operation is reported. Cases more than the tolerance slower than
+ * their baseline are reported as regressions.
+ * 
+ * Baselines only mean something on the machine that recorded them, so none is shipped: record one with
+ * -Dbench.save=true before making a change. A case with no baseline is not compared and fails the run, so a missing
+ * baseline can't pass for the absence of regressions.
+ */
+final class BenchRunner {
+    /**
+     * One operation to time
+     */
+    interface Operation {
+        /**
+         * Run the operation once
+         *
+         * @throws Exception
+         */
+        void run() throws Exception;
+    }
+
+    /**
+     * Prepares an operation for one input size
+     */
+    interface Case {
+        /**
+         * @param size - Size of the input
+         * @return The operation, with its input ready
+         * @throws Exception
+         */
+        Operation prepare(int size) throws Exception;
+    }
+
+    private final Path baselineFile;
+    private final Properties baseline = new Properties();
+    private final TreeMap<String, Double> results = new TreeMap<>();
+    private final Pattern filter;
+    private final long warmupMillis, measureMillis;
+    private final double tolerance;
+    private int regressions = 0;
+    private final List<String> unmeasured = new ArrayList<>();
+
+    /**
+     * @param baselineFile - Where the baseline is kept
+     * @throws IOException
+     */
+    BenchRunner(Path baselineFile) throws IOException {
+        this.baselineFile = baselineFile;
+        if (Files.exists(baselineFile)) {
+            try (InputStream in = Files.newInputStream(baselineFile)) {
+                baseline.load(in);
+            }
+        }
+        filter = Pattern.compile(System.getProperty("bench.filter", ".*"));
+        warmupMillis = Long.getLong("bench.warmup", 1000);
+        measureMillis = Long.getLong("bench.time", 2000);
+        tolerance = Double.parseDouble(System.getProperty("bench.tolerance", "0.25"));
+    }
+
+    /**
+     * Time a case at each size
+     * 
+     * @param name - Name of the case
+     * @param bench - The case
+     * @param sizes - Input sizes to try
+     * @throws Exception
+     */
+    void run(String name, Case bench, int... sizes) throws Exception {
+        for (int size : sizes) {
+            String key = name + "@" + size;
+            if (!filter.matcher(key).find()) {
+                continue;
+            }
+            Operation operation = bench.prepare(size);
+            measure(operation, warmupMillis);
+            double millis = measure(operation, measureMillis);
+            results.put(key, millis);
+            String line = String.format("%-40s %12.3f ms/op", key, millis);
+            String stored = baseline.getProperty(key);
+            if (stored != null) {
+                double base = Double.parseDouble(stored);
+                line += String.format("  baseline %12.3f (%+.0f%%)", base, 100 * (millis - base) / base);
+                if (millis > base * (1 + tolerance)) {
+                    line += "  REGRESSION";
+                    ++regressions;
+                }
+            } else {
+                line += "  NO BASELINE";
+                unmeasured.add(key);
+            }
+            System.out.println(line);
+        }
+    }
+
+    /**
+     * @return Median milliseconds per operation, over runs taking at least the given time
+     */
+    private static double measure(Operation operation, long millis) throws Exception {
+        List<Double> times = new ArrayList<>();
+        long end = System.nanoTime() + millis * 1000000;
+        do {
+            long start = System.nanoTime();
+            operation.run();
+            times.add((System.nanoTime() - start) / 1000000.0);
+        } while (System.nanoTime() < end || times.size() < 3);
+        Collections.sort(times);
+        return times.get(times.size() / 2);
+    }
+
+    /**
+     * Record the baseline if asked
+     * 
+     * @return The number of regressions found, plus the number of cases with no baseline unless it was just recorded
+     * @throws IOException
+     */
+    int finish() throws IOException {
+        if (Boolean.getBoolean("bench.save")) {
+            for (String key : results.keySet()) {
+                // Not the default locale, which may write a decimal comma that parseDouble can't read back
+                baseline.setProperty(key, String.format(Locale.ROOT, "%.3f", results.get(key)));
+            }
+            try (OutputStream out = Files.newOutputStream(baselineFile)) {
+                baseline.store(out, "OccpAdmin benchmark baseline, milliseconds per operation");
+            }
+            System.out.println("Baseline saved to " + baselineFile);
+            unmeasured.clear();
+        }
+        if (regressions > 0) {
+            System.out.println(regressions + " regression(s)");
+        }
+        if (!unmeasured.isEmpty()) {
+            System.err.println("WARNING: " + unmeasured.size() + " case(s) have no baseline in " + baselineFile
+                    + " and were not checked for regressions: " + unmeasured);
+            System.err.println("Record one with -Dbench.save=true on this machine before the change under test");
+        }
+        return regressions + unmeasured.size();
+    }
+}
@@ -0,0 +1,291 @@
+package edu.uri.dfcsc.occp;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashMap;
+import java.util.Properties;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream;
+
+import edu.uri.dfcsc.occp.generator.PasswordGenerator;
+import edu.uri.dfcsc.occp.generator.SshKeyGenerator;
+import edu.uri.dfcsc.occp.generator.UsernameGenerator;
+
+/**
+ * Benchmarks of the parts of a deploy that grow with the size of a scenario, each run against synthetic inputs of
+ * increasing size. Run with "ant bench".
+ */
+public class OccpBenchmarks {
+    private static Path work;
+
+    @SuppressWarnings("javadoc")
+    public static void main(String[] args) throws Exception {
+        Logger.getLogger("").setLevel(Level.WARNING);
+        work = Files.createTempDirectory("occpbench");
+        OccpAdmin.occpHiddenDirPath = work.resolve("hidden");
+        Files.createDirectories(OccpAdmin.occpHiddenDirPath);
+        if (OccpAdmin.globalConfig == null) {
+            OccpAdmin.globalConfig = new Properties();
+        }
+        BenchRunner runner = new BenchRunner(Paths.get(args.length > 0 ? args[0] : "bench/baseline.properties"));
+        try {
+            runner.run("parser.parseConfig", new BenchRunner.Case() {
+                @Override
+                public BenchRunner.Operation prepare(int size) throws Exception {
+                    final Path scenario = writeScenario(size);
+                    return new BenchRunner.Operation() {
+                        @Override
+                        public void run() {
+                            // Parse the scenario itself each time, not the instance written by the last parse
+                            OccpAdmin.setRegenFlag(true);
+                            if (!new OccpParser().parseConfig(scenario.toString())) {
+                                throw new IllegalStateException("Synthetic scenario did not parse");
+                            }
+                        }
+                    };
+                }
+            }, 10, 100, 500);
+
+            runner.run("parser.getValue", new BenchRunner.Case() {
+                @Override
+                public BenchRunner.Operation prepare(int size) throws Exception {
+                    final OccpParser parser = parse(size);
+                    final StringBuilder text = new StringBuilder();
+                    for (int i = 0; i < size; ++i) {
+                        text.append("host ${occp:domain} ${occp:passwords_plain[").append(i % 4).append("]} ");
+                    }
+                    return new BenchRunner.Operation() {
+                        @Override
+                        public void run() {
+                            parser.getValue(text.toString());
+                        }
+                    };
+                }
+            }, 10, 100, 1000);
+
+            runner.run("generator.password", new BenchRunner.Case() {
+                @Override
+                public BenchRunner.Operation prepare(int size) {
+                    final HashMap<String, String> parameters = new HashMap<>();
+                    parameters.put("count", Integer.toString(size));
+                    parameters.put("length", "12");
+                    return new BenchRunner.Operation() {
+                        @Override
+                        public void run() throws Exception {
+                            new PasswordGenerator().generate("passwords", parameters);
+                        }
+                    };
+                }
+            }, 1, 10, 100);
+
+            runner.run("generator.username", new BenchRunner.Case() {
+                @Override
+                public BenchRunner.Operation prepare(int size) throws Exception {
+                    Path names = work.resolve("names-" + size + ".csv");
+                    try (Writer out = Files.newBufferedWriter(names, StandardCharsets.UTF_8)) {
+                        for (int i = 0; i < size * 10; ++i) {
+                            out.write("First" + i + ",Last" + i + ",user" + i + "\n");
+                        }
+                    }
+                    final HashMap<String, String> parameters = new HashMap<>();
+                    parameters.put("count", Integer.toString(size));
+                    parameters.put("names", names.getFileName().toString());
+                    return new BenchRunner.Operation() {
+                        @Override
+                        public void run() throws Exception {
+                            // The names file is looked for in the scenario
+                            OccpAdmin.scenarioBaseDir = work;
+                            new UsernameGenerator().generate("users", parameters);
+                        }
+                    };
+                }
+            }, 10, 100, 1000);
+
+            runner.run("generator.ssh_key", new BenchRunner.Case() {
+                @Override
+                public BenchRunner.Operation prepare(int size) {
+                    final HashMap<String, String> parameters = new HashMap<>();
+                    parameters.put("count", Integer.toString(size));
+                    return new BenchRunner.Operation() {
+                        @Override
+                        public void run() throws Exception {
+                            new SshKeyGenerator().generate("keys", parameters);
+                        }
+                    };
+                }
+            }, 1, 4);
+
+            runner.run("puppet.compileNodeFile", new BenchRunner.Case() {
+                @Override
+                public BenchRunner.Operation prepare(int size) throws Exception {
+                    final OccpParser parser = parse(size);
+                    final PuppetControl puppet = new PuppetControl(parser.getOccpHosts());
+                    return new BenchRunner.Operation() {
+                        @Override
+                        public void run() {
+                            puppet.compileNodeFile(parser.getOccpHosts());
+                        }
+                    };
+                }
+            }, 10, 100, 500);
+
+            runner.run("floppy.router", new BenchRunner.Case() {
+                @Override
+                public BenchRunner.Operation prepare(int size) throws Exception {
+                    // A planned deploy on simulated hypervisors, so there are VMs with MACs to configure
+                    PlanningHarness.plan(Files.createDirectories(work.resolve("plan-" + size)), size, false);
+                    final OccpHost router = OccpAdmin.parser.hosts.get(OccpParser.ROUTER_NAME);
+                    return new BenchRunner.Operation() {
+                        @Override
+                        public void run() throws Exception {
+                            if (!OccpAdmin.createRouterFloppy(router)) {
+                                throw new IllegalStateException("Unable to write the router floppy");
+                            }
+                        }
+                    };
+                }
+            }, 10, 100, 500);
+
+            runner.run("ca.generateCert", new BenchRunner.Case() {
+                @Override
+                public BenchRunner.Operation prepare(int size) {
+                    final CA ca = new CA();
+                    ca.generateCA();
+                    return new BenchRunner.Operation() {
+                        @Override
+                        public void run() throws Exception {
+                            ca.generateCert("CN=bench", true);
+                        }
+                    };
+                }
+            }, 1);
+
+            runner.run("export.packager", new BenchRunner.Case() {
+                @Override
+                public BenchRunner.Operation prepare(int size) throws Exception {
+                    final Path scenario = writePackageTree(size);
+                    return new BenchRunner.Operation() {
+                        @Override
+                        public void run() throws Exception {
+                            OccpAdmin.scenarioBaseDir = scenario;
+                            OccpAdmin.scenarioName = scenario.getFileName().toString();
+                            try (TarArchiveOutputStream pkg = new TarArchiveOutputStream(new NullOutputStream())) {
+                                Files.walkFileTree(scenario, new OccpAdmin.Packager(pkg));
+                            }
+                        }
+                    };
+                }
+            }, 10, 100, 1000);
+        } finally {
+            deleteTree(work);
+        }
+        System.exit(runner.finish() == 0 ? 0 : 1);
+    }
+
+    /**
+     * Write a scenario with the given number of hosts, each on a couple of networks and with a content pack
+     * 
+     * @param size - Number of hosts
+     * @return The scenario file
+     * @throws IOException
+     */
+    static Path writeScenario(int size) throws IOException {
+        Path dir = work.resolve("scenario-" + size);
+        Files.createDirectories(dir.resolve("ContentPacks/gameserver/files"));
+        Path file = dir.resolve("scenario.xml");
+        try (PrintStream out = new PrintStream(Files.newOutputStream(file), false, "UTF-8")) {
+            out.println("<?xml version=\"1.0\" encoding=\"UTF-8\"?>");
+            out.println("<occpchallenge>");
+            out.println("  <var name=\"domain\">example.com</var>");
+            out.println("  <var name=\"passwords\" generator=\"password\">");
+            out.println("    <param name=\"count\">4</param><param name=\"length\">12</param>");
+            out.println("  </var>");
+            out.println("  <host label=\"gameserver\" hostname=\"gs\" domain=\"${occp:domain}\" phase=\"2\">");
+            out.println("    <interface name=\"eth0\" network=\"net0\"/>");
+            out.println("    <content><pack name=\"gameserver\"/></content>");
+            out.println("  </host>");
+            int networks = Math.max(1, size / 10);
+            for (int i = 0; i < size; ++i) {
+                out.println("  <host label=\"host" + i + "\" hostname=\"host" + i + "\" domain=\"${occp:domain}\""
+                        + " phase=\"1\" basevm=\"base\">");
+                out.println("    <interface name=\"eth0\" network=\"net" + (i % networks) + "\"/>");
+                out.println("    <interface name=\"eth1\" network=\"net" + ((i + 1) % networks) + "\"/>");
+                out.println("    <content><pack name=\"web\"><password>${occp:passwords_plain[" + (i % 4)
+                        + "]}</password></pack></content>");
+                out.println("  </host>");
+            }
+            for (int i = 0; i < networks; ++i) {
+                out.println("  <network label=\"net" + i + "\"/>");
+            }
+            out.println("</occpchallenge>");
+        }
+        OccpAdmin.scenarioBaseDir = dir;
+        return file;
+    }
+
+    private static OccpParser parse(int size) throws IOException {
+        Path scenario = writeScenario(size);
+        OccpAdmin.setRegenFlag(true);
+        OccpParser parser = new OccpParser();
+        if (!parser.parseConfig(scenario.toString())) {
+            throw new IllegalStateException("Synthetic scenario did not parse");
+        }
+        return parser;
+    }
+
+    /**
+     * Write a scenario directory of the given number of files for the packager
+     */
+    private static Path writePackageTree(int size) throws IOException {
+        Path dir = work.resolve("package-" + size).resolve("scenario");
+        Files.createDirectories(dir.resolve("ContentPacks/web/files"));
+        byte[] contents = new byte[4096];
+        for (int i = 0; i < size; ++i) {
+            Files.write(dir.resolve("ContentPacks/web/files/file" + i), contents);
+        }
+        return dir;
+    }
+
+    /**
+     * Delete a directory and everything in it
+     * 
+     * @param dir - Directory to delete
+     * @throws IOException
+     */
+    static void deleteTree(Path dir) throws IOException {
+        Files.walkFileTree(dir, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                Files.delete(file);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(Path dir, IOException e) throws IOException {
+                Files.delete(dir);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    private static final class NullOutputStream extends OutputStream {
+        @Override
+        public void write(int b) {
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+        }
+    }
+}
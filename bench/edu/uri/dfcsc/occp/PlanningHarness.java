@@ -0,0 +1,215 @@
+package edu.uri.dfcsc.occp;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.management.ThreadMXBean;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Runs the planning half of a deploy against generated scenarios of increasing size, with simulated hypervisors in
+ * place of real ones, and reports the time and heap each stage takes. Run with "ant plan-bench", or directly with the
+ * host counts to try as arguments; -Dplan.hypervisors, -Dplan.clones and -Dplan.networks size the rest of the
+ * scenario.
+ */
+public class PlanningHarness {
+    private static final MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+    private static final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+
+    /**
+     * One stage of the plan
+     */
+    private interface Stage {
+        /**
+         * @return A short description of what the stage produced
+         * @throws Exception
+         */
+        String run() throws Exception;
+    }
+
+    @SuppressWarnings("javadoc")
+    public static void main(String[] args) throws Exception {
+        Logger.getLogger("").setLevel(Level.WARNING);
+        List<Integer> sizes = new ArrayList<>();
+        for (String arg : args) {
+            sizes.add(Integer.parseInt(arg));
+        }
+        if (sizes.isEmpty()) {
+            sizes.add(100);
+            sizes.add(1000);
+            sizes.add(3000);
+        }
+        if (OccpAdmin.globalConfig == null) {
+            OccpAdmin.globalConfig = new Properties();
+        }
+        System.out.println(String.format("%-8s %-10s %10s %14s %14s  %s", "hosts", "stage", "ms", "alloc MB (all)",
+                "retained MB", "result"));
+        for (int size : sizes) {
+            Path work = Files.createTempDirectory("occpplan");
+            try {
+                plan(work, size, true);
+            } finally {
+                OccpBenchmarks.deleteTree(work);
+            }
+        }
+        System.exit(0);
+    }
+
+    /**
+     * Plan a deploy of a generated scenario, leaving OccpAdmin as a deploy would after writing the DHCP configuration
+     * 
+     * @param work - Directory for the scenario and the files written from it
+     * @param size - Number of hosts
+     * @param report - Whether to time the stages and print a line for each
+     * @throws Exception
+     */
+    static void plan(Path work, final int size, boolean report) throws Exception {
+        OccpAdmin.occpHiddenDirPath = Files.createDirectories(work.resolve("hidden"));
+        final Path scenario = work.resolve("scenario").resolve("scenario.xml");
+        Path map = work.resolve("hvmap.txt");
+        Files.createDirectories(scenario.getParent());
+        String[] settings = { "--hosts", Integer.toString(size), "--hypervisors",
+                System.getProperty("plan.hypervisors", "4"), "--clones", System.getProperty("plan.clones", "0"),
+                "--networks", System.getProperty("plan.networks", Integer.toString(Math.max(1, size / 10))) };
+        new ScenarioGenerator(settings).write(scenario, map);
+        OccpAdmin.scenarioBaseDir = scenario.getParent();
+        OccpAdmin.scenarioName = "scenario";
+        OccpAdmin.hvMap = map.toString();
+        OccpAdmin.hv2vm = new HashMap<>();
+        OccpAdmin.vm2hv = new HashMap<>();
+        OccpAdmin.hvs = new HashMap<>();
+
+        stage(report, size, "parse", new Stage() {
+            @Override
+            public String run() {
+                OccpAdmin.setRegenFlag(true);
+                OccpAdmin.parser = new OccpParser();
+                if (!OccpAdmin.parser.parseConfig(scenario.toString())) {
+                    throw new IllegalStateException("The generated scenario did not parse");
+                }
+                return OccpAdmin.parser.hosts.size() + " hosts";
+            }
+        });
+        stage(report, size, "map", new Stage() {
+            @Override
+            public String run() {
+                if (!OccpAdmin.parsePhysMap()) {
+                    throw new IllegalStateException("The generated map did not parse");
+                }
+                for (String name : OccpAdmin.hv2vm.keySet()) {
+                    Map<String, String> simulated = new HashMap<>();
+                    simulated.put("jobs", "16");
+                    OccpAdmin.hvs.put(name, new OccpSimHV(name, simulated));
+                }
+                return OccpAdmin.hv2vm.size() + " hypervisors";
+            }
+        });
+        stage(report, size, "topology", new Stage() {
+            @Override
+            public String run() {
+                OccpAdmin.buildTopologyInformation();
+                int networks = 0;
+                for (Set<OccpNetwork> onHV : OccpAdmin.hv2net.values()) {
+                    networks += onHV.size();
+                }
+                return networks + " hypervisor networks";
+            }
+        });
+        stage(report, size, "vpn", new Stage() {
+            @Override
+            public String run() {
+                if (!OccpAdmin.configureRuntimeVPN()) {
+                    throw new IllegalStateException("Unable to configure the VPNs");
+                }
+                return OccpAdmin.net2vpn.size() + " VPNs";
+            }
+        });
+        stage(report, size, "provision", new Stage() {
+            @Override
+            public String run() throws Exception {
+                // Stand ins for the VMs a deploy would create, so there are MACs for the DHCP configuration
+                int created = 0;
+                for (Map.Entry<String, OccpHV> entry : OccpAdmin.hvs.entrySet()) {
+                    OccpHV hv = entry.getValue();
+                    hv.connect();
+                    for (OccpNetwork network : OccpAdmin.hv2net.get(entry.getKey())) {
+                        hv.createNetwork(network.getLabel());
+                    }
+                    for (OccpHost host : OccpAdmin.hv2vm.get(entry.getKey())) {
+                        hv.importVM(host.getLabel(), host.getOvaName() == null ? "" : host.getOvaName());
+                        ++created;
+                        if (host.getIntermediate()) {
+                            // Templates keep the networks of the scenario, they are never connected
+                            continue;
+                        }
+                        List<String> networks = new ArrayList<>();
+                        for (OccpNetworkInterface link : host.getPhyscialInterfaces()) {
+                            networks.add(link.getNetwork());
+                        }
+                        hv.assignVMNetworks(hv.getVM(host.getLabel()), networks);
+                    }
+                }
+                return created + " VMs";
+            }
+        });
+        stage(report, size, "dhcp", new Stage() {
+            @Override
+            public String run() throws Exception {
+                OccpHost router = OccpAdmin.parser.hosts.get(OccpParser.ROUTER_NAME);
+                if (!OccpAdmin.createRouterFloppy(router) || !OccpAdmin.writeSetupDHCP()) {
+                    throw new IllegalStateException("Unable to write the DHCP configuration");
+                }
+                return Files.size(OccpAdmin.occpHiddenDirPath.resolve("dhcpd.conf")) + " byte setup hosts file";
+            }
+        });
+    }
+
+    private static void stage(boolean report, int size, String name, Stage stage) throws Exception {
+        if (!report) {
+            stage.run();
+            return;
+        }
+        System.gc();
+        long before = memory.getHeapMemoryUsage().getUsed();
+        long allocatedBefore = allocated();
+        long start = System.nanoTime();
+        String result = stage.run();
+        double millis = (System.nanoTime() - start) / 1e6;
+        long allocatedBytes = allocated() - allocatedBefore;
+        System.gc();
+        long retained = memory.getHeapMemoryUsage().getUsed() - before;
+        System.out.println(String.format("%-8d %-10s %10.1f %14s %14.1f  %s", size, name, millis,
+                allocatedBytes < 0 ? "n/a" : String.format("%.1f", allocatedBytes / 1048576.0),
+                retained / 1048576.0, result));
+    }
+
+    /**
+     * Generators run on the fork join pool, so this counts every live thread rather than just this one. Threads that
+     * end during a stage take what they allocated with them.
+     * 
+     * @return Bytes allocated by all live threads so far, or a negative number if the JVM doesn't say
+     */
+    private static long allocated() {
+        if (!(threads instanceof com.sun.management.ThreadMXBean)) {
+            return -1;
+        }
+        long total = 0;
+        for (long bytes : ((com.sun.management.ThreadMXBean) threads).getThreadAllocatedBytes(threads
+                .getAllThreadIds())) {
+            // Negative for threads that have ended since the IDs were taken
+            if (bytes > 0) {
+                total += bytes;
+            }
+        }
+        return total;
+    }
+}
@@ -10,7 +10,6 @@ import java.security.cert.CertificateEncodingException;
 import java.security.cert.CertificateException;
 import java.security.cert.X509Certificate;
 import java.security.spec.InvalidParameterSpecException;
-import java.security.spec.RSAKeyGenParameterSpec;
 import java.util.Calendar;
 import java.util.Date;
 import java.util.logging.Level;
@@ -19,9 +18,6 @@ import java.util.logging.Logger;
 import javax.crypto.spec.DHParameterSpec;
 
 import org.apache.commons.net.util.Base64;
-import org.bouncycastle.asn1.ASN1EncodableVector;
-import org.bouncycastle.asn1.DERInteger;
-import org.bouncycastle.asn1.DERSequence;
 import org.bouncycastle.asn1.x500.X500Name;
 import org.bouncycastle.asn1.x509.BasicConstraints;
 import org.bouncycastle.asn1.x509.ExtendedKeyUsage;
@@ -48,6 +44,10 @@ public class CA {
     private X509Certificate caCrt;
     private PrivateKey caKey;
     private final String CA_DN = "CN=OCCP Challenge CA";
+    /**
+     * Size in bits of the DH parameters for the VPNs
+     */
+    public static final int DH_SIZE = 512;
 
     /**
      * Certificate version of KeyPair
@@ -75,10 +75,7 @@ public class CA {
         try {
             // Do the math
             Security.addProvider(new BouncyCastleProvider());
-            KeyPairGenerator kpg = KeyPairGenerator.getInstance("RSA", "BC");
-            RSAKeyGenParameterSpec rsasp = new RSAKeyGenParameterSpec(1024, BigInteger.valueOf(0x10001));
-            kpg.initialize(rsasp);
-            KeyPair keyPair = kpg.generateKeyPair();
+            KeyPair keyPair = KeyPool.take();
             caKey = keyPair.getPrivate();
             // Give the key a name (cert)
             X500Name caName = new X500Name(CA_DN);
@@ -144,10 +141,7 @@ public class CA {
             CertIOException, OperatorCreationException, CertificateException {
         // Do the math
         Security.addProvider(new BouncyCastleProvider());
-        KeyPairGenerator kpg = KeyPairGenerator.getInstance("RSA", "BC");
-        RSAKeyGenParameterSpec rsasp = new RSAKeyGenParameterSpec(1024, BigInteger.valueOf(0x10001));
-        kpg.initialize(rsasp);
-        KeyPair keyPair = kpg.generateKeyPair();
+        KeyPair keyPair = KeyPool.take();
         // Generate the issuer name
         X500Name caName = new X500Name(CA_DN);
         // Give the key a name (cert)
@@ -237,30 +231,22 @@ public class CA {
 
         Base64 encoder = new Base64(76, new byte[] { '\n' });
         file.println(begin_key);
-        // No support for dhParam.getEncoded() like for keys, so manually build
-        // structure
-        ASN1EncodableVector seq = new ASN1EncodableVector();
-        seq.add(new DERInteger(dhParam.getP()));
-        seq.add(new DERInteger(dhParam.getG()));
-        byte[] derEncoded = new DERSequence(seq).getEncoded();
-        file.print(encoder.encodeToString(derEncoded));
+        file.print(encoder.encodeToString(DHParamStore.encode(dhParam)));
         file.println(end_key);
 
     }
 
     /**
-     * Generate DH Parameters and write them to a Stream
+     * Get DH Parameters and write them to a Stream. The parameters are only generated the first time they are needed,
+     * they are shared by every VPN (see DHParamStore).
      * 
-     * @param dhpem Stream to write the generated DHParameters to
+     * @param dhpem Stream to write the DHParameters to
      * @return Whether or not it was successful
      */
     public boolean genDHParams(PrintStream dhpem) {
         boolean failure = false;
         try {
-            AlgorithmParameterGenerator paramGen = AlgorithmParameterGenerator.getInstance("DH");
-            paramGen.init(512);
-            AlgorithmParameters params = paramGen.generateParameters();
-            DHParameterSpec dhSpec = params.getParameterSpec(DHParameterSpec.class);
+            DHParameterSpec dhSpec = DHParamStore.get(DH_SIZE);
             writeDH(dhSpec, dhpem);
         } catch (NoSuchAlgorithmException | InvalidParameterSpecException e) {
             logger.log(Level.SEVERE, "Check your JRE/JCE install", e);
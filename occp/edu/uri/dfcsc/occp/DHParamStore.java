@@ -0,0 +1,164 @@
+package edu.uri.dfcsc.occp;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.AlgorithmParameterGenerator;
+import java.security.AlgorithmParameters;
+import java.security.NoSuchAlgorithmException;
+import java.security.spec.InvalidParameterSpecException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.crypto.spec.DHParameterSpec;
+
+import org.apache.commons.net.util.Base64;
+import org.bouncycastle.asn1.ASN1EncodableVector;
+import org.bouncycastle.asn1.ASN1Integer;
+import org.bouncycastle.asn1.ASN1Sequence;
+import org.bouncycastle.asn1.DERSequence;
+
+/**
+ * Diffie-Hellman parameters, generated once per size and shared by every VPN configuration. DH parameters need not be
+ * secret or unique, and generating them is one of the slowest things we do, so they are also kept in the hidden
+ * directory (as dh&lt;size&gt;.pem) for later runs. Parameters read back are checked before they are used.
+ */
+final class DHParamStore {
+    private static final Logger logger = Logger.getLogger(DHParamStore.class.getName());
+
+    private static final String BEGIN = "-----BEGIN DH PARAMETERS-----";
+    private static final String END = "-----END DH PARAMETERS-----";
+
+    // Parameters by size in bits
+    private static final Map<Integer, DHParameterSpec> params = new HashMap<>();
+
+    private DHParamStore() {
+    }
+
+    /**
+     * Get the parameters of a size, reading or generating them if this is the first time they are needed
+     * 
+     * @param size - Size of the prime in bits
+     * @return The parameters
+     * @throws NoSuchAlgorithmException
+     * @throws InvalidParameterSpecException
+     */
+    static synchronized DHParameterSpec get(int size) throws NoSuchAlgorithmException,
+            InvalidParameterSpecException {
+        DHParameterSpec result = params.get(size);
+        if (result != null) {
+            return result;
+        }
+        Path path = getPath(size);
+        if (path != null && Files.exists(path)) {
+            result = read(path, size);
+        }
+        if (result == null) {
+            logger.fine("Generating " + size + " bit DH parameters");
+            AlgorithmParameterGenerator paramGen = AlgorithmParameterGenerator.getInstance("DH");
+            paramGen.init(size);
+            AlgorithmParameters generated = paramGen.generateParameters();
+            result = generated.getParameterSpec(DHParameterSpec.class);
+            if (path != null) {
+                write(path, result);
+            }
+        }
+        params.put(size, result);
+        return result;
+    }
+
+    /**
+     * Get the parameters of a size ready on a background thread, so they are there when a VPN needs them
+     * 
+     * @param size - Size of the prime in bits
+     */
+    static void prepare(final int size) {
+        Thread preparer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    get(size);
+                } catch (NoSuchAlgorithmException | InvalidParameterSpecException e) {
+                    // Whoever needs them will find out
+                    logger.log(Level.FINE, "Unable to prepare DH parameters", e);
+                }
+            }
+        }, "DHParamStore");
+        preparer.setDaemon(true);
+        preparer.setPriority(Thread.MIN_PRIORITY);
+        preparer.start();
+    }
+
+    /**
+     * @param dhParam - Parameters to encode
+     * @return The parameters as a DER encoded DHParameter sequence (PKCS#3)
+     * @throws IOException
+     */
+    static byte[] encode(DHParameterSpec dhParam) throws IOException {
+        // No support for dhParam.getEncoded() like for keys, so manually build structure
+        ASN1EncodableVector seq = new ASN1EncodableVector();
+        seq.add(new ASN1Integer(dhParam.getP()));
+        seq.add(new ASN1Integer(dhParam.getG()));
+        return new DERSequence(seq).getEncoded();
+    }
+
+    private static Path getPath(int size) {
+        if (OccpAdmin.occpHiddenDirPath == null) {
+            return null;
+        }
+        return OccpAdmin.occpHiddenDirPath.resolve("dh" + size + ".pem");
+    }
+
+    /**
+     * Read stored parameters, checking they are sound and of the expected size
+     * 
+     * @param path - Where they are stored
+     * @param size - Expected size of the prime
+     * @return The parameters, or null if they can't be used
+     */
+    private static DHParameterSpec read(Path path, int size) {
+        try {
+            String pem = new String(Files.readAllBytes(path), StandardCharsets.US_ASCII);
+            int begin = pem.indexOf(BEGIN), end = pem.indexOf(END);
+            if (begin < 0 || end < begin) {
+                throw new IOException("Not a DH parameters file");
+            }
+            byte[] der = Base64.decodeBase64(pem.substring(begin + BEGIN.length(), end));
+            ASN1Sequence seq = ASN1Sequence.getInstance(der);
+            BigInteger p = ASN1Integer.getInstance(seq.getObjectAt(0)).getValue();
+            BigInteger g = ASN1Integer.getInstance(seq.getObjectAt(1)).getValue();
+            if (p.bitLength() != size || !p.isProbablePrime(64)) {
+                throw new IOException("The prime is not a " + size + " bit prime");
+            }
+            if (g.compareTo(BigInteger.ONE) <= 0 || g.compareTo(p.subtract(BigInteger.ONE)) >= 0) {
+                throw new IOException("The generator is out of range");
+            }
+            return new DHParameterSpec(p, g);
+        } catch (IOException | RuntimeException e) {
+            logger.log(Level.WARNING, "Ignoring unusable DH parameters in " + path, e);
+            return null;
+        }
+    }
+
+    private static void write(Path path, DHParameterSpec dhParam) {
+        Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+        try {
+            Base64 encoder = new Base64(76, new byte[] { '\n' });
+            String pem = BEGIN + "\n" + encoder.encodeToString(encode(dhParam)) + END + "\n";
+            Files.write(temp, pem.getBytes(StandardCharsets.US_ASCII));
+            Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            logger.log(Level.FINE, "Unable to save DH parameters to " + path, e);
+            try {
+                Files.deleteIfExists(temp);
+            } catch (IOException e1) {
+                logger.log(Level.FINE, "Unable to remove " + temp, e1);
+            }
+        }
+    }
+}
@@ -0,0 +1,206 @@
+package edu.uri.dfcsc.occp;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.TreeMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Append-only record of the deploy steps completed for each VM of a scenario. Every step is flushed to disk before
+ * the deploy moves on, so if the program dies part way through, the next run can pick up each VM from its last
+ * checkpoint instead of rediscovering its state through the hypervisor.
+ * 
+ * Each line is: time, hypervisor name, VM label, step (tab separated). Only the last step for a VM matters; the file
+ * is compacted to those when it is opened.
+ */
+public class DeployJournal {
+    private static final Logger logger = Logger.getLogger(DeployJournal.class.getName());
+
+    /**
+     * Checkpoints in the life of a scenario VM, in the order they are reached
+     */
+    public static enum Step {
+        /**
+         * The VM has been cloned, imported or created, but has no phase snapshot yet
+         */
+        CREATED,
+        /**
+         * The VM has a phase1 snapshot and is in that state
+         */
+        PHASE1_SNAPSHOT,
+        /**
+         * Phase 2 was applied and the VM has powered off
+         */
+        PHASE2_APPLIED,
+        /**
+         * The final networks (and RAM) have been assigned
+         */
+        NETWORKS_ASSIGNED,
+        /**
+         * The VM has a phase2 snapshot, deploying it is complete
+         */
+        PHASE2_SNAPSHOT,
+        /**
+         * The VM no longer exists
+         */
+        REMOVED;
+    }
+
+    /**
+     * The last known step for a VM
+     */
+    private static final class Checkpoint {
+        final String hvName;
+        final Step step;
+
+        Checkpoint(String hvName, Step step) {
+            this.hvName = hvName;
+            this.step = step;
+        }
+    }
+
+    private final Path path;
+    private final Map<String, Checkpoint> checkpoints = new TreeMap<>();
+    private FileChannel channel = null;
+
+    /**
+     * Open (or create) the journal at the given location. Problems are logged and result in a journal that has no
+     * history or does not record, as it only saves work and is never required.
+     * 
+     * @param path - Location of the journal file
+     * @param readOnly - Only read the history, the file is neither compacted nor written to
+     */
+    public DeployJournal(Path path, boolean readOnly) {
+        this.path = path;
+        if (Files.exists(path)) {
+            try (BufferedReader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    replay(line);
+                }
+            } catch (IOException e) {
+                logger.log(Level.WARNING, "Unable to read the deploy journal " + path, e);
+                checkpoints.clear();
+            }
+        }
+        if (readOnly) {
+            return;
+        }
+        try {
+            compact();
+            channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.APPEND);
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "Unable to open the deploy journal " + path + ", progress will not be recorded",
+                    e);
+        }
+    }
+
+    private void replay(String line) {
+        String[] fields = line.split("\t");
+        if (fields.length != 4) {
+            // Most likely a line torn by a crash, it never became a checkpoint
+            logger.finest("Ignoring journal line: " + line);
+            return;
+        }
+        try {
+            Step step = Step.valueOf(fields[3]);
+            if (step == Step.REMOVED) {
+                checkpoints.remove(fields[2]);
+            } else {
+                checkpoints.put(fields[2], new Checkpoint(fields[1], step));
+            }
+        } catch (IllegalArgumentException e) {
+            logger.finest("Ignoring journal line: " + line);
+        }
+    }
+
+    /**
+     * Rewrite the journal with only the current checkpoints, so it does not grow from one run to the next
+     * 
+     * @throws IOException
+     */
+    private void compact() throws IOException {
+        Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+        try (FileChannel out = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            for (Entry<String, Checkpoint> entry : checkpoints.entrySet()) {
+                out.write(encode(entry.getValue().hvName, entry.getKey(), entry.getValue().step));
+            }
+            out.force(true);
+        }
+        Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static ByteBuffer encode(String hvName, String label, Step step) {
+        String line = System.currentTimeMillis() + "\t" + hvName + "\t" + label + "\t" + step.name() + "\n";
+        return ByteBuffer.wrap(line.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Get the last step recorded for a VM
+     * 
+     * @param hvName - Hypervisor the VM is expected on
+     * @param label - Label of the VM
+     * @return The step, or null if nothing is known about this VM on this hypervisor
+     */
+    public synchronized Step getCheckpoint(String hvName, String label) {
+        Checkpoint checkpoint = checkpoints.get(label);
+        if (checkpoint == null || !checkpoint.hvName.equals(hvName)) {
+            return null;
+        }
+        return checkpoint.step;
+    }
+
+    /**
+     * Durably record that a VM has reached a step. Returns once the record is on disk.
+     * 
+     * @param hvName - Hypervisor the VM is on
+     * @param label - Label of the VM
+     * @param step - Step reached
+     */
+    public synchronized void record(String hvName, String label, Step step) {
+        if (step == Step.REMOVED) {
+            checkpoints.remove(label);
+        } else {
+            checkpoints.put(label, new Checkpoint(hvName, step));
+        }
+        if (channel == null) {
+            return;
+        }
+        try {
+            ByteBuffer line = encode(hvName, label, step);
+            while (line.hasRemaining()) {
+                channel.write(line);
+            }
+            channel.force(true);
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "Unable to write to the deploy journal, progress will no longer be recorded", e);
+            close();
+        }
+    }
+
+    /**
+     * Stop recording
+     */
+    public synchronized void close() {
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                logger.log(Level.FINE, "Error closing the deploy journal", e);
+            }
+            channel = null;
+        }
+    }
+}
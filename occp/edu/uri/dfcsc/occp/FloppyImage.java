@@ -0,0 +1,143 @@
+package edu.uri.dfcsc.occp;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import de.waldheinz.fs.BlockDevice;
+import de.waldheinz.fs.FsFile;
+import de.waldheinz.fs.fat.FatFileSystem;
+import de.waldheinz.fs.fat.SuperFloppyFormatter;
+
+/**
+ * A 1.44MB FAT floppy image built in memory. Files are written to through {@link PrintStream}s that only fill heap
+ * buffers; nothing touches the image until {@link #write()}, which formats it and stores each file with a single
+ * write. The image file is memory mapped while it is written, so the file system never goes through per sector IO.
+ */
+final class FloppyImage {
+    private static final int SECTOR_SIZE = 512;
+    private static final int IMAGE_SIZE = 1440 * 1024;
+
+    private final Path path;
+    // Contents of each file, in the order they were added
+    private final Map<String, ByteArrayOutputStream> files = new LinkedHashMap<>();
+
+    /**
+     * @param path - Where the image will be written
+     */
+    FloppyImage(Path path) {
+        this.path = path;
+    }
+
+    /**
+     * Add a file to the root of the floppy. Streams do not need to be closed, whatever was printed by the time the
+     * image is written is what the file contains.
+     * 
+     * @param name - Name of the file
+     * @return A stream to write the file's contents to
+     * @throws FileAlreadyExistsException - If there already is a file with this name
+     */
+    synchronized PrintStream addFile(String name) throws FileAlreadyExistsException {
+        if (files.containsKey(name)) {
+            throw new FileAlreadyExistsException(name);
+        }
+        ByteArrayOutputStream contents = new ByteArrayOutputStream();
+        files.put(name, contents);
+        return new PrintStream(contents);
+    }
+
+    /**
+     * Format the image and store the files on it, replacing any existing image
+     * 
+     * @throws IOException
+     */
+    synchronized void write() throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            MappedByteBuffer image = channel.map(FileChannel.MapMode.READ_WRITE, 0, IMAGE_SIZE);
+            FatFileSystem fs = SuperFloppyFormatter.get(new MappedDisk(image)).format();
+            for (Entry<String, ByteArrayOutputStream> entry : files.entrySet()) {
+                FsFile file = fs.getRoot().addFile(entry.getKey()).getFile();
+                file.write(0, ByteBuffer.wrap(entry.getValue().toByteArray()));
+            }
+            fs.close();
+            image.force();
+        }
+    }
+
+    /**
+     * A {@link BlockDevice} over a mapped image
+     */
+    private static final class MappedDisk implements BlockDevice {
+        private final MappedByteBuffer image;
+        private boolean closed = false;
+
+        MappedDisk(MappedByteBuffer image) {
+            this.image = image;
+        }
+
+        @Override
+        public long getSize() {
+            return image.capacity();
+        }
+
+        @Override
+        public void read(long devOffset, ByteBuffer dest) throws IOException {
+            ByteBuffer src = region(devOffset, dest.remaining());
+            dest.put(src);
+        }
+
+        @Override
+        public void write(long devOffset, ByteBuffer src) throws IOException {
+            ByteBuffer dest = region(devOffset, src.remaining());
+            dest.put(src);
+        }
+
+        private ByteBuffer region(long devOffset, int length) throws IOException {
+            if (closed) {
+                throw new IOException("The image is closed");
+            }
+            if (devOffset < 0 || devOffset + length > image.capacity()) {
+                throw new IllegalArgumentException("Offset " + devOffset + " is outside the image");
+            }
+            ByteBuffer result = image.duplicate();
+            result.position((int) devOffset);
+            result.limit((int) devOffset + length);
+            return result;
+        }
+
+        @Override
+        public void flush() {
+            // Forced once the whole image is written
+        }
+
+        @Override
+        public int getSectorSize() {
+            return SECTOR_SIZE;
+        }
+
+        @Override
+        public void close() {
+            closed = true;
+        }
+
+        @Override
+        public boolean isClosed() {
+            return closed;
+        }
+
+        @Override
+        public boolean isReadOnly() {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,288 @@
+package edu.uri.dfcsc.occp;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.GeneralSecurityException;
+import java.security.InvalidAlgorithmParameterException;
+import java.security.KeyFactory;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.NoSuchAlgorithmException;
+import java.security.NoSuchProviderException;
+import java.security.Security;
+import java.security.spec.InvalidKeySpecException;
+import java.security.spec.PKCS8EncodedKeySpec;
+import java.security.spec.RSAKeyGenParameterSpec;
+import java.security.spec.X509EncodedKeySpec;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+
+/**
+ * RSA key pairs generated ahead of time, so the VPN certificates and SSH key generators don't wait on prime searches.
+ * A low priority thread keeps the pool topped up while the program runs, and the keys it makes are kept for later
+ * runs. Taking a key never waits for the pool; if it is empty a key is generated on the spot, as before.
+ * 
+ * Each key is a file in the pool directory. Taking one renames the file first, so no key is ever handed out twice,
+ * even to two copies of the program sharing a directory. The keys are protected the same way as the rest of the
+ * hidden directory, by the directory and files being readable only by their owner.
+ */
+public final class KeyPool {
+    private static final Logger logger = Logger.getLogger(KeyPool.class.getName());
+
+    // Every consumer uses 1024 bit keys with the usual public exponent
+    private static final int KEY_SIZE = 1024;
+    private static final String ENTRY_SUFFIX = ".rsa";
+    private static final String TAKEN_SUFFIX = ".taken";
+    private static final String TEMP_SUFFIX = ".tmp";
+    // Keys used to be sealed with this, it only ever sat next to them
+    private static final String SECRET_NAME = "secret";
+    // Taken and temporary files live for moments, older ones were left by a run that died
+    private static final long STALE_MILLIS = TimeUnit.MINUTES.toMillis(10);
+    private static final Set<PosixFilePermission> OWNER_ONLY = PosixFilePermissions.fromString("rw-------");
+
+    private static KeyPool pool = null;
+
+    static {
+        // Keys are generated with BouncyCastle, as the certificates are
+        Security.addProvider(new BouncyCastleProvider());
+    }
+
+    private final Path dir;
+    private final int target;
+    private final BlockingQueue<Path> available = new LinkedBlockingQueue<>();
+    private final Thread filler;
+    private volatile boolean stopped = false;
+
+    private KeyPool(Path dir, int target) throws IOException {
+        this.dir = dir;
+        this.target = target;
+        Files.createDirectories(dir);
+        try {
+            Files.setPosixFilePermissions(dir, PosixFilePermissions.fromString("rwx------"));
+        } catch (UnsupportedOperationException e) {
+            logger.finest("Unable to restrict permissions on " + dir);
+        }
+        Files.deleteIfExists(dir.resolve(SECRET_NAME));
+        long stale = System.currentTimeMillis() - STALE_MILLIS;
+        try (DirectoryStream<Path> entries = Files.newDirectoryStream(dir)) {
+            for (Path entry : entries) {
+                String name = entry.getFileName().toString();
+                if (name.endsWith(ENTRY_SUFFIX)) {
+                    available.add(entry);
+                } else if ((name.endsWith(TAKEN_SUFFIX) || name.endsWith(TEMP_SUFFIX))
+                        && Files.getLastModifiedTime(entry).toMillis() < stale) {
+                    // Left by a run that died, a taken key may have been used so it must not come back. Newer ones
+                    // belong to another run sharing the directory.
+                    Files.deleteIfExists(entry);
+                }
+            }
+        }
+        filler = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                fill();
+            }
+        }, "KeyPool");
+        filler.setDaemon(true);
+        filler.setPriority(Thread.MIN_PRIORITY);
+    }
+
+    /**
+     * Open the pool and start keeping it topped up. Problems are logged and leave keys being generated as needed.
+     * 
+     * @param dir - Directory holding the pool
+     * @param target - Number of keys to keep ready, 0 to not use a pool
+     */
+    public static synchronized void start(Path dir, int target) {
+        if (pool != null || target <= 0) {
+            return;
+        }
+        try {
+            pool = new KeyPool(dir, target);
+            pool.filler.start();
+            logger.fine(pool.available.size() + " pregenerated keys available");
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "Unable to open the key pool in " + dir + ", keys will be generated as needed", e);
+        }
+    }
+
+    /**
+     * Stop topping up the pool, once the key being made is finished. Keys already made stay for the next run.
+     */
+    public static void stop() {
+        KeyPool stopping;
+        synchronized (KeyPool.class) {
+            stopping = pool;
+            pool = null;
+        }
+        if (stopping != null) {
+            stopping.stopped = true;
+            stopping.filler.interrupt();
+            try {
+                stopping.filler.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Take a key pair from the pool, or generate one if it is empty
+     * 
+     * @return A key pair never handed out before
+     * @throws NoSuchAlgorithmException
+     * @throws NoSuchProviderException
+     * @throws InvalidAlgorithmParameterException
+     */
+    public static KeyPair take() throws NoSuchAlgorithmException, NoSuchProviderException,
+            InvalidAlgorithmParameterException {
+        KeyPool current;
+        synchronized (KeyPool.class) {
+            current = pool;
+        }
+        if (current != null) {
+            KeyPair result = current.claim();
+            if (result != null) {
+                return result;
+            }
+            logger.finest("Key pool is empty, generating a key");
+        }
+        return generate();
+    }
+
+    private static KeyPair generate() throws NoSuchAlgorithmException, NoSuchProviderException,
+            InvalidAlgorithmParameterException {
+        KeyPairGenerator kpg = KeyPairGenerator.getInstance("RSA", "BC");
+        RSAKeyGenParameterSpec rsasp = new RSAKeyGenParameterSpec(KEY_SIZE, BigInteger.valueOf(0x10001));
+        kpg.initialize(rsasp);
+        return kpg.generateKeyPair();
+    }
+
+    /**
+     * @return A key from the pool, or null if there are none left
+     */
+    private KeyPair claim() {
+        Path entry;
+        while ((entry = available.poll()) != null) {
+            synchronized (this) {
+                // Let the filler replace it
+                notifyAll();
+            }
+            Path taken = entry.resolveSibling(entry.getFileName() + TAKEN_SUFFIX);
+            try {
+                // Whoever renames the file owns the key
+                Files.move(entry, taken, StandardCopyOption.ATOMIC_MOVE);
+            } catch (IOException e) {
+                logger.log(Level.FINEST, "Pooled key " + entry + " was already taken", e);
+                continue;
+            }
+            try {
+                return decode(Files.readAllBytes(taken));
+            } catch (IOException | GeneralSecurityException | RuntimeException e) {
+                // Including keys sealed by older versions
+                logger.log(Level.FINE, "Discarding unreadable pooled key " + entry, e);
+            } finally {
+                try {
+                    Files.deleteIfExists(taken);
+                } catch (IOException e) {
+                    logger.log(Level.FINE, "Unable to remove " + taken, e);
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Run by the filler thread until the pool is stopped
+     */
+    private void fill() {
+        try {
+            while (!stopped) {
+                synchronized (this) {
+                    while (!stopped && available.size() >= target) {
+                        wait();
+                    }
+                }
+                if (stopped) {
+                    break;
+                }
+                byte[] encoded = encode(generate());
+                Path temp = dir.resolve(UUID.randomUUID() + TEMP_SUFFIX);
+                Path entry = dir.resolve(temp.getFileName().toString().replace(TEMP_SUFFIX, ENTRY_SUFFIX));
+                try {
+                    write(temp, encoded);
+                    Files.move(temp, entry, StandardCopyOption.ATOMIC_MOVE);
+                } catch (IOException e) {
+                    Files.deleteIfExists(temp);
+                    if (stopped) {
+                        // Interrupted part way through the write
+                        break;
+                    }
+                    throw e;
+                }
+                available.add(entry);
+            }
+        } catch (InterruptedException e) {
+            // Stopped
+        } catch (IOException | GeneralSecurityException e) {
+            logger.log(Level.WARNING, "Unable to add to the key pool, it will no longer be topped up", e);
+        }
+    }
+
+    /**
+     * Write a file that only its owner can read, from the moment it exists
+     */
+    private static void write(Path path, byte[] data) throws IOException {
+        try {
+            Files.createFile(path, PosixFilePermissions.asFileAttribute(OWNER_ONLY));
+        } catch (UnsupportedOperationException e) {
+            Files.createFile(path);
+        }
+        try (OutputStream out = Files.newOutputStream(path)) {
+            out.write(data);
+        }
+    }
+
+    private static byte[] encode(KeyPair keyPair) throws IOException {
+        ByteArrayOutputStream plain = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(plain)) {
+            byte[] publicKey = keyPair.getPublic().getEncoded();
+            out.writeInt(publicKey.length);
+            out.write(publicKey);
+            out.write(keyPair.getPrivate().getEncoded());
+        }
+        return plain.toByteArray();
+    }
+
+    private static KeyPair decode(byte[] data) throws GeneralSecurityException {
+        ByteBuffer plain = ByteBuffer.wrap(data);
+        int publicLength = plain.getInt();
+        if (publicLength < 0 || publicLength > plain.remaining()) {
+            throw new InvalidKeySpecException("Not a pooled key");
+        }
+        byte[] publicKey = new byte[publicLength];
+        plain.get(publicKey);
+        byte[] privateKey = new byte[plain.remaining()];
+        plain.get(privateKey);
+        KeyFactory factory = KeyFactory.getInstance("RSA");
+        return new KeyPair(factory.generatePublic(new X509EncodedKeySpec(publicKey)),
+                factory.generatePrivate(new PKCS8EncodedKeySpec(privateKey)));
+    }
+}
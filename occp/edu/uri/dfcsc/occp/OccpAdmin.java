@@ -1,6 +1,8 @@
 package edu.uri.dfcsc.occp;
 
 import java.io.*;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
 import java.nio.file.*;
 import java.nio.file.attribute.BasicFileAttributes;
 import java.nio.file.attribute.PosixFilePermission;
@@ -24,11 +26,6 @@ import org.apache.commons.lang.StringUtils;
 import org.apache.commons.net.util.SubnetUtils;
 import org.bouncycastle.operator.OperatorCreationException;
 
-import de.waldheinz.fs.FileSystem;
-import de.waldheinz.fs.FsDirectoryEntry;
-import de.waldheinz.fs.FsFile;
-import de.waldheinz.fs.fat.SuperFloppyFormatter;
-import de.waldheinz.fs.util.FileDisk;
 
 import edu.uri.dfcsc.occp.CA.CertPair;
 import edu.uri.dfcsc.occp.OccpHV.OccpVM;
@@ -36,9 +33,12 @@ import edu.uri.dfcsc.occp.OccpNetworkInterface.InterfaceType;
 import edu.uri.dfcsc.occp.exceptions.OccpException;
 import edu.uri.dfcsc.occp.exceptions.configmanager.ConfigManagerException;
 import edu.uri.dfcsc.occp.exceptions.configmanager.ConfigManagerTemporaryFailureException;
+import edu.uri.dfcsc.occp.exceptions.vm.HVOperationFailedException;
 import edu.uri.dfcsc.occp.exceptions.vm.VMNotFoundException;
 import edu.uri.dfcsc.occp.exceptions.vm.VMOperationFailedException;
+import edu.uri.dfcsc.occp.utils.AdaptiveLimiter;
 import edu.uri.dfcsc.occp.utils.DHCPServer;
+import edu.uri.dfcsc.occp.utils.Trace;
 
 /**
  * <pre>
@@ -57,10 +57,12 @@ public class OccpAdmin {
      */
     public static Path occpHiddenDirPath;
     private static long startTime = System.currentTimeMillis();
+    // Covers the whole run when tracing
+    private static Trace.Span runSpan = null;
     private static String hypervisor;
     private static String hvName = "specified";
-    private static final String[] Modes = new String[] { "addhv", "cleanup", "delhv", "deploy", "export", "launch",
-            "listhv", "poweroff", "testhv", "verify" };
+    private static final String[] Modes = new String[] { "addhv", "cleanup", "delhv", "deploy", "export",
+            "genscenario", "launch", "listhv", "poweroff", "testhv", "verify" };
     private static String modeList;
     private static String ConfigFile;
     /**
@@ -73,32 +75,39 @@ public class OccpAdmin {
     public static String scenarioName;
     public static String instanceId = null;
     private static String runMode;
-    private static String hvMap;
-    private static Map<String, List<OccpHost>> hv2vm;
-    private static Map<String, String> vm2hv;
-    private static Map<String, Set<OccpNetwork>> hv2net;
+    static String hvMap;
+    static Map<String, List<OccpHost>> hv2vm;
+    static Map<String, String> vm2hv;
+    static Map<String, Set<OccpNetwork>> hv2net;
     private static Map<String, Set<String>> net2hv;
     private static boolean failure;
     private static final Logger logger = Logger.getLogger(OccpAdmin.class.getPackage().getName());
-    private static Map<String, OccpHV> hvs;
+    static Map<String, OccpHV> hvs;
     private static Map<String, String> hv2vpnip;
     private static Map<String, String> hv2vpngw;
     private static Map<String, Set<String>> hv2net_vpn;
-    private static Map<String, VpnConnection> net2vpn;
+    static Map<String, VpnConnection> net2vpn;
     private static int clientNum = 0;
     private static int serverNum = 0;
 
-    private static ThreadPoolExecutor exec;
+    // Deploy jobs, which spend nearly all their time blocked (see createWaitExecutor)
+    private static ExecutorService exec;
+    // Work that keeps a core busy, such as certificate and key generation
+    private static ExecutorService cpuExec;
     // used by DHCP code to prevent duplicate assignment
     private static int nextOctet = 2;
     private static DHCPServer mondhcp = new DHCPServer();
     private static SetupNetwork setup = null;
+    // Progress of each VM's deploy, so an interrupted deploy can resume
+    private static DeployJournal journal;
+    // MAC addresses of the scenario VMs by "label/adapter", from describeVMs or else the first lookup (see getVMMac)
+    private static final ConcurrentMap<String, String> vmMacs = new ConcurrentHashMap<>();
 
     /**
      * Properties from occp.conf
      */
     public static Properties globalConfig;
-    private static OccpParser parser;
+    static OccpParser parser;
 
     /**
      * The name of the network used during setup phase.
@@ -126,6 +135,39 @@ public class OccpAdmin {
      */
     private static ConfigManagerControl configManager = null;
     private static Semaphore concurrency;
+
+    /**
+     * Kinds of hypervisor work that are limited separately, since a hypervisor may cope well with many of one kind
+     * and poorly with a few of another
+     */
+    static enum HVOperation {
+        CLONE(true), IMPORT(false), CREATE(false), SNAPSHOT(true), PHASE(false), REVERT(true);
+
+        // Imports and ISOs take as long as their files are large, phases as long as their content packs take, so
+        // only for the others does a slower operation mean an overloaded hypervisor
+        final boolean latencySignalsOverload;
+
+        private HVOperation(boolean latencySignalsOverload) {
+            this.latencySignalsOverload = latencySignalsOverload;
+        }
+    }
+
+    /**
+     * Work on a hypervisor, run under one of its limiters (see limited)
+     * 
+     * @param <T> - Result of the work
+     */
+    interface HVWork<T> {
+        /**
+         * @return The result of the work
+         * @throws OccpException
+         * @throws InterruptedException
+         */
+        T run() throws OccpException, InterruptedException;
+    }
+
+    // Per hypervisor, per operation limits which adapt to what each hypervisor sustains (see getHVLimiter)
+    private static final Map<String, Map<HVOperation, AdaptiveLimiter>> hvLimiters = new HashMap<>();
     static final String RTR_GS_LINK = "rtr-gs-link";
 
     /**
@@ -228,6 +270,7 @@ public class OccpAdmin {
         System.out.println("\tdelhv - Removes a cached hypervisor by --hvname");
         System.out.println("\tdeploy - Prepares a scenario for launch but does not turn on the VMs");
         System.out.println("\texport - Packages a scenario for distribution to OCCP users");
+        System.out.println("\tgenscenario - Writes a synthetic scenario to --config and its map to --hvmap");
         System.out.println("\tlaunch - Prepares a scenario for launch and powers on the VMs");
         System.out.println("\tlisthv - List a cached hypervisor by --hvname, or all");
         System.out.println("\tpoweroff - Power off all the VMs in a scenario");
@@ -241,6 +284,8 @@ public class OccpAdmin {
         System.out.println("\nHypervisor Specific Options:");
         System.out.println(OccpVBoxHV.getUsage());
         System.out.println(OccpEsxiHV.getUsage());
+        System.out.println(OccpSimHV.getUsage());
+        System.out.println(ScenarioGenerator.getUsage());
         System.out.println("\nExamples:");
         System.out.println("Adding a VirtualBox hypervisor then using it to deploy");
         System.out
@@ -379,6 +424,9 @@ public class OccpAdmin {
         if (runMode.equalsIgnoreCase("delhv") && hvName.equals("specified")) {
             throw new IllegalArgumentException(runMode + " requires --hvname");
         }
+        if (runMode.equalsIgnoreCase("genscenario") && (ConfigFile == null || hvMap == null)) {
+            throw new IllegalArgumentException(runMode + " requires --config and --hvmap");
+        }
         if (hvName.equals("specified") && hypervisor == null && hvMap == null && !runMode.equalsIgnoreCase("listhv")
                 && !runMode.equalsIgnoreCase("testhv")) {
             throw new IllegalArgumentException("No hypervisor specified");
@@ -426,30 +474,44 @@ public class OccpAdmin {
         javax.net.ssl.HttpsURLConnection.setDefaultSSLSocketFactory(sc.getSocketFactory());
     }
 
-    private static FileSystem mountFloppy(String fileName) {
-        try {
-            FileDisk disk;
-            disk = FileDisk.create(new File(fileName), (long) 1440 * 1024);
-            return SuperFloppyFormatter.get(disk).format();
-        } catch (IOException e) {
-            logger.log(Level.SEVERE, "Unable to mount/format " + fileName + ".img:", e);
-            exitProgram(ExitCode.ROUTER_FLOPPY.value);
-            return null;
-        }
+    private static FloppyImage mountFloppy(String fileName) {
+        return new FloppyImage(Paths.get(fileName));
     }
 
-    private static PrintStream createFloppyFile(FileSystem fs, String name) throws IOException {
-        FsDirectoryEntry floppyEntry = fs.getRoot().addFile(name);
-        FsFile floppyfile = floppyEntry.getFile();
-        return new PrintStream(new FsFileAdapter(floppyfile));
+    private static PrintStream createFloppyFile(FloppyImage floppy, String name) throws IOException {
+        return floppy.addFile(name);
     }
 
-    private static void unmountFloppy(FileSystem fs) {
+    private static boolean unmountFloppy(FloppyImage floppy, String fileName) {
         try {
-            fs.close();
+            floppy.write();
+            return true;
         } catch (IOException e) {
-            logger.log(Level.WARNING, "Failed to unmount floppy", e);
+            logger.log(Level.SEVERE, "Unable to write " + fileName, e);
+            return false;
+        }
+    }
+
+    /**
+     * Create the executor for deploy jobs. These spend nearly all of their time blocked on SOAP calls, guest waits, SSH
+     * sessions and polling sleeps, so each job simply gets its own thread; the real limits are the per hypervisor
+     * semaphores and limiters. Virtual threads are used when the runtime provides them (Java 21+), otherwise threads
+     * are created on demand and reaped once idle.
+     * 
+     * @return The executor
+     */
+    private static ExecutorService createWaitExecutor() {
+        try {
+            Method virtualExecutor = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            ExecutorService result = (ExecutorService) virtualExecutor.invoke(null);
+            logger.fine("Using virtual threads for deploy jobs");
+            return result;
+        } catch (NoSuchMethodException e) {
+            // Runtime predates virtual threads
+        } catch (IllegalAccessException | InvocationTargetException e) {
+            logger.log(Level.FINE, "Unable to use virtual threads for deploy jobs", e);
         }
+        return new ThreadPoolExecutor(0, Integer.MAX_VALUE, 60L, TimeUnit.SECONDS, new SynchronousQueue<Runnable>());
     }
 
     /**
@@ -467,76 +529,263 @@ public class OccpAdmin {
     }
 
     private static boolean checkNetworksOnHV(OccpHV hv, Collection<OccpNetwork> collection) {
-        boolean Failure = false;
+        List<String> labels = new ArrayList<>();
         for (OccpNetwork net : collection) {
-            if (!hv.networkExists(net.getLabel())) {
-                if (!runMode.equals("verify")) {
-                    logger.fine("Creating network " + net.getLabel());
-                    try {
-                        hv.createNetwork(net.getLabel());
-                    } catch (OccpException e) {
-                        logger.log(Level.SEVERE, e.getMessage(), e);
-                        Failure = true;
-                    }
+            labels.add(net.getLabel());
+        }
+        boolean verify = runMode.equals("verify");
+        try {
+            // All of them at once, see ensureNetworks
+            for (String label : hv.ensureNetworks(labels, !verify)) {
+                if (!verify) {
+                    logger.fine("Created network " + label);
                 } else {
-                    logger.info("Network " + net.getLabel() + " not found (Running deploy will fix this)");
+                    logger.info("Network " + label + " not found (Running deploy will fix this)");
                 }
             }
+        } catch (OccpException e) {
+            logger.log(Level.SEVERE, e.getMessage(), e);
+            return false;
         }
-        return !Failure;
+        return true;
     }
 
     // Determine which phase VM we have available for this host
     // Phase 0 means deploy from base VM (clone, phase1, clone, phase2)
     // Phase 1 means only do phase 2 deploy (clone, phase2)
     // Phase 2 means it's all done
-    private static int findVMPhase(OccpHV hv, OccpHost host) throws OccpException {
+    // described is what describeVMs found on the hypervisor, any VM removed here is removed from it too
+    // reverts gets the snapshot an existing VM needs to go back to, which its job does (see RevertVM)
+    private static int findVMPhase(OccpHV hv, OccpHost host, Map<String, OccpHV.VMInfo> described,
+            Map<String, String> reverts) throws OccpException {
         if (host.getLabel().equals(OccpParser.ROUTER_NAME)) {
             return 2;
         }
-        try {
-            OccpVM vm = hv.getVM(host.getLabel());
-            if (hv.hasSnapshot(vm, "phase2")) {
+        int resumed = resumeVMPhase(hv, host, described);
+        if (resumed >= 0) {
+            return resumed;
+        }
+        OccpHV.VMInfo info = described.get(host.getLabel());
+        if (info != null) {
+            OccpVM vm = info.getVM();
+            if (info.hasSnapshot("phase2")) {
                 if (!runMode.equals("verify")) {
-                    hv.revertToSnapshot(vm, "phase2");
+                    reverts.put(host.getLabel(), "phase2");
                 }
+                journal(hv, host.getLabel(), DeployJournal.Step.PHASE2_SNAPSHOT);
                 return 2;
             }
-            if (hv.hasSnapshot(vm, "phase1")) {
+            if (info.hasSnapshot("phase1")) {
+                // RevertVM journals it once the VM is back at the snapshot
                 if (!runMode.equals("verify")) {
-                    hv.revertToSnapshot(vm, "phase1");
+                    reverts.put(host.getLabel(), "phase1");
                 }
                 return 1;
             }
             if (OccpAdmin.force) {
                 // Treat as failed to get to phase 1, remove, if asked
                 hv.deleteVM(vm);
+                described.remove(host.getLabel());
+                journal(hv, host.getLabel(), DeployJournal.Step.REMOVED);
                 return 0;
             }
             logger.warning(host.getLabel() + " exists but has no snapshots. You may need to use --force to remove it.");
             return -1;
-        } catch (VMNotFoundException e) {
-            String isoFile = host.getIsoName();
-            if (isoFile != null && scenarioBaseDir.resolve(isoFile).toFile().exists()) {
+        }
+        String isoFile = host.getIsoName();
+        if (isoFile != null && scenarioBaseDir.resolve(isoFile).toFile().exists()) {
+            return 2;
+        }
+        String importVM = host.getOvaName();
+        if (importVM != null && scenarioBaseDir.resolve(importVM).toFile().exists()) {
+            return host.getPhase();
+        }
+        if (host.getClone() != null) {
+            return host.getPhase();
+        }
+
+        if (host.getBaseVM() != null) {
+            if (host.getPhase() == 2) {
+                host.setClone(host.getBaseVM());
                 return 2;
             }
-            String importVM = host.getOvaName();
-            if (importVM != null && scenarioBaseDir.resolve(importVM).toFile().exists()) {
-                return host.getPhase();
-            }
-            if (host.getClone() != null) {
-                return host.getPhase();
+            return 0;
+        }
+        return -1;
+    }
+
+    /**
+     * Use the deploy journal for what the snapshots can't tell us. A VM that has had phase 2 applied, but has no
+     * phase2 snapshot yet, only needs its final networks, RAM and snapshot. A VM that an interrupted deploy created,
+     * but that never reached a snapshot, is removed so it can be created again; --force is not needed since it is
+     * known to be ours.
+     * 
+     * @param hv - Hypervisor the VM should be on
+     * @param host - Host to find the phase of
+     * @param described - What describeVMs found on the hypervisor
+     * @return The phase, as for findVMPhase, or -1 if the snapshots decide
+     * @throws OccpException
+     */
+    private static int resumeVMPhase(OccpHV hv, OccpHost host, Map<String, OccpHV.VMInfo> described)
+            throws OccpException {
+        DeployJournal.Step checkpoint = journal.getCheckpoint(hv.getName(), host.getLabel());
+        if (checkpoint == null) {
+            return -1;
+        }
+        OccpHV.VMInfo info = described.get(host.getLabel());
+        if (info == null) {
+            // The journal is stale, someone removed the VM behind our back
+            logger.fine(host.getLabel() + " is in the deploy journal but no longer exists");
+            journal(hv, host.getLabel(), DeployJournal.Step.REMOVED);
+            return -1;
+        }
+        if (getRegenFlag() && info.hasSnapshot("phase1")) {
+            // A regen takes it back to phase 1, whatever the journal says about phase 2
+            return -1;
+        }
+        switch (checkpoint) {
+        case NETWORKS_ASSIGNED:
+        case PHASE2_APPLIED:
+            if (!info.hasSnapshot("phase2")) {
+                // They are finished along with the results of the other VMs
+                return 2;
             }
+            break;
+        case CREATED:
+            if (!info.hasSnapshot("phase1") && !info.hasSnapshot("phase2") && !runMode.equals("verify")) {
+                logger.info("Removing " + host.getLabel() + ", its deploy was interrupted before phase 1 completed");
+                hv.deleteVM(info.getVM());
+                described.remove(host.getLabel());
+                journal(hv, host.getLabel(), DeployJournal.Step.REMOVED);
+            }
+            break;
+        default:
+            break;
+        }
+        return -1;
+    }
+
+    /**
+     * Record that a VM reached a step of its deploy
+     * 
+     * @param hv - Hypervisor the VM is on
+     * @param label - Label of the VM
+     * @param step - Step reached
+     */
+    private static void journal(OccpHV hv, String label, DeployJournal.Step step) {
+        if (!runMode.equals("verify")) {
+            journal.record(hv.getName(), label, step);
+        }
+    }
 
-            if (host.getBaseVM() != null) {
-                if (host.getPhase() == 2) {
-                    host.setClone(host.getBaseVM());
-                    return 2;
+    /**
+     * Get the limiter for a kind of operation on a hypervisor. Each starts at, and never exceeds, the hypervisor's
+     * configured number of jobs, then adapts to failures and, where it says anything, latency.
+     * 
+     * @param hv - Hypervisor the operation is on
+     * @param operation - Kind of operation
+     * @return The limiter to acquire a permit from
+     */
+    static AdaptiveLimiter getHVLimiter(OccpHV hv, HVOperation operation) {
+        synchronized (hvLimiters) {
+            Map<HVOperation, AdaptiveLimiter> limiters = hvLimiters.get(hv.getName());
+            if (limiters == null) {
+                limiters = new EnumMap<>(HVOperation.class);
+                hvLimiters.put(hv.getName(), limiters);
+            }
+            AdaptiveLimiter limiter = limiters.get(operation);
+            if (limiter == null) {
+                limiter = new AdaptiveLimiter(hv.getName() + "/" + operation.name().toLowerCase(), 1, hv.getJobs(),
+                        operation.latencySignalsOverload);
+                limiters.put(operation, limiter);
+            }
+            return limiter;
+        }
+    }
+
+    /**
+     * Run work on a hypervisor under its limiter for that kind of operation. Failures of the hypervisor or the VM
+     * count against the limit. The caller holds a job slot (see acquireJob), which is given up while waiting for the
+     * limiter, so work of other kinds can use it meanwhile.
+     * 
+     * @param hv - Hypervisor the work is on
+     * @param hvJobs - Job slots of the hypervisor
+     * @param operation - Kind of operation
+     * @param work - The work
+     * @return The result of the work
+     * @throws OccpException
+     * @throws InterruptedException
+     */
+    static <T> T limited(OccpHV hv, Semaphore hvJobs, HVOperation operation, HVWork<T> work) throws OccpException,
+            InterruptedException {
+        AdaptiveLimiter limiter = getHVLimiter(hv, operation);
+        AdaptiveLimiter.Permit permit = limiter.tryAcquire();
+        if (permit == null) {
+            concurrency.release();
+            hvJobs.release();
+            try {
+                Trace.Span span = Trace.begin("wait", operation.name().toLowerCase()).arg("hv", hv.getName());
+                try {
+                    permit = limiter.acquire();
+                } finally {
+                    span.end();
                 }
-                return 0;
+            } finally {
+                // The caller releases the slot when it is done, so it has to be held again whatever happened
+                hvJobs.acquireUninterruptibly();
+                concurrency.acquireUninterruptibly();
             }
         }
-        return -1;
+        try {
+            return work.run();
+        } catch (HVOperationFailedException | VMOperationFailedException e) {
+            permit.failed();
+            throw e;
+        } finally {
+            permit.release();
+        }
+    }
+
+    /**
+     * Create a snapshot, limited by the hypervisor's snapshot limiter
+     * 
+     * @param hv - Hypervisor the VM is on
+     * @param hvJobs - Job slots of the hypervisor, one held by the caller
+     * @param vm - VM to snapshot
+     * @param snapshotName - Name of the snapshot
+     * @throws OccpException
+     * @throws InterruptedException
+     */
+    private static void limitedCreateSnapshot(final OccpHV hv, Semaphore hvJobs, final OccpVM vm,
+            final String snapshotName) throws OccpException, InterruptedException {
+        limited(hv, hvJobs, HVOperation.SNAPSHOT, new HVWork<Void>() {
+            @Override
+            public Void run() throws OccpException {
+                hv.createSnapshot(vm, snapshotName);
+                return null;
+            }
+        });
+    }
+
+    /**
+     * Get the MAC address of an adapter of a scenario VM, asking the hypervisor only if describeVMs didn't say
+     * 
+     * @param hv - Hypervisor the VM is on
+     * @param label - Label of the VM
+     * @param iFaceNumber - Index of the adapter
+     * @return The MAC address, or null if the VM has no such adapter
+     * @throws OccpException
+     */
+    private static String getVMMac(OccpHV hv, String label, int iFaceNumber) throws OccpException {
+        String key = label + "/" + iFaceNumber;
+        String mac = vmMacs.get(key);
+        if (mac == null) {
+            mac = hv.getVMMac(hv.getVM(label), iFaceNumber);
+            if (mac != null) {
+                vmMacs.put(key, mac);
+            }
+        }
+        return mac;
     }
 
     private static boolean ensureDHCPRunning() throws OccpException {
@@ -577,6 +826,54 @@ public class OccpAdmin {
         }
     }
 
+    /**
+     * Wait for a job slot on a hypervisor and then for one of the overall slots, tracing the time spent waiting
+     * 
+     * @param hvJobs - Job slots of the hypervisor
+     * @param hv - The hypervisor
+     * @throws InterruptedException
+     */
+    private static void acquireJob(Semaphore hvJobs, OccpHV hv) throws InterruptedException {
+        Trace.Span span = Trace.begin("wait", "jobs").arg("hv", hv.getName());
+        try {
+            hvJobs.acquire();
+        } finally {
+            span.end();
+        }
+        span = Trace.begin("wait", "concurrency").arg("hv", hv.getName());
+        try {
+            concurrency.acquire();
+        } finally {
+            span.end();
+        }
+    }
+
+    /**
+     * @param label - Label of the VM the job deploys
+     * @param job - The job
+     * @return The job, recording a trace span for the whole of it
+     */
+    private static Callable<OccpVM> traced(final String label, final Callable<OccpVM> job) {
+        if (!Trace.isEnabled()) {
+            return job;
+        }
+        return new Callable<OccpVM>() {
+            @Override
+            public OccpVM call() throws Exception {
+                Trace.Span span = Trace.begin("vm", job.getClass().getSimpleName()).arg("vm", label)
+                        .arg("hv", vm2hv.get(label));
+                try {
+                    return job.call();
+                } catch (Exception e) {
+                    span.arg("error", e.getClass().getSimpleName());
+                    throw e;
+                } finally {
+                    span.end();
+                }
+            }
+        };
+    }
+
     /**
      * @param hv Hypervisor to check
      * @param hosts Hosts that belong on this hypervisor
@@ -606,14 +903,14 @@ public class OccpAdmin {
             }
 
             @Override
-            public OccpVM call() throws OccpException {
+            public OccpVM call() throws OccpException, InterruptedException {
                 // At this point the VM should exist, and be on the setup network
-                OccpVM vm = hv.getVM(vmname);
+                final OccpVM vm = hv.getVM(vmname);
                 hv.assignVMNetworks(vm, Arrays.asList(new String[] { setupNetworkName }));
                 // rewrite dhcp file and notify dnsmasq
                 createSetupDHCP();
-                OccpHost host = parser.hosts.get(vmname);
-                String ip = host.getSetupIP();
+                final OccpHost host = parser.hosts.get(vmname);
+                final String ip = host.getSetupIP();
                 if (!setup.connect(this.hv.getName())) {
                     logger.severe("Failed to setup the \"" + OccpParser.SETUPVPN_NAME + "\" VM on the hypervisor \""
                             + hv.getName() + '"');
@@ -624,65 +921,96 @@ public class OccpAdmin {
                     if (phase == 2 && host.getIntermediate()) {
                         break;
                     }
-                    hv.powerOnVM(vm);
+                    final int applying = phase;
+                    limited(hv, hvjobs.get(hv.getName()), HVOperation.PHASE, new HVWork<Void>() {
+                        @Override
+                        public Void run() throws OccpException, InterruptedException {
+                            Trace.Span span = Trace.begin("vm", "phase" + applying).arg("vm", vmname)
+                                    .arg("hv", hv.getName());
+                            try {
+                                span.arg("retries", applyPhase(vm, host, ip, applying) - 1);
+                            } finally {
+                                span.end();
+                            }
+                            return null;
+                        }
+                    });
+                }
+                return vm;
+            }
+
+            /**
+             * Power on the VM, apply the phase through the config manager and wait for the VM to power off again
+             * 
+             * @param vm - VM to apply the phase to
+             * @param host - Host the VM represents
+             * @param ip - Setup network address of the VM
+             * @param phase - Phase to apply
+             * @return How many attempts it took
+             */
+            private int applyPhase(OccpVM vm, OccpHost host, String ip, int phase) throws OccpException,
+                    InterruptedException {
+                hv.powerOnVM(vm);
 
-                    // Ensure we have a config manager setup
-                    setupConfigManager();
+                // Ensure we have a config manager setup
+                setupConfigManager();
 
-                    logger.info("Applying phase " + phase + " to the VM \"" + host.getLabel()
-                            + "\" on the hypervisor \"" + hv.getName() + '"');
+                logger.info("Applying phase " + phase + " to the VM \"" + host.getLabel()
+                        + "\" on the hypervisor \"" + hv.getName() + '"');
 
-                    boolean phaseApplied = false, hostnamePhaseApplied = false;
-                    if (phase != 2) {
-                        // Skip hostname phase if we aren't about to apply phase 2
-                        hostnamePhaseApplied = true;
-                    }
-                    int phaseApplicationAttempts = 0;
-                    while (!hostnamePhaseApplied || !phaseApplied) {
-                        try {
-                            phaseApplicationAttempts++;
-                            if (!hostnamePhaseApplied) {
-                                // Attempt hostname phase
-                                logger.finer("Attempting to apply the hostname phase");
-                                configManager.doPhase(host.getLabel(), "hostname", false);
-                                hostnamePhaseApplied = true;
-                            }
-                            // Attempt phase
-                            configManager.doPhase(host.getLabel(), "phase" + phase, true);
-
-                            logger.info("The VM \"" + host.getLabel() + "\" on the hypervisor \"" + hv.getName()
-                                    + "\" has just completed phase " + phase + " and should be powering off");
-
-                            // Wait for the VM to power down
-                            while (hv.isVMOn(vm)) {
-                                logger.info("Waiting for the VM \"" + vmname + "\" (in phase " + phase
-                                        + ") to poweroff: " + ip);
-                                try {
-                                    Thread.sleep(10000);
-                                } catch (InterruptedException e) {
-                                }
-                            }
-                            if (phase == 1) {
-                                logger.info("Creating phase1 snapshot for the VM \"" + host.getLabel()
-                                        + "\" on the hypervisor \"" + hv.getName() + '"');
-                                // Create a snapshot for the phase we just completed
-                                hv.createSnapshot(vm, "phase1");
-                            }
-                            phaseApplied = true;
-                        } catch (ConfigManagerTemporaryFailureException exception) {
-                            if (phaseApplicationAttempts % 10 == 0) {
-                                logger.warning("Applying phase " + phase + " to the VM \"" + host.getLabel()
-                                        + "\" on the hypervisor \"" + hv.getName() + "\" has now failed "
-                                        + phaseApplicationAttempts + " times. Retrying...");
-                            } else {
-                                logger.fine("Applying phase " + phase + " to the VM \"" + host.getLabel()
-                                        + "\" on the hypervisor \"" + hv.getName() + "\" has now failed "
-                                        + phaseApplicationAttempts + " times. Retrying...");
+                boolean phaseApplied = false, hostnamePhaseApplied = false;
+                if (phase != 2) {
+                    // Skip hostname phase if we aren't about to apply phase 2
+                    hostnamePhaseApplied = true;
+                }
+                int phaseApplicationAttempts = 0;
+                while (!hostnamePhaseApplied || !phaseApplied) {
+                    try {
+                        phaseApplicationAttempts++;
+                        if (!hostnamePhaseApplied) {
+                            // Attempt hostname phase
+                            logger.finer("Attempting to apply the hostname phase");
+                            configManager.doPhase(host.getLabel(), "hostname", false);
+                            hostnamePhaseApplied = true;
+                        }
+                        // Attempt phase
+                        configManager.doPhase(host.getLabel(), "phase" + phase, true);
+
+                        logger.info("The VM \"" + host.getLabel() + "\" on the hypervisor \"" + hv.getName()
+                                + "\" has just completed phase " + phase + " and should be powering off");
+
+                        // Wait for the VM to power down
+                        while (hv.isVMOn(vm)) {
+                            logger.info("Waiting for the VM \"" + vmname + "\" (in phase " + phase
+                                    + ") to poweroff: " + ip);
+                            try {
+                                Thread.sleep(10000);
+                            } catch (InterruptedException e) {
                             }
                         }
+                        if (phase == 1) {
+                            logger.info("Creating phase1 snapshot for the VM \"" + host.getLabel()
+                                    + "\" on the hypervisor \"" + hv.getName() + '"');
+                            // Create a snapshot for the phase we just completed
+                            limitedCreateSnapshot(hv, hvjobs.get(hv.getName()), vm, "phase1");
+                            journal(hv, host.getLabel(), DeployJournal.Step.PHASE1_SNAPSHOT);
+                        } else if (phase == 2) {
+                            journal(hv, host.getLabel(), DeployJournal.Step.PHASE2_APPLIED);
+                        }
+                        phaseApplied = true;
+                    } catch (ConfigManagerTemporaryFailureException exception) {
+                        if (phaseApplicationAttempts % 10 == 0) {
+                            logger.warning("Applying phase " + phase + " to the VM \"" + host.getLabel()
+                                    + "\" on the hypervisor \"" + hv.getName() + "\" has now failed "
+                                    + phaseApplicationAttempts + " times. Retrying...");
+                        } else {
+                            logger.fine("Applying phase " + phase + " to the VM \"" + host.getLabel()
+                                    + "\" on the hypervisor \"" + hv.getName() + "\" has now failed "
+                                    + phaseApplicationAttempts + " times. Retrying...");
+                        }
                     }
                 }
-                return vm;
+                return phaseApplicationAttempts;
             }
         }
 
@@ -700,8 +1028,7 @@ public class OccpAdmin {
             @Override
             public OccpVM call() throws Exception {
                 Thread.currentThread().setName("Import " + to);
-                hvjobs.get(hv.getName()).acquire();
-                concurrency.acquire();
+                acquireJob(hvjobs.get(hv.getName()), hv);
                 try {
                     if (runMode.equals("verify")) {
                         logger.info("Would import " + to + " from " + isoFile + " on the hypervisor \"" + hv.getName()
@@ -712,7 +1039,14 @@ public class OccpAdmin {
                     setup.stageFile(hv.getName(), isoFile);
                     logger.info("The hypervisor: \"" + hv.getName() + "\" received " + isoFile
                             + " and will now create the VM \"" + to + '"');
-                    hv.createVMwithISO(to, isoFile);
+                    limited(hv, hvjobs.get(hv.getName()), HVOperation.CREATE, new HVWork<OccpVM>() {
+                        @Override
+                        public OccpVM run() throws OccpException {
+                            return hv.createVMwithISO(to, isoFile);
+                        }
+                    });
+                    // ISO VMs are complete as created, just like a phase 2 VM
+                    journal(hv, to, DeployJournal.Step.PHASE2_APPLIED);
                     OccpVM vm = hv.getVM(to);
                     return vm;
                 } finally {
@@ -741,8 +1075,7 @@ public class OccpAdmin {
             public OccpVM call() throws Exception {
                 Thread.currentThread().setName("Import " + to);
                 try {
-                    hvjobs.get(hv.getName()).acquire();
-                    concurrency.acquire();
+                    acquireJob(hvjobs.get(hv.getName()), hv);
                     if (runMode.equals("verify")) {
                         logger.info("Would import " + to + " from " + from + " on the hypervisor \"" + hv.getName()
                                 + '"');
@@ -752,12 +1085,22 @@ public class OccpAdmin {
                     setup.stageFile(hv.getName(), scenarioBaseDir + "/" + from);
                     logger.info("The hypervisor: \"" + hv.getName() + "\" received " + from
                             + " and will now import it as the VM \"" + to + '"');
-                    hv.importVM(to, from);
+                    limited(hv, hvjobs.get(hv.getName()), HVOperation.IMPORT, new HVWork<Void>() {
+                        @Override
+                        public Void run() throws OccpException {
+                            hv.importVM(to, from);
+                            return null;
+                        }
+                    });
                     OccpVM vm = hv.getVM(to);
                     if (phase == 1) {
+                        journal(hv, to, DeployJournal.Step.CREATED);
                         logger.info("Creating phase1 snapshot for the VM \"" + to + "\" on the hypervisor \""
                                 + hv.getName() + '"');
-                        hv.createSnapshot(vm, "phase1");
+                        limitedCreateSnapshot(hv, hvjobs.get(hv.getName()), vm, "phase1");
+                        journal(hv, to, DeployJournal.Step.PHASE1_SNAPSHOT);
+                    } else {
+                        journal(hv, to, DeployJournal.Step.PHASE2_APPLIED);
                     }
                     if (this.finish != null) {
                         return finish.call();
@@ -813,8 +1156,7 @@ public class OccpAdmin {
                         }
                     }
                     // Wait until after parent VM is ready, if needed
-                    hvjobs.get(hv.getName()).acquire();
-                    concurrency.acquire();
+                    acquireJob(hvjobs.get(hv.getName()), hv);
                     if (runMode.equals("verify")) {
                         logger.info("Would deploy the VM \"" + to + "\" from \"" + from + "\" on the hypervisor \""
                                 + hv.getName() + '"');
@@ -827,10 +1169,24 @@ public class OccpAdmin {
                     } else {
                         snapshotBase = "phase" + phase;
                     }
-                    hv.cloneVM(fromvm, to, snapshotBase);
+                    final OccpVM source = fromvm;
+                    final String sourceSnapshot = snapshotBase;
+                    limited(hv, hvjobs.get(hv.getName()), HVOperation.CLONE, new HVWork<Void>() {
+                        @Override
+                        public Void run() throws OccpException {
+                            hv.cloneVM(source, to, sourceSnapshot);
+                            return null;
+                        }
+                    });
                     OccpVM vm = hv.getVM(to);
+                    if (phase == 2) {
+                        journal(hv, to, DeployJournal.Step.PHASE2_APPLIED);
+                    } else {
+                        journal(hv, to, DeployJournal.Step.CREATED);
+                    }
                     if (phase == 1) {
-                        hv.createSnapshot(vm, "phase1");
+                        limitedCreateSnapshot(hv, hvjobs.get(hv.getName()), vm, "phase1");
+                        journal(hv, to, DeployJournal.Step.PHASE1_SNAPSHOT);
                     }
                     if (finish != null) {
                         finish.call();
@@ -854,8 +1210,7 @@ public class OccpAdmin {
             @Override
             public OccpVM call() throws Exception {
                 OccpVM result = null;
-                hvjobs.get(hv.getName()).acquire();
-                concurrency.acquire();
+                acquireJob(hvjobs.get(hv.getName()), hv);
                 try {
                     result = finish.call();
                     return result;
@@ -877,6 +1232,97 @@ public class OccpAdmin {
                 return vm;
             }
         }
+        // Puts an existing VM back to a snapshot before the rest of its job, within the same per hypervisor limits as
+        // the other jobs. The reverts run in parallel, and each VM moves on as soon as its own is done.
+        final class RevertVM implements Callable<OccpVM> {
+            OccpHV hv;
+            String label;
+            OccpVM vm;
+            String snapshot;
+            Callable<OccpVM> next;
+
+            RevertVM(OccpHV hv_, String label_, OccpVM vm_, String snapshot_, Callable<OccpVM> next_) {
+                hv = hv_;
+                label = label_;
+                vm = vm_;
+                snapshot = snapshot_;
+                next = next_;
+            }
+
+            @Override
+            public OccpVM call() throws Exception {
+                Thread.currentThread().setName("Revert " + vm.getName());
+                acquireJob(hvjobs.get(hv.getName()), hv);
+                try {
+                    logger.info("Reverting " + vm.getName() + " to " + snapshot + " on the hypervisor \""
+                            + hv.getName() + '"');
+                    limited(hv, hvjobs.get(hv.getName()), HVOperation.REVERT, new HVWork<Void>() {
+                        @Override
+                        public Void run() throws OccpException {
+                            hv.revertToSnapshot(vm, snapshot);
+                            // Only after a regen, otherwise findVMPhase would have gone back to phase 2 instead
+                            if (snapshot.equals("phase1") && hv.hasSnapshot(vm, "phase2")) {
+                                logger.info("Removing old phase 2 snapshot for " + vm.getName()
+                                        + " as part of regen on the hypervisor \"" + hv.getName() + '"');
+                                hv.deleteSnapshot(vm, "phase2");
+                            }
+                            return null;
+                        }
+                    });
+                    // Only now is the VM back at its phase 1 snapshot
+                    if (snapshot.equals("phase1")) {
+                        journal(hv, label, DeployJournal.Step.PHASE1_SNAPSHOT);
+                    }
+                } finally {
+                    concurrency.release();
+                    hvjobs.get(hv.getName()).release();
+                }
+                return next.call();
+            }
+        }
+        // Finishes a VM once it is deployed, on the thread that deployed it, so each VM is finished as soon as it is
+        // ready rather than in turn by the thread collecting the results
+        final class FinishVM implements Callable<OccpVM> {
+            OccpHost host;
+            Callable<OccpVM> deploy;
+
+            FinishVM(OccpHost host_, Callable<OccpVM> deploy_) {
+                this.host = host_;
+                this.deploy = deploy_;
+            }
+
+            @Override
+            public OccpVM call() throws Exception {
+                OccpVM vm = deploy.call();
+                if (runMode.equals("verify")) {
+                    return vm;
+                }
+                OccpHV hv = hvs.get(vm2hv.get(host.getLabel()));
+                DeployJournal.Step checkpoint = journal.getCheckpoint(hv.getName(), host.getLabel());
+                if (host.getIntermediate() || checkpoint == DeployJournal.Step.PHASE2_SNAPSHOT) {
+                    return vm;
+                }
+                // The deploy has given back its slots, the finishing takes them again
+                acquireJob(hvjobs.get(hv.getName()), hv);
+                try {
+                    if (!hv.hasSnapshot(vm, "phase2")) {
+                        logger.info("Finishing up deployment of " + hv.getName() + "/" + vm.getName());
+                        // The networks and RAM in one reconfiguration
+                        hv.reconfigureVM(vm, new OccpHV.VMConfig().networks(host.getPhyscialNetworkNames()).ram(
+                                host.getRam()));
+                        if (!host.getLabel().equals(OccpParser.ROUTER_NAME)) {
+                            journal(hv, host.getLabel(), DeployJournal.Step.NETWORKS_ASSIGNED);
+                            limitedCreateSnapshot(hv, hvjobs.get(hv.getName()), vm, "phase2");
+                            journal(hv, host.getLabel(), DeployJournal.Step.PHASE2_SNAPSHOT);
+                        }
+                    }
+                } finally {
+                    concurrency.release();
+                    hvjobs.get(hv.getName()).release();
+                }
+                return vm;
+            }
+        }
 
         // Ensure this exists in case we need it
         for (OccpHV hv : hvs.values()) {
@@ -892,59 +1338,67 @@ public class OccpAdmin {
         hasSetupNetwork = true;
 
         List<OccpHost> hosts = parser.getOccpHosts();
-        for (OccpHost host : hosts) {
-            OccpHV hv = hvs.get(vm2hv.get(host.getLabel()));
+
+        // Everything findVMPhase needs to know, one request per hypervisor
+        Map<String, Map<String, OccpHV.VMInfo>> described = new HashMap<>();
+        for (Entry<String, List<OccpHost>> entry : hv2vm.entrySet()) {
+            List<String> labels = new ArrayList<>();
+            for (OccpHost host : entry.getValue()) {
+                labels.add(host.getLabel());
+            }
             try {
-                // If the regen flag is set we need to roll back all applicable machines to their phase 1 snapshots
-                // and then allow them to apply phase two. Machines without a phase 1 snapshot are not eligible for
-                // regen.
-                if (getRegenFlag() && !host.getLabel().equals(OccpParser.ROUTER_NAME)) {
-                    try {
-                        OccpVM currentVM = hv.getVM(host.getLabel());
-                        if (hv.hasSnapshot(currentVM, "phase1")) {
-                            // Has a phase 1 snapshot. Remove a phase 2 snapshot if it has one. Revert to phase 1
-                            logger.info("Reverting " + host.getLabel() + " to phase 1 for regen on the hypervisor \""
-                                    + hv.getName() + '"');
-                            try {
-                                hv.revertToSnapshot(currentVM, "phase1");
-                                if (hv.hasSnapshot(currentVM, "phase2")) {
-                                    logger.info("Removing old phase 2 snapshot for " + host.getLabel()
-                                            + " as part of regen on the hypervisor \"" + hv.getName() + '"');
-                                    hv.deleteSnapshot(currentVM, "phase2");
-                                }
-                            } catch (OccpException e) {
-                                logger.log(Level.SEVERE, e.getMessage(), e);
-                                Failure = true;
-                            }
-                        } else {
-                            if (hv.hasSnapshot(currentVM, "phase2")) {
-                                // Only has phase 2, revert to it
-                                logger.info("Reverting " + host.getLabel() + " to phase 2 on the hypervisor \""
-                                        + hv.getName() + "\"because it cannot be regenerated");
-                                try {
-                                    hv.revertToSnapshot(currentVM, "phase2");
-                                } catch (OccpException e) {
-                                    logger.log(Level.SEVERE, e.getMessage(), e);
-                                    Failure = true;
-                                }
-                            } else {
-                                // This machine does not have a phase 1 or 2 snapshot. Either it is a broken OCCP
-                                // machine or not an OCCP machine at all
-                                if (!OccpAdmin.force) {
-                                    Failure = true;
-                                    logger.severe("During regen it was discovered that a VM labeled  \""
-                                            + host.getLabel()
-                                            + "\" did not have any phase snapshots on the hypervisor \"" + hv.getName()
-                                            + '"');
-                                }
-                            }
-                        }
-                    } catch (VMNotFoundException e) {
-                        // Not all VM's need exist at start of regen
-                    }
+                described.put(entry.getKey(), hvs.get(entry.getKey()).describeVMs(labels));
+            } catch (HVOperationFailedException e) {
+                logger.log(Level.SEVERE, e.getMessage(), e);
+                return false;
+            }
+        }
+
+        // If the regen flag is set we need to roll back all applicable machines to their phase 1 snapshots and then
+        // allow them to apply phase two. Machines without a phase 1 snapshot are not eligible for regen. The reverts
+        // themselves are left to each VM's job (see RevertVM), here the VMs are only described as they will be after.
+        if (getRegenFlag()) {
+            for (OccpHost host : hosts) {
+                if (host.getLabel().equals(OccpParser.ROUTER_NAME)) {
+                    continue;
                 }
+                OccpHV hv = hvs.get(vm2hv.get(host.getLabel()));
+                Map<String, OccpHV.VMInfo> hvDescribed = described.get(hv.getName());
+                OccpHV.VMInfo info = hvDescribed.get(host.getLabel());
+                if (info == null) {
+                    // Not all VM's need exist at start of regen
+                    continue;
+                }
+                if (info.hasSnapshot("phase1")) {
+                    // Has a phase 1 snapshot, its job reverts to it and removes any phase 2 snapshot
+                    logger.info("Reverting " + host.getLabel() + " to phase 1 for regen on the hypervisor \""
+                            + hv.getName() + '"');
+                    hvDescribed.put(host.getLabel(), info.withoutSnapshot("phase2"));
+                } else if (info.hasSnapshot("phase2")) {
+                    // Only has phase 2, findVMPhase has it reverted to that
+                    logger.info("Reverting " + host.getLabel() + " to phase 2 on the hypervisor \"" + hv.getName()
+                            + "\" because it cannot be regenerated");
+                } else if (!OccpAdmin.force) {
+                    // This machine does not have a phase 1 or 2 snapshot. Either it is a broken OCCP machine or not
+                    // an OCCP machine at all
+                    Failure = true;
+                    logger.severe("During regen it was discovered that a VM labeled  \"" + host.getLabel()
+                            + "\" did not have any phase snapshots on the hypervisor \"" + hv.getName() + '"');
+                }
+            }
+        }
+        if (Failure) {
+            return false;
+        }
 
-                int phase = findVMPhase(hv, host);
+        // Snapshot each existing VM goes back to before the rest of its job
+        Map<String, String> reverts = new HashMap<>();
+        for (OccpHost host : hosts) {
+            OccpHV hv = hvs.get(vm2hv.get(host.getLabel()));
+            Map<String, OccpHV.VMInfo> hvDescribed = described.get(hv.getName());
+            try {
+                int phase = findVMPhase(hv, host, hvDescribed, reverts);
+                OccpHV.VMInfo info = hvDescribed.get(host.getLabel());
                 switch (phase) {
                 case -1:
                     Failure = true;
@@ -966,53 +1420,50 @@ public class OccpAdmin {
                     if (!host.getIntermediate()) {
                         ensureDHCPRunning();
                         PhaseFinish phase2 = new PhaseFinish(host.getLabel(), hv, 2);
-                        try {
+                        if (info != null) {
                             // If it already exists, just apply phase 2
-                            hv.getVM(host.getLabel());
                             ExistingVM existingvm = new ExistingVM(hv, phase2);
                             callables.put(host.getLabel(), existingvm);
-                        } catch (VMNotFoundException e) {
+                        } else if (host.getClone() != null) {
                             // If this is a clone, do that, otherwise try to import it
-                            if (host.getClone() != null) {
-                                CloneVM futurevm2 = new CloneVM(hv, host, host.getClone(), host.getLabel(), 1, phase2);
-                                callables.put(host.getLabel(), futurevm2);
-                            } else {
-                                ImportVM importvm = new ImportVM(hv, host.getOvaName(), host.getLabel(), phase, phase2);
-                                callables.put(host.getLabel(), importvm);
-                            }
-                        }
-                    } else {
-                        try {
-                            // This is an intermediate VM which has reached phase 1 so it is complete.
-                            callables.put(host.getLabel(), new Done(hv.getVM(host.getLabel())));
-                        } catch (VMNotFoundException e) {
-                            // If the above fails because it doesn't exist, try importing it
-                            ImportVM importvm = new ImportVM(hv, host.getOvaName(), host.getLabel(), phase, null);
+                            CloneVM futurevm2 = new CloneVM(hv, host, host.getClone(), host.getLabel(), 1, phase2);
+                            callables.put(host.getLabel(), futurevm2);
+                        } else {
+                            ImportVM importvm = new ImportVM(hv, host.getOvaName(), host.getLabel(), phase, phase2);
                             callables.put(host.getLabel(), importvm);
                         }
+                    } else if (info != null) {
+                        // This is an intermediate VM which has reached phase 1 so it is complete.
+                        callables.put(host.getLabel(), new Done(info.getVM()));
+                    } else {
+                        // It doesn't exist, try importing it
+                        ImportVM importvm = new ImportVM(hv, host.getOvaName(), host.getLabel(), phase, null);
+                        callables.put(host.getLabel(), importvm);
                     }
                     break;
 
                 case 2:
-                    try {
-                        OccpVM vm = hv.getVM(host.getLabel());
+                    if (info != null) {
                         // Degenerate item to simplify code
-                        callables.put(host.getLabel(), new Done(vm));
-                    } catch (VMNotFoundException e) {
+                        callables.put(host.getLabel(), new Done(info.getVM()));
+                    } else if (host.getClone() != null) {
                         // If this is a clone, do that, otherwise try to import it
-                        if (host.getClone() != null) {
-                            callables.put(host.getLabel(), new CloneVM(hv, host, host.getClone(), host.getLabel(), 2,
-                                    null));
-                        } else if (host.getIsoName() != null) {
-                            IsoVM importvm = new IsoVM(hv, host.getIsoName(), host.getLabel());
-                            callables.put(host.getLabel(), importvm);
-                        } else {
-                            ImportVM importvm = new ImportVM(hv, host.getOvaName(), host.getLabel(), phase, null);
-                            callables.put(host.getLabel(), importvm);
-                        }
+                        callables.put(host.getLabel(), new CloneVM(hv, host, host.getClone(), host.getLabel(), 2,
+                                null));
+                    } else if (host.getIsoName() != null) {
+                        IsoVM importvm = new IsoVM(hv, host.getIsoName(), host.getLabel());
+                        callables.put(host.getLabel(), importvm);
+                    } else {
+                        ImportVM importvm = new ImportVM(hv, host.getOvaName(), host.getLabel(), phase, null);
+                        callables.put(host.getLabel(), importvm);
                     }
                     break;
                 }
+                String revert = reverts.get(host.getLabel());
+                if (revert != null && info != null) {
+                    callables.put(host.getLabel(),
+                            new RevertVM(hv, host.getLabel(), info.getVM(), revert, callables.get(host.getLabel())));
+                }
             } catch (OccpException e) {
                 logger.log(Level.SEVERE, "Failed to start deploy of " + host.getLabel() + ": " + e.getMessage(), e);
                 Failure = true;
@@ -1027,6 +1478,17 @@ public class OccpAdmin {
         }
 
         assert callables.size() == hosts.size() : "Missing items";
+        // The VMs that survived planning keep their adapters, so the DHCP configuration needn't ask for them again
+        for (Map<String, OccpHV.VMInfo> hvDescribed : described.values()) {
+            for (Entry<String, OccpHV.VMInfo> entry : hvDescribed.entrySet()) {
+                List<String> macs = entry.getValue().getMacs();
+                for (int i = 0; i < macs.size(); ++i) {
+                    if (macs.get(i) != null) {
+                        vmMacs.put(entry.getKey() + "/" + i, macs.get(i));
+                    }
+                }
+            }
+        }
         ExecutorCompletionService<OccpVM> ecs = new ExecutorCompletionService<>(exec);
         // Tell the thread pool to execute each item. Note that intermediates must be before clones
         for (String hvName : hvs.keySet()) {
@@ -1034,7 +1496,8 @@ public class OccpAdmin {
         }
         synchronized (futureitems) {
             for (Entry<String, Callable<OccpVM>> entry : callables.entrySet()) {
-                futureitems.put(entry.getKey(), ecs.submit(entry.getValue()));
+                FinishVM finish = new FinishVM(parser.hosts.get(entry.getKey()), entry.getValue());
+                futureitems.put(entry.getKey(), ecs.submit(traced(entry.getKey(), finish)));
             }
             futureitems.notifyAll();
         }
@@ -1044,11 +1507,10 @@ public class OccpAdmin {
         Set<String> failedVMs = new LinkedHashSet<>();
         OccpHost host = null;
         while (vmDoneCount != hosts.size()) {
-            OccpVM testvm = null;
             Future<OccpVM> futureitem;
             // Wait for each host to finish
             try {
-                logger.info("Waiting for tasks to finish (" + exec.getActiveCount() + ")");
+                logger.info("Waiting for tasks to finish (" + (hosts.size() - vmDoneCount) + ")");
                 futureitem = ecs.take();
             } catch (InterruptedException e1) {
                 logger.log(Level.WARNING, "Interrupted", e1);
@@ -1067,28 +1529,11 @@ public class OccpAdmin {
             }
             try {
                 logger.info("Getting result of deploying " + host.getLabel());
-                testvm = futureitem.get();
-
+                // Finished by FinishVM
+                futureitem.get();
                 if (!runMode.equals("verify")) {
-                    try {
-                        OccpHV hv = hvs.get(vm2hv.get(host.getLabel()));
-                        if (!host.getIntermediate() && !hv.hasSnapshot(testvm, "phase2")) {
-                            logger.info("Finishing up deployment of " + hv.getName() + "/" + testvm.getName());
-                            hv.assignVMNetworks(testvm, host.getPhyscialNetworkNames());
-                            if (host.getRam() > 0) {
-                                hv.assignVMRam(testvm, host.getRam());
-                            }
-                            if (!host.getLabel().equals(OccpParser.ROUTER_NAME)) {
-                                hv.createSnapshot(testvm, "phase2");
-                            }
-                        }
-                        logger.info("The VM \"" + host.getLabel() + "\" has been deployed on the hypervisor \""
-                                + hv.getName() + '"');
-                    } catch (OccpException e) {
-                        logger.log(Level.SEVERE, e.getMessage(), e);
-                        Failure = true;
-                        ++vmFailedCount;
-                    }
+                    logger.info("The VM \"" + host.getLabel() + "\" has been deployed on the hypervisor \""
+                            + vm2hv.get(host.getLabel()) + '"');
                 }
             } catch (ExecutionException | InterruptedException e) {
                 if (e.getCause() != null && e.getCause().getClass() == VMOperationFailedException.class) {
@@ -1120,12 +1565,9 @@ public class OccpAdmin {
      * @return
      * @throws OccpException
      */
-    private static boolean createRouterFloppy(OccpHost routerVM) throws OccpException {
-        FileSystem fs = mountFloppy(scenarioBaseDir.resolve("router.img").toString());
-        if (fs == null) {
-            logger.severe("Failed to create router floppy");
-            return false;
-        }
+    static boolean createRouterFloppy(OccpHost routerVM) throws OccpException {
+        String floppyName = scenarioBaseDir.resolve("router.img").toString();
+        FloppyImage fs = mountFloppy(floppyName);
         boolean Failure = false;
         // We need to setup the IP and DNS information for "public" networks
         PrintStream autoconf, interfaces, dhcpcfg, dhcpopt, dnsmasqcfg, routercfg, namedconf, zonefile;
@@ -1258,16 +1700,15 @@ public class OccpAdmin {
                              */
                             // Find the correct hypervisor for this VM
                             OccpHV vmhv = hvs.get(vm2hv.get(host.getLabel()));
-                            OccpVM vm;
+                            String mac;
                             try {
-                                vm = vmhv.getVM(host.getLabel());
+                                mac = getVMMac(vmhv, host.getLabel(), routableIface);
                             } catch (VMNotFoundException e) {
                                 // unlikely, since we should have found it already
                                 logger.severe("Failed to find VM " + host.getLabel());
                                 Failure = true;
                                 continue;
                             }
-                            String mac = vmhv.getVMMac(vm, routableIface);
                             octet += 4;
                             /* dhcphosts file for dnsmasq */
                             dhcpcfg.println(mac + ",set:" + host.getLabel() + "," + ifaddr);
@@ -1317,7 +1758,10 @@ public class OccpAdmin {
             logger.log(Level.SEVERE, "Failed to create router config file", e);
             Failure = true;
         }
-        unmountFloppy(fs);
+        if (!Failure && !unmountFloppy(fs, floppyName)) {
+            logger.severe("Failed to create router floppy");
+            Failure = true;
+        }
 
         return !Failure;
     }
@@ -1333,6 +1777,7 @@ public class OccpAdmin {
      * @param serverPort - Port for the server
      * @param serverIP - Server IP for client's use (optional)
      * @param upshpath - Path to script for interface connection
+     * @return False if the DH parameters could not be written
      * @throws IOException
      * @throws CertificateException
      * @throws OperatorCreationException
@@ -1340,7 +1785,7 @@ public class OccpAdmin {
      * @throws NoSuchProviderException
      * @throws NoSuchAlgorithmException
      */
-    private static void writeVPNConf(PrintStream conf, CA ca, CertPair caKey, String tapName, String brName,
+    private static boolean writeVPNConf(PrintStream conf, CA ca, CertPair caKey, String tapName, String brName,
             int serverPort, String serverIP, String upshpath)
             throws IOException, NoSuchAlgorithmException, NoSuchProviderException, InvalidAlgorithmParameterException,
             OperatorCreationException, CertificateException {
@@ -1348,6 +1793,7 @@ public class OccpAdmin {
         conf.println("dev " + tapName);
         conf.println("up \"" + upshpath + " " + brName + "\"\n");
         String certDN = null;
+        boolean written = true;
         if (serverIP != null) { // client
             // Static part
             conf.print("proto tcp-client\nauth-nocache\ntls-client\nclient\nnobind\n");
@@ -1362,7 +1808,7 @@ public class OccpAdmin {
             conf.println("status /tmp/" + tapName + "-status.log");
             conf.println("port " + serverPort);
             conf.println("<dh>");
-            failure |= !ca.genDHParams(conf);
+            written = ca.genDHParams(conf);
             conf.println("</dh>");
             certDN = "CN=server-" + (brName);
         }
@@ -1376,6 +1822,7 @@ public class OccpAdmin {
         conf.println("<key>");
         ca.writeKey(kp.key, conf);
         conf.println("</key>");
+        return written;
     }
 
     /**
@@ -1383,15 +1830,13 @@ public class OccpAdmin {
      * 
      * @param hv - HV to generate it for
      * @param vpnNetworks - Networks that are required
-     * @return
+     * @return False if the floppy, including its DH parameters, could not be made
      */
     static boolean createVPNFloppy(String hv, ArrayList<String> vpnNetworks) {
         String vpnip = hv2vpnip.get(hv);
         String vpngw = hv2vpngw.get(hv);
-        FileSystem fs = mountFloppy(scenarioBaseDir.resolve(hv + ".img").toString());
-        if (fs == null) {
-            return false;
-        }
+        String floppyName = scenarioBaseDir.resolve(hv + ".img").toString();
+        FloppyImage fs = mountFloppy(floppyName);
         try {
             PrintStream autoconf = createFloppyFile(fs, "autoConfigure.sh");
             // Some old VPN iso's have this running as a debug tool
@@ -1447,8 +1892,13 @@ public class OccpAdmin {
                 }
 
                 PrintStream conf = createFloppyFile(fs, fileName);
-                writeVPNConf(conf, vpn.ca, vpn.cp, tapName, brName, vpn.port, serverIP, "/etc/openvpn/up.sh");
+                boolean written = writeVPNConf(conf, vpn.ca, vpn.cp, tapName, brName, vpn.port, serverIP,
+                        "/etc/openvpn/up.sh");
                 conf.close();
+                if (!written) {
+                    // Reported to the main thread through the result, as this runs on cpuExec
+                    return false;
+                }
                 ++x;
             }
             interfaces.close();
@@ -1465,10 +1915,8 @@ public class OccpAdmin {
         } catch (IOException e) {
             logger.log(Level.SEVERE, "Error writing VPN configuration", e);
             return false;
-        } finally {
-            unmountFloppy(fs);
         }
-        return true;
+        return unmountFloppy(fs, floppyName);
     }
 
     /**
@@ -1506,8 +1954,12 @@ public class OccpAdmin {
             // Force flush to sync print and println
             PrintStream conf = new PrintStream(Files.newOutputStream(fileName, StandardOpenOption.CREATE,
                     StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING), true);
-            writeVPNConf(conf, vpn.ca, vpn.cp, tapName, brName, vpn.port, serverIP, upshpath.toString());
+            boolean written = writeVPNConf(conf, vpn.ca, vpn.cp, tapName, brName, vpn.port, serverIP,
+                    upshpath.toString());
             conf.close();
+            if (!written) {
+                return false;
+            }
             PrintStream upsh = new PrintStream(Files.newOutputStream(fs.getPath(dir.toString(), "up.sh"),
                     StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING));
             // Static contents, for now
@@ -1532,7 +1984,7 @@ public class OccpAdmin {
      * hv2net will give a list of networks on each hypervisor
      * net2hv will give a list of hypervisors a network is on
      */
-    private static void buildTopologyInformation() {
+    static void buildTopologyInformation() {
         hv2net = new TreeMap<String, Set<OccpNetwork>>();
         net2hv = new TreeMap<String, Set<String>>();
         if (parser.routerNeeded) {
@@ -1619,7 +2071,7 @@ public class OccpAdmin {
      * 
      * @return True if there were no errors, false otherwise
      */
-    private static boolean parsePhysMap() {
+    static boolean parsePhysMap() {
         boolean failure = false;
         hv2vpnip = new HashMap<String, String>();
         hv2vpngw = new HashMap<String, String>();
@@ -1779,6 +2231,28 @@ public class OccpAdmin {
      * @throws OccpException
      */
     private synchronized static boolean createSetupDHCP() throws OccpException {
+        boolean Failure = !writeSetupDHCP();
+        // Assume we are being called on a refresh
+        // Java provides no portable facility for generating signals
+        Runtime rt = Runtime.getRuntime();
+        String[] cmd = { "sudo", "pkill", "-HUP", "dnsmasq" };
+        try {
+            rt.exec(cmd);
+        } catch (IOException e) {
+            if (mondhcp.isRunning()) {
+                logger.warning("Failed to tell dnsmasq to refresh config");
+            }
+        }
+        return !Failure;
+    }
+
+    /**
+     * Write the dnsmasq configuration for the setup network, without telling dnsmasq
+     * 
+     * @return True if written
+     * @throws OccpException
+     */
+    synchronized static boolean writeSetupDHCP() throws OccpException {
         boolean Failure = false;
         // We need to setup the IP and DNS information for "public" networks
         PrintStream dhcpcfg = null, dnsmasqcfg = null;
@@ -1815,14 +2289,13 @@ public class OccpAdmin {
                 }
                 // Find the correct hypervisor for this VM
                 OccpHV vmhv = hvs.get(vm2hv.get(host.getLabel()));
-                OccpVM vm;
+                String mac;
                 try {
-                    vm = vmhv.getVM(host.getLabel());
+                    mac = getVMMac(vmhv, host.getLabel(), 0);
                 } catch (VMNotFoundException e) {
                     // This is expected because not all hosts will be ready
                     continue;
                 }
-                String mac = vmhv.getVMMac(vm, 0);
                 // Slight limitation of 253 machines
                 if (host.getSetupIP() == null) {
                     String genaddr = "12.14.16." + nextOctet;
@@ -1843,17 +2316,6 @@ public class OccpAdmin {
                 dnsmasqcfg.close();
             }
         }
-        // Assume we are being called on a refresh
-        // Java provides no portable facility for generating signals
-        Runtime rt = Runtime.getRuntime();
-        String[] cmd = { "sudo", "pkill", "-HUP", "dnsmasq" };
-        try {
-            rt.exec(cmd);
-        } catch (IOException e) {
-            if (mondhcp.isRunning()) {
-                logger.warning("Failed to tell dnsmasq to refresh config");
-            }
-        }
         return !Failure;
     }
 
@@ -1936,7 +2398,7 @@ public class OccpAdmin {
         return true;
     }
 
-    private static class Packager extends SimpleFileVisitor<Path> {
+    static class Packager extends SimpleFileVisitor<Path> {
         private final TarArchiveOutputStream pkg;
 
         public Packager(TarArchiveOutputStream pkg) {
@@ -2097,7 +2559,7 @@ public class OccpAdmin {
     /**
      * @return Success/failure
      */
-    private static boolean configureRuntimeVPN() {
+    static boolean configureRuntimeVPN() {
         boolean localFailure = false;
         hv2net_vpn = new TreeMap<>();
         net2vpn = new TreeMap<>();
@@ -2131,7 +2593,7 @@ public class OccpAdmin {
                 }
             }
         }
-        return localFailure;
+        return !localFailure;
     }
 
     /**
@@ -2141,6 +2603,10 @@ public class OccpAdmin {
      */
     private static void exitProgram(int code) {
         logger.fine("Executed in: " + (System.currentTimeMillis() - startTime) / 1000 + " seconds");
+        if (runSpan != null) {
+            runSpan.end();
+        }
+        Trace.finish();
         if (code != 0) {
             logger.severe("Please fix the above errors");
         }
@@ -2211,6 +2677,16 @@ public class OccpAdmin {
                     exitProgram(ExitCode.HYPERVISOR_CACHE.value);
                 }
             }
+            // Nor does this one, it only writes files
+            if (runMode.equalsIgnoreCase("genscenario")) {
+                try {
+                    new ScenarioGenerator(unhandledParameters).write(Paths.get(ConfigFile), Paths.get(hvMap));
+                    exitProgram(ExitCode.OK.value);
+                } catch (IOException e) {
+                    logger.log(Level.SEVERE, "Unable to write the scenario", e);
+                    exitProgram(ExitCode.GENERAL_FAILURE.value);
+                }
+            }
 
             // If we aren't just dealing with HV information, we need a valid configuration to proceed
             if (!runMode.equalsIgnoreCase("addhv") && !runMode.equalsIgnoreCase("delhv")
@@ -2228,6 +2704,20 @@ public class OccpAdmin {
                     scenarioName += "-" + instanceId;
                 }
 
+                if (Boolean.parseBoolean(globalConfig.getProperty("trace", "false"))) {
+                    // One timeline per run, named for when it started
+                    String started = new java.text.SimpleDateFormat("yyyyMMdd-HHmmss").format(new Date(startTime));
+                    Trace.start(occpHiddenDirPath.resolve("traces").resolve(scenarioName + "-" + started + ".json"));
+                    runSpan = Trace.begin("run", runMode).arg("scenario", scenarioName);
+                }
+
+                // Keys made in the background while we work are kept for the generators and VPNs of later runs
+                KeyPool.start(occpHiddenDirPath.resolve("keypool"),
+                        Integer.parseInt(globalConfig.getProperty("keyPoolSize", "64")));
+
+                // The VPNs all share one set of DH parameters, make sure they are ready before the VPNs need them
+                DHParamStore.prepare(CA.DH_SIZE);
+
                 // Attempt to read the scenario file
                 parser = new OccpParser();
                 if (!parser.parseConfig(ConfigFile)) {
@@ -2369,26 +2859,14 @@ public class OccpAdmin {
              * Always power off each of the scenario VMs, and the Runtime VPN
              * machines since we need them to be in this state to continue
              */
+            PowerControl power = new PowerControl();
             for (OccpHost host : parser.getOccpHosts()) {
-                OccpHV hv = hvs.get(vm2hv.get(host.getLabel()));
-                try {
-                    OccpVM vm = hv.getVM(host.getLabel());
-                    hv.powerOffVM(vm);
-                } catch (VMNotFoundException e) {
-                    // That's ok
-                }
+                power.add(0, hvs.get(vm2hv.get(host.getLabel())), host.getLabel());
             }
-
-            for (Entry<String, Set<String>> entry : hv2net_vpn.entrySet()) {
-                String aHvName = entry.getKey();
-                OccpHV vpnHv = hvs.get(aHvName);
-                try {
-                    OccpVM vpnVm = vpnHv.getVM(OccpParser.VPN_NAME);
-                    vpnHv.powerOffVM(vpnVm);
-                } catch (VMNotFoundException e) {
-                    // That's ok
-                }
+            for (String aHvName : hv2net_vpn.keySet()) {
+                power.add(0, hvs.get(aHvName), OccpParser.VPN_NAME);
             }
+            power.powerOff();
 
             // If powering off is all we should do, then end.
             if (runMode.equals("poweroff")) {
@@ -2422,9 +2900,8 @@ public class OccpAdmin {
             }
             concurrency = new Semaphore(numJobs);
             // We start a thread for each VM, but limit concurrency elsewhere
-            int poolSize = parser.getOccpHosts().size();
-
-            exec = (ThreadPoolExecutor) Executors.newFixedThreadPool(poolSize);
+            exec = createWaitExecutor();
+            cpuExec = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
             if (!runMode.equals("verify")) {
                 // if (hvs.size() > 1) {
                 setup = new SetupNetwork(hvs);
@@ -2438,6 +2915,9 @@ public class OccpAdmin {
                 }
             }
 
+            // Pick up where an interrupted deploy of this scenario left off, verifying only looks at it
+            journal = new DeployJournal(occpHiddenDirPath.resolve(scenarioName + ".journal"), runMode.equals("verify"));
+
             if (!failure) {
                 // Ensure that the virtual machines exist where they should
                 logger.info("Beginning setup of VMs");
@@ -2448,10 +2928,22 @@ public class OccpAdmin {
                 if (!hv2net_vpn.isEmpty()) {
                     logger.info("Beginning setup of runtime VPN system");
                 }
+                // Generating the floppies is all certificate and key generation, so do them all at once
+                Map<String, Future<Boolean>> vpnFloppies = new TreeMap<>();
+                for (Entry<String, Set<String>> entry : hv2net_vpn.entrySet()) {
+                    final String aHvName = entry.getKey();
+                    final ArrayList<String> vpnNetworks = new ArrayList<>(entry.getValue());
+                    vpnFloppies.put(aHvName, cpuExec.submit(new Callable<Boolean>() {
+                        @Override
+                        public Boolean call() {
+                            return createVPNFloppy(aHvName, vpnNetworks);
+                        }
+                    }));
+                }
                 for (Entry<String, Set<String>> entry : hv2net_vpn.entrySet()) {
                     String aHvName = entry.getKey();
                     ArrayList<String> vpnNetworks = new ArrayList<>(entry.getValue());
-                    if (!createVPNFloppy(aHvName, vpnNetworks)) {
+                    if (!vpnFloppies.get(aHvName).get()) {
                         failure = true;
                         break;
                     }
@@ -2469,15 +2961,11 @@ public class OccpAdmin {
                     }
                     if (!runMode.equals("verify")) {
                         setup.stageFile(aHvName, scenarioBaseDir.resolve(aHvName + ".img").toString());
-                        vpnHv.attachFloppy(vpnVm, aHvName + ".img");
                         // Make sure to ignore the first interface, should be configured by user for external
                         // connectivity
                         vpnNetworks.add(0, null);
-                        vpnHv.assignVMNetworks(vpnVm, vpnNetworks);
-                        vpnHv.setBootCD(vpnVm);
-                    }
-                    if (!failure && runMode.equals("launch")) {
-                        vpnHv.powerOnVM(vpnVm);
+                        vpnHv.reconfigureVM(vpnVm, new OccpHV.VMConfig().floppy(aHvName + ".img").networks(
+                                vpnNetworks).bootCD());
                     }
                 }
             }
@@ -2498,9 +2986,8 @@ public class OccpAdmin {
                         OccpVM routervm = routerhv.getVM(OccpParser.ROUTER_NAME);
                         setup.stageFile(routerhv.getName(), scenarioBaseDir.resolve("router.img").toString());
                         // Note that the "from" location depends on hypervisor
-                        routerhv.attachFloppy(routervm, "router.img");
                         // CD should already be attached
-                        routerhv.setBootCD(routervm);
+                        routerhv.reconfigureVM(routervm, new OccpHV.VMConfig().floppy("router.img").bootCD());
                         logger.info("The Router VM has been prepared successfully");
                     } else {
                         failure = true;
@@ -2509,18 +2996,22 @@ public class OccpAdmin {
             }
 
             if (!failure && runMode.equals("launch")) {
-                // Power on each of the scenario VMs ignoring intermediate VMs
+                // Power on each of the scenario VMs ignoring intermediate VMs. The VPNs, router and game server are
+                // what the rest rely on, so they are started first.
                 logger.info("Launching VMs");
+                PowerControl launch = new PowerControl();
+                for (String aHvName : hv2net_vpn.keySet()) {
+                    launch.add(0, hvs.get(aHvName), OccpParser.VPN_NAME);
+                }
                 for (OccpHost host : parser.getOccpHosts()) {
                     if (host.getIntermediate()) {
                         continue;
                     }
-                    OccpHV hv = hvs.get(vm2hv.get(host.getLabel()));
-                    OccpVM vm = hv.getVM(host.getLabel());
-                    logger.info("Powering on the VM \"" + host.getLabel() + "\" on the hypervisor \"" + hv.getName()
-                            + '"');
-                    hv.powerOnVM(vm);
+                    boolean infrastructure = host.getLabel().equals(OccpParser.ROUTER_NAME)
+                            || host.getLabel().equals(OccpParser.GAMESERVER_NAME);
+                    launch.add(infrastructure ? 0 : 1, hvs.get(vm2hv.get(host.getLabel())), host.getLabel());
                 }
+                launch.powerOn();
             }
         } catch (IllegalArgumentException e) {
             logger.log(Level.SEVERE, "Illegal Argument: " + e.getLocalizedMessage(), e);
@@ -2541,11 +3032,14 @@ public class OccpAdmin {
                 if (mondhcp != null) {
                     mondhcp.stop();
                 }
-                if (exec != null) {
-                    exec.shutdown();
+                for (ExecutorService pool : new ExecutorService[] { exec, cpuExec }) {
+                    if (pool == null) {
+                        continue;
+                    }
+                    pool.shutdown();
                     try {
-                        while (!exec.awaitTermination(10, TimeUnit.SECONDS)) {
-                            logger.info("Waiting for tasks to finish (" + exec.getActiveCount() + ")");
+                        while (!pool.awaitTermination(10, TimeUnit.SECONDS)) {
+                            logger.info("Waiting for tasks to finish");
                         }
                     } catch (InterruptedException e) {
                         logger.log(Level.WARNING, "Interrupted waiting for tasks to finish", e);
@@ -2557,6 +3051,11 @@ public class OccpAdmin {
                     setup.stop();
                 }
 
+                if (journal != null) {
+                    journal.close();
+                }
+                KeyPool.stop();
+
                 if (configManager != null) {
                     // A ConfigManagerControl object was used, clean up
                     configManager.cleanUp();
@@ -1,14 +1,19 @@
 package edu.uri.dfcsc.occp;
 
 import java.io.*;
+import java.lang.reflect.InvocationHandler;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
 import java.net.HttpURLConnection;
 import java.net.URL;
 import java.nio.file.FileSystems;
 import java.nio.file.Path;
 import java.util.*;
 import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -86,6 +91,9 @@ public class OccpEsxiHV implements OccpHV {
             if (cache.get("jobs") != null) {
                 jobs = Integer.parseInt(cache.get("jobs"));
             }
+            if (cache.get("sessions") != null) {
+                maxSessions = Integer.parseInt(cache.get("sessions"));
+            }
         }
     }
 
@@ -138,6 +146,8 @@ public class OccpEsxiHV implements OccpHV {
                 }
             } else if (param.equalsIgnoreCase("--jobs") && !val.startsWith("--") && !val.isEmpty()) {
                 jobs = Integer.parseInt(val);
+            } else if (param.equalsIgnoreCase("--sessions") && !val.startsWith("--") && !val.isEmpty()) {
+                maxSessions = Integer.parseInt(val);
             } else {
                 --ai; // Ignore this unknown parameter
             }
@@ -181,6 +191,9 @@ public class OccpEsxiHV implements OccpHV {
             params.put("hypervisor", "esxi");
         }
         params.put("jobs", "" + jobs);
+        if (maxSessions > 0) {
+            params.put("sessions", "" + maxSessions);
+        }
         return params;
     }
 
@@ -214,7 +227,18 @@ public class OccpEsxiHV implements OccpHV {
         try {
             if (isConnected) {
                 keepAlive.interrupt();
-                vimPort.logout(serviceContent.getSessionManager());
+                propertyWatcher.interrupt();
+                // Ends the watcher's wait for updates
+                VimSession watching = watcherSession;
+                if (watching != null) {
+                    watching.logout();
+                }
+                synchronized (sessions) {
+                    for (VimSession session : sessions) {
+                        session.logout();
+                    }
+                    sessions.clear();
+                }
             }
             isConnected = false;
         } catch (Exception e) {
@@ -293,6 +317,113 @@ public class OccpEsxiHV implements OccpHV {
         return false;
     }
 
+    @Override
+    public Map<String, VMInfo> describeVMs(Collection<String> vmNames) throws HVOperationFailedException {
+        Set<String> wanted = new HashSet<>(vmNames);
+        Map<String, VMInfo> result = new HashMap<>();
+        try {
+            // Everything about every VM in the scenario folder, in a single property collector request
+            ManagedObjectReference containerView = vimPort().createContainerView(serviceContent().getViewManager(),
+                    folderRef, Arrays.asList("VirtualMachine"), true);
+            try {
+                PropertySpec propertySpec = new PropertySpec();
+                propertySpec.setAll(Boolean.FALSE);
+                propertySpec.setType("VirtualMachine");
+                propertySpec.getPathSet().addAll(Arrays.asList("name", "snapshot", "config.extraConfig",
+                        "config.hardware.device"));
+
+                TraversalSpec ts = new TraversalSpec();
+                ts.setName("view");
+                ts.setPath("view");
+                ts.setSkip(false);
+                ts.setType("ContainerView");
+
+                ObjectSpec objectSpec = new ObjectSpec();
+                objectSpec.setObj(containerView);
+                objectSpec.setSkip(Boolean.TRUE);
+                objectSpec.getSelectSet().add(ts);
+
+                PropertyFilterSpec propertyFilterSpec = new PropertyFilterSpec();
+                propertyFilterSpec.getPropSet().add(propertySpec);
+                propertyFilterSpec.getObjectSet().add(objectSpec);
+
+                List<ObjectContent> listobjcontent = new ArrayList<ObjectContent>();
+                RetrieveResult rslts = vimPort().retrievePropertiesEx(serviceContent().getPropertyCollector(),
+                        Arrays.asList(propertyFilterSpec), new RetrieveOptions());
+                while (rslts != null) {
+                    if (rslts.getObjects() != null) {
+                        listobjcontent.addAll(rslts.getObjects());
+                    }
+                    if (rslts.getToken() == null || rslts.getToken().isEmpty()) {
+                        break;
+                    }
+                    rslts = vimPort().continueRetrievePropertiesEx(serviceContent().getPropertyCollector(),
+                            rslts.getToken());
+                }
+
+                for (ObjectContent oc : listobjcontent) {
+                    Map<String, Object> props = new HashMap<>();
+                    if (oc.getPropSet() != null) {
+                        for (DynamicProperty dp : oc.getPropSet()) {
+                            props.put(dp.getName(), dp.getVal());
+                        }
+                    }
+                    String vmName = (String) props.get("name");
+                    if (vmName == null || !wanted.contains(vmName) || result.containsKey(vmName)) {
+                        continue;
+                    }
+                    // Same test as isOccp
+                    boolean isOccp = false;
+                    ArrayOfOptionValue extraConfig = (ArrayOfOptionValue) props.get("config.extraConfig");
+                    if (extraConfig != null) {
+                        for (OptionValue prop : extraConfig.getOptionValue()) {
+                            if (prop.getKey().equals("occp.group") && groupName.equals(prop.getValue())) {
+                                isOccp = true;
+                            }
+                        }
+                    }
+                    if (!isOccp) {
+                        continue;
+                    }
+                    OccpEsxiVM handle = new OccpEsxiVM();
+                    handle.mor = oc.getObj();
+                    handle.name = vmName;
+
+                    Set<String> snapshots = new HashSet<>();
+                    VirtualMachineSnapshotInfo snapInfo = (VirtualMachineSnapshotInfo) props.get("snapshot");
+                    if (snapInfo != null) {
+                        collectSnapshotNames(snapInfo.getRootSnapshotList(), snapshots);
+                    }
+                    List<String> macs = new ArrayList<>();
+                    ArrayOfVirtualDevice devices = (ArrayOfVirtualDevice) props.get("config.hardware.device");
+                    if (devices != null) {
+                        for (VirtualDevice d : devices.getVirtualDevice()) {
+                            if (d instanceof VirtualEthernetCard) {
+                                macs.add(((VirtualEthernetCard) d).getMacAddress());
+                            }
+                        }
+                    }
+                    result.put(vmName, new VMInfo(handle, snapshots, macs));
+                }
+            } finally {
+                vimPort().destroyView(containerView);
+            }
+        } catch (InvalidPropertyFaultMsg | RuntimeFaultFaultMsg | SOAPFaultException e) {
+            throw new HVOperationFailedException(name, e);
+        }
+        return result;
+    }
+
+    private void collectSnapshotNames(List<VirtualMachineSnapshotTree> snapTree, Set<String> names) {
+        if (snapTree == null) {
+            return;
+        }
+        for (VirtualMachineSnapshotTree node : snapTree) {
+            names.add(node.getName().toLowerCase(Locale.ENGLISH));
+            collectSnapshotNames(node.getChildSnapshotList(), names);
+        }
+    }
+
     @Override
     public void createSnapshot(OccpVM vm, String snapshotName) throws OccpException {
         try {
@@ -329,7 +460,9 @@ public class OccpEsxiHV implements OccpHV {
 
         ArrayList<VirtualEthernetCard> listOfCards;
         try {
-            listOfCards = getVMNics(mor);
+            // Only reading them, so the cached devices will do
+            listOfCards = ethernetCards(((ArrayOfVirtualDevice) getCachedProp(mor, "config.hardware.device"))
+                    .getVirtualDevice());
             if (listOfCards.isEmpty()) {
                 return null;
             }
@@ -359,15 +492,84 @@ public class OccpEsxiHV implements OccpHV {
         }
     }
 
+    @Override
+    public Set<String> ensureNetworks(Collection<String> netNames, boolean create) throws OccpException {
+        Set<String> missing = new TreeSet<>();
+        try {
+            HostConfigManager configMgr = (HostConfigManager) getEntityProp(hostmor, "configManager");
+            ManagedObjectReference nwSystem = configMgr.getNetworkSystem();
+            // One look at the switches and port groups there are, for all of the networks
+            HostNetworkInfo netinfo = (HostNetworkInfo) getEntityProp(nwSystem, "networkInfo");
+            Set<String> switches = new HashSet<>();
+            for (HostVirtualSwitch sw : netinfo.getVswitch()) {
+                switches.add(sw.getName());
+            }
+            Map<String, HostPortGroupSpec> portgroups = new HashMap<>();
+            for (HostPortGroup group : netinfo.getPortgroup()) {
+                portgroups.put(group.getSpec().getName(), group.getSpec());
+            }
+
+            HostNetworkConfig config = new HostNetworkConfig();
+            for (String netName : new TreeSet<>(netNames)) {
+                HostPortGroupSpec existing = portgroups.get(netName);
+                // Promiscuous mode is required for the VPN system
+                if (existing != null && existing.getPolicy() != null && existing.getPolicy().getSecurity() != null
+                        && Boolean.TRUE.equals(existing.getPolicy().getSecurity().isAllowPromiscuous())) {
+                    continue;
+                }
+                missing.add(netName);
+                // Each network gets a switch of the same name to work in
+                if (!switches.contains(netName)) {
+                    HostVirtualSwitchSpec spec = new HostVirtualSwitchSpec();
+                    spec.setNumPorts(20);
+                    HostVirtualSwitchConfig swConfig = new HostVirtualSwitchConfig();
+                    swConfig.setChangeOperation(HostConfigChangeOperation.ADD.value());
+                    swConfig.setName(netName);
+                    swConfig.setSpec(spec);
+                    config.getVswitch().add(swConfig);
+                }
+                HostPortGroupSpec portgrp = new HostPortGroupSpec();
+                portgrp.setName(netName);
+                portgrp.setVswitchName(existing != null ? existing.getVswitchName() : netName);
+                portgrp.setVlanId(existing != null ? existing.getVlanId() : 0);
+                HostNetworkPolicy policy = new HostNetworkPolicy();
+                HostNetworkSecurityPolicy security = new HostNetworkSecurityPolicy();
+                security.setAllowPromiscuous(true);
+                policy.setSecurity(security);
+                portgrp.setPolicy(policy);
+                HostPortGroupConfig pgConfig = new HostPortGroupConfig();
+                // See if we are only updating the policy
+                pgConfig.setChangeOperation(existing != null ? HostConfigChangeOperation.EDIT.value()
+                        : HostConfigChangeOperation.ADD.value());
+                pgConfig.setSpec(portgrp);
+                config.getPortgroup().add(pgConfig);
+            }
+            if (create && !missing.isEmpty()) {
+                logger.fine("Creating " + config.getVswitch().size() + " switches and updating "
+                        + config.getPortgroup().size() + " port groups on " + name);
+                vimPort().updateNetworkConfig(nwSystem, config, HostConfigChangeMode.MODIFY.value());
+            }
+        } catch (SOAPFaultException sfe) {
+            printSoapFaultException(sfe);
+            throw new HVOperationFailedException(name, "Failed adding networks", sfe).set("networks",
+                    StringUtils.join(missing, ","));
+        } catch (AlreadyExistsFaultMsg | HostConfigFaultFaultMsg | NotFoundFaultMsg | ResourceInUseFaultMsg
+                | InvalidPropertyFaultMsg | RuntimeFaultFaultMsg e) {
+            throw new HVOperationFailedException(name, "Failed adding networks", e).set("networks",
+                    StringUtils.join(missing, ","));
+        }
+        return missing;
+    }
+
     @Override
     public boolean isVMOnNetwork(OccpVM vm, String netName) {
         ManagedObjectReference mor = ((OccpEsxiVM) vm).mor;
         try {
-            ArrayOfManagedObjectReference aomor = (ArrayOfManagedObjectReference) getEntityProp(mor, "network");
+            ArrayOfManagedObjectReference aomor = (ArrayOfManagedObjectReference) getCachedProp(mor, "network");
             List<ManagedObjectReference> networks = aomor.getManagedObjectReference();
 
             for (ManagedObjectReference net : networks) {
-                String testName = (String) getEntityProp(net, "name");
+                String testName = (String) getCachedProp(net, "name");
                 if (testName.equals(netName)) {
                     return true;
                 }
@@ -389,6 +591,26 @@ public class OccpEsxiHV implements OccpHV {
         } catch (InvalidPropertyFaultMsg | RuntimeFaultFaultMsg e1) {
             throw new VMOperationFailedException(this.name, vm.getName(), ErrorCode.ASSIGN_NETWORK, e1);
         }
+        List<VirtualDeviceConfigSpec> devices = nicChanges(cards, networks);
+        try {
+            if (!devices.isEmpty()) {
+                spec.getDeviceChange().addAll(devices);
+                ManagedObjectReference task = vimPort().reconfigVMTask(vmMor, spec);
+                getTaskResultAfterDone(task);
+            }
+        } catch (Exception e) {
+            throw new VMOperationFailedException(name, vm.getName(), ErrorCode.ASSIGN_NETWORK, e);
+        }
+    }
+
+    /**
+     * Work out the device changes that put a VM's network cards on the given networks
+     * 
+     * @param cards - The VM's network cards
+     * @param networks - Names of the networks, null to leave that card alone
+     * @return The changes, empty if there are none to make
+     */
+    private static List<VirtualDeviceConfigSpec> nicChanges(List<VirtualEthernetCard> cards, List<String> networks) {
         ArrayList<VirtualDeviceConfigSpec> devices = new ArrayList<VirtualDeviceConfigSpec>();
         int cardIndex = 0;
         boolean change = false;
@@ -474,14 +696,67 @@ public class OccpEsxiHV implements OccpHV {
             devices.add(nic);
             change = true;
         }
+        return devices;
+    }
+
+    @Override
+    public void reconfigureVM(OccpVM vm, VMConfig config) throws OccpException {
+        ManagedObjectReference vmMor = ((OccpEsxiVM) vm).mor;
+        if (config.getFloppy() != null) {
+            // The image has to be on the datastore before it can be attached
+            try {
+                if (!uploadFloppy(vmMor, config.getFloppy(), true)) {
+                    throw new VMOperationFailedException(name, vm.getName(), ErrorCode.ATTACH_FLOPPY).set(
+                            "filename", config.getFloppy());
+                }
+            } catch (VMOperationFailedException e) {
+                throw e;
+            } catch (Exception e) {
+                throw new VMOperationFailedException(name, vm.getName(), ErrorCode.ATTACH_FLOPPY, e).set("filename",
+                        config.getFloppy());
+            }
+        }
+        ErrorCode step = ErrorCode.ASSIGN_NETWORK;
+        // What a failure of the reconfiguration is reported as: the first change in it
+        ErrorCode first = null;
         try {
-            if (change) {
-                spec.getDeviceChange().addAll(devices);
-                ManagedObjectReference task = vimPort.reconfigVMTask(vmMor, spec);
+            // Everything needed to work out the changes, in one look at the VM
+            VirtualMachineConfigInfo info = (VirtualMachineConfigInfo) getEntityProp(vmMor, "config");
+            List<VirtualDevice> hardware = info.getHardware().getDevice();
+            VirtualMachineConfigSpec spec = new VirtualMachineConfigSpec();
+            if (config.getNetworks() != null) {
+                List<VirtualDeviceConfigSpec> nics = nicChanges(ethernetCards(hardware), config.getNetworks());
+                if (!nics.isEmpty()) {
+                    spec.getDeviceChange().addAll(nics);
+                    first = step;
+                }
+            }
+            step = ErrorCode.ASSIGN_RAM;
+            if (config.getRam() > 0 && info.getHardware().getMemoryMB() != config.getRam()) {
+                spec.setMemoryMB(Long.valueOf(config.getRam()));
+                first = first != null ? first : step;
+            }
+            step = ErrorCode.ATTACH_FLOPPY;
+            if (config.getFloppy() != null) {
+                spec.getDeviceChange().add(floppyChange(hardware, info.getFiles().getVmPathName(),
+                        config.getFloppy()));
+                first = first != null ? first : step;
+            }
+            step = ErrorCode.BOOT_ORDER;
+            if (config.isBootCD()) {
+                VirtualMachineBootOptions bo = cdFirst(info.getBootOptions());
+                if (bo != null) {
+                    spec.setBootOptions(bo);
+                    first = first != null ? first : step;
+                }
+            }
+            if (first != null) {
+                step = first;
+                ManagedObjectReference task = vimPort().reconfigVMTask(vmMor, spec);
                 getTaskResultAfterDone(task);
             }
         } catch (Exception e) {
-            throw new VMOperationFailedException(name, vm.getName(), ErrorCode.ASSIGN_NETWORK, e);
+            throw new VMOperationFailedException(name, vm.getName(), step, e);
         }
     }
 
@@ -516,7 +791,7 @@ public class OccpEsxiHV implements OccpHV {
             ov.setKey("occp.group");
             ov.setValue(groupName);
             configSpec.getExtraConfig().add(ov);
-            ManagedObjectReference task = vimPort.reconfigVMTask(vmmor, configSpec);
+            ManagedObjectReference task = vimPort().reconfigVMTask(vmmor, configSpec);
             getTaskResultAfterDone(task);
         } catch (Exception e) {
             throw new VMOperationFailedException(name, vmName, ErrorCode.ASSIGN_GROUP, e).set("group", groupName);
@@ -529,26 +804,37 @@ public class OccpEsxiHV implements OccpHV {
         try {
             ManagedObjectReference vmmor = ((OccpEsxiVM) vm).mor;
             VirtualMachineConfigInfo info = (VirtualMachineConfigInfo) getEntityProp(vmmor, "config");
-            VirtualMachineBootOptions bo = info.getBootOptions();
-            List<VirtualMachineBootOptionsBootableDevice> oldorder = bo.getBootOrder();
-            if (!oldorder.isEmpty()) {
-                VirtualMachineBootOptionsBootableDevice dev = oldorder.get(0);
-                // Don't reconfigure if we don't need to
-                if (dev instanceof VirtualMachineBootOptionsBootableCdromDevice) {
-                    return;
-                }
+            VirtualMachineBootOptions bo = cdFirst(info.getBootOptions());
+            // Don't reconfigure if we don't need to
+            if (bo == null) {
+                return;
             }
-            // Make the CD be first
-            oldorder.add(0, new VirtualMachineBootOptionsBootableCdromDevice());
             VirtualMachineConfigSpec configSpec = new VirtualMachineConfigSpec();
             configSpec.setBootOptions(bo);
-            ManagedObjectReference task = vimPort.reconfigVMTask(vmmor, configSpec);
+            ManagedObjectReference task = vimPort().reconfigVMTask(vmmor, configSpec);
             getTaskResultAfterDone(task);
         } catch (Exception e) {
             throw new VMOperationFailedException(name, vm.getName(), ErrorCode.BOOT_ORDER, e);
         }
     }
 
+    /**
+     * @param bo - A VM's boot options
+     * @return The boot options changed to boot off the CD first, or null if they already do
+     */
+    private static VirtualMachineBootOptions cdFirst(VirtualMachineBootOptions bo) {
+        List<VirtualMachineBootOptionsBootableDevice> oldorder = bo.getBootOrder();
+        if (!oldorder.isEmpty()) {
+            VirtualMachineBootOptionsBootableDevice dev = oldorder.get(0);
+            if (dev instanceof VirtualMachineBootOptionsBootableCdromDevice) {
+                return null;
+            }
+        }
+        // Make the CD be first
+        oldorder.add(0, new VirtualMachineBootOptionsBootableCdromDevice());
+        return bo;
+    }
+
     @Override
     public void importVM(String vmName, String fileName) throws OccpException {
         try {
@@ -585,7 +871,7 @@ public class OccpEsxiHV implements OccpHV {
             throws OccpException {
         /* Assumes guest operations are ready */
         ManagedObjectReference vmmor = ((OccpEsxiVM) vm).mor;
-        ManagedObjectReference guestOpManager = serviceContent.getGuestOperationsManager();
+        ManagedObjectReference guestOpManager = serviceContent().getGuestOperationsManager();
         try {
             ManagedObjectReference fileManagerRef = (ManagedObjectReference) getEntityProp(guestOpManager,
                     "fileManager");
@@ -605,7 +891,7 @@ public class OccpEsxiHV implements OccpHV {
             int tries = 0;
             do {
                 try {
-                    fileUploadUrl = vimPort.initiateFileTransferToGuest(fileManagerRef, vmmor, auth, destPath,
+                    fileUploadUrl = vimPort().initiateFileTransferToGuest(fileManagerRef, vmmor, auth, destPath,
                             guestFileAttributes, fileSize, true);
                 } catch (InvalidStateFaultMsg isfme) {
                     logger.finer("Invalid state transferring file, retrying " + tries);
@@ -657,7 +943,7 @@ public class OccpEsxiHV implements OccpHV {
     public void runCommand(OccpVM vm, String[] cmd, boolean waitForIt) throws OccpException {
         /* Assumes guest operations are ready */
         ManagedObjectReference vmmor = ((OccpEsxiVM) vm).mor;
-        ManagedObjectReference guestOpManager = serviceContent.getGuestOperationsManager();
+        ManagedObjectReference guestOpManager = serviceContent().getGuestOperationsManager();
         String cmdName = cmd[0];
         String[] args = Arrays.copyOfRange(cmd, 1, cmd.length);
         String arguments = StringUtils.join(args, ' ');
@@ -671,7 +957,7 @@ public class OccpEsxiHV implements OccpHV {
             GuestProgramSpec spec = new GuestProgramSpec();
             spec.setProgramPath(cmdName);
             spec.setArguments(arguments);
-            vimPort.startProgramInGuest(progManagerRef, vmmor, auth, spec);
+            vimPort().startProgramInGuest(progManagerRef, vmmor, auth, spec);
         } catch (InvalidPropertyFaultMsg | RuntimeFaultFaultMsg | FileFaultFaultMsg | GuestOperationsFaultFaultMsg
                 | InvalidStateFaultMsg | TaskInProgressFaultMsg e) {
             logger.log(Level.FINEST, "Unexpected error running command", e);
@@ -743,7 +1029,7 @@ public class OccpEsxiHV implements OccpHV {
 
             // Maintain session (required that we use cookie information from login)
             @SuppressWarnings("unchecked")
-            List<String> cookies = (List<String>) headers.get("Set-cookie");
+            List<String> cookies = (List<String>) session().headers.get("Set-cookie");
             String cookieValue = "";
 
             cookieValue = cookies.get(0);
@@ -755,7 +1041,7 @@ public class OccpEsxiHV implements OccpHV {
             // set the cookie in the new request header
             Map<String, List<String>> map = new HashMap<String, List<String>>();
             map.put("Cookie", Collections.singletonList(cookie));
-            ((BindingProvider) vimPort).getRequestContext().put(MessageContext.HTTP_REQUEST_HEADERS, map);
+            ((BindingProvider) vimPort()).getRequestContext().put(MessageContext.HTTP_REQUEST_HEADERS, map);
             conn.setDoInput(true);
             conn.setDoOutput(true);
             conn.setUseCaches(false);
@@ -822,12 +1108,26 @@ public class OccpEsxiHV implements OccpHV {
             DuplicateNameFaultMsg, FileFaultFaultMsg, InsufficientResourcesFaultFaultMsg, InvalidDatastoreFaultMsg,
             InvalidNameFaultMsg, InvalidStateFaultMsg, TaskInProgressFaultMsg, VmConfigFaultFaultMsg {
         VirtualMachineConfigSpec configSpec = new VirtualMachineConfigSpec();
-        List<VirtualDeviceConfigSpec> deviceConfigSpecArr = new ArrayList<VirtualDeviceConfigSpec>();
-
-        VirtualDeviceConfigSpec deviceConfigSpec = new VirtualDeviceConfigSpec();
-
         List<VirtualDevice> deviceArr = ((ArrayOfVirtualDevice) getEntityProp(vm, "config.hardware.device"))
                 .getVirtualDevice();
+        configSpec.getDeviceChange().add(floppyChange(deviceArr, getDatastorePath(vm), filename));
+
+        ManagedObjectReference task = vimPort().reconfigVMTask(vm, configSpec);
+        getTaskResultAfterDone(task);
+    }
+
+    /**
+     * Work out the device change that attaches an uploaded floppy image to a VM
+     * 
+     * @param deviceArr - The VM's devices
+     * @param vmPathFileName - Datastore path of a file in the VM's folder
+     * @param filename - The floppy image, only its name is used
+     * @return The change
+     * @throws FileNotFoundException - If the VM has no floppy drive or path
+     */
+    private static VirtualDeviceConfigSpec floppyChange(List<VirtualDevice> deviceArr, String vmPathFileName,
+            String filename) throws FileNotFoundException {
+        VirtualDeviceConfigSpec deviceConfigSpec = new VirtualDeviceConfigSpec();
         VirtualDevice floppy = null;
 
         for (VirtualDevice device : deviceArr) {
@@ -852,7 +1152,6 @@ public class OccpEsxiHV implements OccpHV {
         floppy.setConnectable(cInfo);
 
         VirtualFloppyImageBackingInfo backingInfo = new VirtualFloppyImageBackingInfo();
-        String vmPathFileName = getDatastorePath(vm);
         if (vmPathFileName == null) {
             throw new FileNotFoundException("Could not find datastore path");
         }
@@ -866,12 +1165,7 @@ public class OccpEsxiHV implements OccpHV {
         floppy.setBacking(backingInfo);
         deviceConfigSpec.setDevice(floppy);
         deviceConfigSpec.setOperation(VirtualDeviceConfigSpecOperation.EDIT);
-
-        deviceConfigSpecArr.add(deviceConfigSpec);
-        configSpec.getDeviceChange().addAll(deviceConfigSpecArr);
-
-        ManagedObjectReference task = vimPort.reconfigVMTask(vm, configSpec);
-        getTaskResultAfterDone(task);
+        return deviceConfigSpec;
     }
 
     private boolean attachISO(ManagedObjectReference vm, String filename)
@@ -922,17 +1216,19 @@ public class OccpEsxiHV implements OccpHV {
         deviceConfigSpecArr.add(deviceConfigSpec);
         configSpec.getDeviceChange().addAll(deviceConfigSpecArr);
 
-        ManagedObjectReference task = vimPort.reconfigVMTask(vm, configSpec);
+        ManagedObjectReference task = vimPort().reconfigVMTask(vm, configSpec);
         getTaskResultAfterDone(task);
         return true;
     }
 
     private final ManagedObjectReference SVC_INST_REF = new ManagedObjectReference();
-    private ManagedObjectReference propCollectorRef;
     private ManagedObjectReference rootRef;
-    private VimService vimService;
-    private VimPortType vimPort;
-    private ServiceContent serviceContent;
+    private static final long KEEPALIVE_MILLIS = 60000;
+    // Logged in sessions, each thread sticks to the one it is given (see session())
+    private final List<VimSession> sessions = new ArrayList<>();
+    private final ThreadLocal<VimSession> threadSession = new ThreadLocal<>();
+    // At most this many sessions, 0 for one per job
+    private int maxSessions = 0;
     private final String SVC_INST_NAME = "ServiceInstance";
 
     /**
@@ -950,13 +1246,201 @@ public class OccpEsxiHV implements OccpHV {
     private final String groupName = "occp-" + OccpAdmin.scenarioName;
     private boolean isConnected = false;
     private boolean isVirtualCenter = false;
-    // Needed to collect info at login for later
-    private Map<String, Object> headers = new HashMap<String, Object>();
     private ManagedObjectReference hostmor;
     private ManagedObjectReference dsMor;
     private ManagedObjectReference folderRef;
     private Thread keepAlive;
 
+    // Properties read through getCachedProp, by object (see cacheKey); guards the rest of the cache too
+    private final Map<String, CachedObject> propertyCache = new HashMap<>();
+    // Objects the property watcher is getting change notifications for, only these are cached
+    private final Set<String> watchedObjects = new HashSet<>();
+    private static final String[] WATCHED_VM_PROPS = { "name", "parent", "snapshot", "config.hardware.device",
+            "layoutEx", "network" };
+    private static final String[] WATCHED_ENTITY_PROPS = { "name", "parent" };
+    private Thread propertyWatcher;
+    private volatile VimSession watcherSession;
+
+    /**
+     * Cached properties of one object
+     */
+    private static final class CachedObject {
+        final Map<String, Object> values = new HashMap<>();
+        // Changed whenever the values are dropped, so a read that overlapped a change is not cached
+        long generation = 0;
+    }
+
+    // Snapshots being prepared for linked clones, by parent VM and snapshot name (see prepareSnapshot)
+    private final ConcurrentMap<String, PreparedSnapshot> preparingSnapshots = new ConcurrentHashMap<>();
+
+    /**
+     * A linked clone snapshot that is being found, or created, by the first clone of a parent. Other clones of the
+     * same parent wait for it rather than racing to create it too.
+     */
+    private static final class PreparedSnapshot {
+        private final CountDownLatch prepared = new CountDownLatch(1);
+        private volatile ManagedObjectReference snapshot = null;
+
+        /**
+         * Record the outcome, releasing any waiting clones
+         * 
+         * @param snapshot - The snapshot, or null if it could not be prepared
+         */
+        void done(ManagedObjectReference snapshot) {
+            this.snapshot = snapshot;
+            prepared.countDown();
+        }
+
+        /**
+         * @return The snapshot, or null if the clone preparing it failed
+         * @throws InterruptedException
+         */
+        ManagedObjectReference await() throws InterruptedException {
+            prepared.await();
+            return snapshot;
+        }
+    }
+
+    /**
+     * One logged in session with the API. Calls go through {@link #proxy}, which logs in again and retries once if the
+     * session has expired.
+     */
+    private final class VimSession implements InvocationHandler {
+        private final VimPortType port;
+        final VimPortType proxy;
+        volatile ServiceContent content;
+        // Cookies from the login, for the HTTP transfers
+        volatile Map<String, Object> headers = new HashMap<String, Object>();
+        volatile long lastUsed = System.currentTimeMillis();
+        // Threads bound to this session, guarded by sessions
+        final List<Thread> threads = new ArrayList<>();
+        volatile boolean closed = false;
+
+        VimSession() {
+            port = new VimService().getVimPort();
+            Map<String, Object> ctxt = ((BindingProvider) port).getRequestContext();
+            ctxt.put(BindingProvider.ENDPOINT_ADDRESS_PROPERTY, url);
+            ctxt.put(BindingProvider.SESSION_MAINTAIN_PROPERTY, true);
+            proxy = (VimPortType) Proxy.newProxyInstance(VimPortType.class.getClassLoader(), new Class<?>[] {
+                    VimPortType.class, BindingProvider.class }, this);
+        }
+
+        @SuppressWarnings("unchecked")
+        synchronized void login() throws RuntimeFaultFaultMsg, InvalidLocaleFaultMsg, InvalidLoginFaultMsg {
+            content = port.retrieveServiceContent(SVC_INST_REF);
+            port.login(content.getSessionManager(), userName, password, null);
+            headers = (Map<String, Object>) ((BindingProvider) port).getResponseContext().get(
+                    MessageContext.HTTP_RESPONSE_HEADERS);
+            lastUsed = System.currentTimeMillis();
+        }
+
+        /**
+         * Forget the threads that have ended, they are done with the session. Call with sessions held.
+         * 
+         * @return The number of live threads bound to the session
+         */
+        int liveThreads() {
+            Iterator<Thread> iter = threads.iterator();
+            while (iter.hasNext()) {
+                if (!iter.next().isAlive()) {
+                    iter.remove();
+                }
+            }
+            return threads.size();
+        }
+
+        void logout() {
+            closed = true;
+            try {
+                port.logout(content.getSessionManager());
+            } catch (RuntimeFaultFaultMsg | RuntimeException e) {
+                logger.log(Level.FINEST, "Logout from " + getName() + " failed", e);
+            }
+        }
+
+        @Override
+        public Object invoke(Object self, Method method, Object[] args) throws Throwable {
+            lastUsed = System.currentTimeMillis();
+            try {
+                return method.invoke(port, args);
+            } catch (InvocationTargetException e) {
+                if (closed || !isNotAuthenticated(e.getCause()) || method.getName().equals("login")
+                        || method.getName().equals("logout")) {
+                    throw e.getCause();
+                }
+            }
+            logger.info("The session with " + getName() + " expired, logging in again");
+            login();
+            try {
+                return method.invoke(port, args);
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+        }
+    }
+
+    private static boolean isNotAuthenticated(Throwable fault) {
+        if (fault instanceof RuntimeFaultFaultMsg) {
+            return ((RuntimeFaultFaultMsg) fault).getFaultInfo() instanceof NotAuthenticated;
+        }
+        if (fault instanceof SOAPFaultException) {
+            String message = ((SOAPFaultException) fault).getFault().getFaultString();
+            return message != null && (message.contains("NotAuthenticated") || message.contains("not authenticated"));
+        }
+        return false;
+    }
+
+    /**
+     * The session for the calling thread. Each thread keeps the session it is first given, so everything it does
+     * (a filter and the waits on it, a lease and its transfers) stays in one session, until the thread ends. Threads
+     * get a session of their own while the pool has room, then share the one with the fewest live threads bound to it.
+     * 
+     * @return The session
+     */
+    private VimSession session() {
+        VimSession session = threadSession.get();
+        if (session != null && !session.closed) {
+            return session;
+        }
+        int limit = maxSessions > 0 ? maxSessions : Math.max(1, jobs);
+        synchronized (sessions) {
+            session = null;
+            int least = 0;
+            for (VimSession candidate : sessions) {
+                int live = candidate.liveThreads();
+                if (session == null || live < least) {
+                    session = candidate;
+                    least = live;
+                }
+            }
+            if (session == null || (least > 0 && sessions.size() < limit)) {
+                VimSession added = new VimSession();
+                try {
+                    added.login();
+                    sessions.add(added);
+                    session = added;
+                    logger.finest("Logged in session " + sessions.size() + " with " + getName());
+                } catch (InvalidLocaleFaultMsg | InvalidLoginFaultMsg | RuntimeFaultFaultMsg | RuntimeException e) {
+                    if (session == null) {
+                        throw new IllegalStateException("Not connected to " + getName(), e);
+                    }
+                    logger.log(Level.WARNING, "Unable to log in another session with " + getName(), e);
+                }
+            }
+            session.threads.add(Thread.currentThread());
+        }
+        threadSession.set(session);
+        return session;
+    }
+
+    private VimPortType vimPort() {
+        return session().proxy;
+    }
+
+    private ServiceContent serviceContent() {
+        return session().content;
+    }
+
     private boolean isOccp(ManagedObjectReference mor) throws InvalidPropertyFaultMsg, RuntimeFaultFaultMsg {
         VirtualMachineConfigInfo configInfo = (VirtualMachineConfigInfo) getEntityProp(mor, "config");
         if (configInfo == null) {
@@ -983,10 +1467,13 @@ public class OccpEsxiHV implements OccpHV {
      */
     private ArrayList<VirtualEthernetCard> getVMNics(ManagedObjectReference vm)
             throws InvalidPropertyFaultMsg, RuntimeFaultFaultMsg {
-        ArrayList<VirtualEthernetCard> listOfCards = new ArrayList<VirtualEthernetCard>();
         VirtualMachineConfigInfo info = (VirtualMachineConfigInfo) getEntityProp(vm, "config");
-        VirtualHardware hw = info.getHardware();
-        for (VirtualDevice d : hw.getDevice()) {
+        return ethernetCards(info.getHardware().getDevice());
+    }
+
+    private static ArrayList<VirtualEthernetCard> ethernetCards(List<VirtualDevice> devices) {
+        ArrayList<VirtualEthernetCard> listOfCards = new ArrayList<VirtualEthernetCard>();
+        for (VirtualDevice d : devices) {
             if (d instanceof VirtualEthernetCard) {
                 listOfCards.add((VirtualEthernetCard) d);
             }
@@ -1004,7 +1491,6 @@ public class OccpEsxiHV implements OccpHV {
      * @throws InvalidPropertyFaultMsg
      * @throws HVOperationFailedException
      */
-    @SuppressWarnings("unchecked")
     private boolean login()
             throws RuntimeFaultFaultMsg, InvalidLocaleFaultMsg, InvalidLoginFaultMsg, InvalidPropertyFaultMsg,
             HVOperationFailedException {
@@ -1027,25 +1513,21 @@ public class OccpEsxiHV implements OccpHV {
             logger.warning("VMware services URL's usually end with /sdk/");
         }
 
-        vimService = new VimService();
-        vimPort = vimService.getVimPort();
-        Map<String, Object> ctxt = ((BindingProvider) vimPort).getRequestContext();
-
-        ctxt.put(BindingProvider.ENDPOINT_ADDRESS_PROPERTY, url);
-        ctxt.put(BindingProvider.SESSION_MAINTAIN_PROPERTY, true);
-
-        serviceContent = vimPort.retrieveServiceContent(SVC_INST_REF);
         if (password == null) {
             password = new String(OccpAdmin.getPassword(this.userName + "@" + this.url));
         }
-        vimPort.login(serviceContent.getSessionManager(), userName, password, null);
-        headers = (Map<String, Object>) ((BindingProvider) vimPort).getResponseContext().get(
-                MessageContext.HTTP_RESPONSE_HEADERS);
+        // Only the first session now, the others are logged in when threads need them
+        VimSession first = new VimSession();
+        first.login();
+        synchronized (sessions) {
+            sessions.add(first);
+            first.threads.add(Thread.currentThread());
+        }
+        threadSession.set(first);
         isConnected = true;
 
-        propCollectorRef = serviceContent.getPropertyCollector();
-        rootRef = serviceContent.getRootFolder();
-        AboutInfo ai = serviceContent.getAbout();
+        rootRef = serviceContent().getRootFolder();
+        AboutInfo ai = serviceContent().getAbout();
         logger.finest("API: " + ai.getApiType());
         logger.finest("osType: " + ai.getOsType());
         logger.finest("productLineId: " + ai.getProductLineId());
@@ -1076,7 +1558,7 @@ public class OccpEsxiHV implements OccpHV {
                     // Create only the last level
                     if (levels == 0 && folderRef == null) {
                         try {
-                            folderRef = vimPort.createFolder(parentFolderRef, parent);
+                            folderRef = vimPort().createFolder(parentFolderRef, parent);
                         } catch (DuplicateNameFaultMsg e) {
                             // Race condition; we just checked
                         } catch (InvalidNameFaultMsg e) {
@@ -1092,9 +1574,9 @@ public class OccpEsxiHV implements OccpHV {
         } else {
             ManagedObjectReference dcMor;
             if (this.isVirtualCenter) {
-                dcMor = vimPort.findChild(serviceContent.getSearchIndex(), rootRef, dataCenter);
+                dcMor = vimPort().findChild(serviceContent().getSearchIndex(), rootRef, dataCenter);
             } else {
-                dcMor = vimPort.findChild(serviceContent.getSearchIndex(), rootRef, "ha-datacenter");
+                dcMor = vimPort().findChild(serviceContent().getSearchIndex(), rootRef, "ha-datacenter");
             }
             folderRef = (ManagedObjectReference) getEntityProp(dcMor, "vmFolder");
         }
@@ -1126,20 +1608,23 @@ public class OccpEsxiHV implements OccpHV {
         }
         keepAlive = new Thread(new KeepAlive());
         keepAlive.start();
+        propertyWatcher = new Thread(new PropertyWatcher());
+        propertyWatcher.setDaemon(true);
+        propertyWatcher.start();
         return true;
     }
 
     private boolean powerOnVM(ManagedObjectReference vm)
             throws FileFaultFaultMsg, InsufficientResourcesFaultFaultMsg, InvalidStateFaultMsg, RuntimeFaultFaultMsg,
             TaskInProgressFaultMsg, VmConfigFaultFaultMsg, InvalidPropertyFaultMsg {
-        ManagedObjectReference taskmor = vimPort.powerOnVMTask(vm, hostmor);
+        ManagedObjectReference taskmor = vimPort().powerOnVMTask(vm, hostmor);
         getTaskResultAfterDone(taskmor);
         return true;
     }
 
     private void powerOffVM(ManagedObjectReference vm)
             throws InvalidPropertyFaultMsg, RuntimeFaultFaultMsg, InvalidStateFaultMsg, TaskInProgressFaultMsg {
-        ManagedObjectReference taskmor = vimPort.powerOffVMTask(vm);
+        ManagedObjectReference taskmor = vimPort().powerOffVMTask(vm);
         getTaskResultAfterDone(taskmor);
     }
 
@@ -1165,7 +1650,8 @@ public class OccpEsxiHV implements OccpHV {
         List<ObjectContent> listobjcontent = new ArrayList<ObjectContent>();
 
         try {
-            RetrieveResult rslts = vimPort.retrievePropertiesEx(propCollectorRef, listpfs, propObjectRetrieveOpts);
+            RetrieveResult rslts = vimPort().retrievePropertiesEx(serviceContent().getPropertyCollector(), listpfs,
+                    propObjectRetrieveOpts);
             if (rslts != null && rslts.getObjects() != null && !rslts.getObjects().isEmpty()) {
                 listobjcontent.addAll(rslts.getObjects());
             }
@@ -1174,7 +1660,7 @@ public class OccpEsxiHV implements OccpHV {
                 token = rslts.getToken();
             }
             while (token != null && !token.isEmpty()) {
-                rslts = vimPort.continueRetrievePropertiesEx(propCollectorRef, token);
+                rslts = vimPort().continueRetrievePropertiesEx(serviceContent().getPropertyCollector(), token);
                 token = null;
                 if (rslts != null) {
                     token = rslts.getToken();
@@ -1219,8 +1705,24 @@ public class OccpEsxiHV implements OccpHV {
      * @throws RuntimeFaultFaultMsg
      * @throws InvalidPropertyFaultMsg
      */
-    private synchronized Object[] waitForValues(ManagedObjectReference objmor, String[] filterProps,
-            String[] endWaitProps, Object[][] expectedVals) throws InvalidPropertyFaultMsg, RuntimeFaultFaultMsg {
+    private Object[] waitForValues(ManagedObjectReference objmor, String[] filterProps, String[] endWaitProps,
+            Object[][] expectedVals) throws InvalidPropertyFaultMsg, RuntimeFaultFaultMsg {
+        // A collector of our own, so waits by threads sharing the session neither see nor hold up each other's updates
+        ManagedObjectReference collector = vimPort().createPropertyCollector(serviceContent().getPropertyCollector());
+        try {
+            return waitForValues(collector, objmor, filterProps, endWaitProps, expectedVals);
+        } finally {
+            // Destroys the filter with it
+            vimPort().destroyPropertyCollector(collector);
+        }
+    }
+
+    /**
+     * {@link #waitForValues}, through the given property collector
+     */
+    private Object[] waitForValues(ManagedObjectReference collector, ManagedObjectReference objmor,
+            String[] filterProps, String[] endWaitProps, Object[][] expectedVals) throws InvalidPropertyFaultMsg,
+            RuntimeFaultFaultMsg {
         // version string is initially null
         String version = "";
         Object[] endVals = new Object[endWaitProps.length];
@@ -1237,7 +1739,7 @@ public class OccpEsxiHV implements OccpHV {
         pSpec.setType(objmor.getType());
         spec.getPropSet().add(pSpec);
 
-        ManagedObjectReference filterSpecRef = vimPort.createFilter(serviceContent.getPropertyCollector(), spec, true);
+        vimPort().createFilter(collector, spec, true);
 
         boolean reached = false;
 
@@ -1248,7 +1750,7 @@ public class OccpEsxiHV implements OccpHV {
         String stateVal = null;
         while (!reached) {
             try {
-                updateset = vimPort.waitForUpdates(serviceContent.getPropertyCollector(), version);
+                updateset = vimPort().waitForUpdates(collector, version);
             } catch (InvalidCollectorVersionFaultMsg e) {
                 throw new RuntimeFaultFaultMsg("Logic error", null, e);
             }
@@ -1299,8 +1801,6 @@ public class OccpEsxiHV implements OccpHV {
             }
         }
 
-        // Destroy the filter when we are done.
-        vimPort.destroyPropertyFilter(filterSpecRef);
         Object[] retVal = null;
         if (stateVal != null) {
             if (stateVal.equalsIgnoreCase("ready")) {
@@ -1330,8 +1830,13 @@ public class OccpEsxiHV implements OccpHV {
             throws InvalidPropertyFaultMsg, RuntimeFaultFaultMsg, RuntimeException {
         logger.finest("Waiting for " + task.getType() + " val " + task.getValue() + " ref:" + task.toString());
         // info has a property - state for state of the task
-        Object[] result = waitForValues(task, new String[] { "info.state", "info.error" }, new String[] { "state" },
+        Object[] result = waitForValues(task, new String[] { "info.state", "info.error", "info.entity" },
+                new String[] { "state" },
                 new Object[][] { new Object[] { TaskInfoState.SUCCESS, TaskInfoState.ERROR } });
+        // Don't wait for the watcher to tell us about our own changes
+        if (result[2] instanceof ManagedObjectReference) {
+            invalidate((ManagedObjectReference) result[2]);
+        }
         logger.finest("Completed " + task.getType() + " val " + task.getValue() + " ref:" + task.toString()
                 + " with status " + ((TaskInfoState) result[0]).toString());
 
@@ -1349,7 +1854,7 @@ public class OccpEsxiHV implements OccpHV {
     private void createSnapshot(ManagedObjectReference vmMor, String snapshotName)
             throws FileFaultFaultMsg, InvalidNameFaultMsg, InvalidStateFaultMsg, RuntimeFaultFaultMsg,
             SnapshotFaultFaultMsg, TaskInProgressFaultMsg, VmConfigFaultFaultMsg, InvalidPropertyFaultMsg {
-        ManagedObjectReference taskMor = vimPort.createSnapshotTask(vmMor, snapshotName, "OCCP Admin Created", false,
+        ManagedObjectReference taskMor = vimPort().createSnapshotTask(vmMor, snapshotName, "OCCP Admin Created", false,
                 false);
         getTaskResultAfterDone(taskMor);
     }
@@ -1361,8 +1866,8 @@ public class OccpEsxiHV implements OccpHV {
     private ManagedObjectReference getMOREFsInFolder(ManagedObjectReference folder, String morefType,
             String objectName, Filter filter) throws InvalidPropertyFaultMsg, RuntimeFaultFaultMsg {
         String PROP_ME_NAME = "name";
-        ManagedObjectReference viewManager = serviceContent.getViewManager();
-        ManagedObjectReference containerView = vimPort.createContainerView(viewManager, folder,
+        ManagedObjectReference viewManager = serviceContent().getViewManager();
+        ManagedObjectReference containerView = vimPort().createContainerView(viewManager, folder,
                 Arrays.asList(morefType), true);
 
         // Create Property Spec
@@ -1392,7 +1897,7 @@ public class OccpEsxiHV implements OccpHV {
         List<PropertyFilterSpec> propertyFilterSpecs = new ArrayList<PropertyFilterSpec>();
         propertyFilterSpecs.add(propertyFilterSpec);
 
-        List<ObjectContent> oCont = vimPort.retrieveProperties(serviceContent.getPropertyCollector(),
+        List<ObjectContent> oCont = vimPort().retrieveProperties(serviceContent().getPropertyCollector(),
                 propertyFilterSpecs);
         if (oCont != null) {
             for (ObjectContent oc : oCont) {
@@ -1446,13 +1951,13 @@ public class OccpEsxiHV implements OccpHV {
         if (snapmor == null) {
             throw new IllegalArgumentException();
         }
-        ManagedObjectReference taskMor = vimPort.revertToSnapshotTask(snapmor, null, true);
+        ManagedObjectReference taskMor = vimPort().revertToSnapshotTask(snapmor, null, true);
         getTaskResultAfterDone(taskMor);
     }
 
     private ManagedObjectReference getSnapshotReference(ManagedObjectReference vmmor, String snapName)
             throws InvalidPropertyFaultMsg, RuntimeFaultFaultMsg {
-        VirtualMachineSnapshotInfo snapInfo = (VirtualMachineSnapshotInfo) getEntityProp(vmmor, "snapshot");
+        VirtualMachineSnapshotInfo snapInfo = (VirtualMachineSnapshotInfo) getCachedProp(vmmor, "snapshot");
         ManagedObjectReference snapmor = null;
         if (snapInfo != null) {
             List<VirtualMachineSnapshotTree> listvmst = snapInfo.getRootSnapshotList();
@@ -1574,13 +2079,21 @@ public class OccpEsxiHV implements OccpHV {
 
     private String getFullPath(ManagedObjectReference child) {
         if (child != null) {
-            String namePart = (String) getDynamicProperty(child, "name");
+            String namePart;
+            ManagedObjectReference parent;
             try {
-                ManagedObjectReference parent = (ManagedObjectReference) getDynamicProperty(child, "parent");
-                return getFullPath(parent) + "/" + namePart;
-            } catch (IndexOutOfBoundsException e) {
-            } // expected
-              // The paths it wants doesn't start with this
+                // The folders above the VMs hardly ever change, so this is usually all from the cache
+                namePart = (String) getCachedProp(child, "name");
+                parent = (ManagedObjectReference) getCachedProp(child, "parent");
+            } catch (InvalidPropertyFaultMsg | RuntimeFaultFaultMsg e) {
+                logger.log(Level.SEVERE, "Unable to find the path of " + child.getValue(), e);
+                return null;
+            }
+            if (parent != null) {
+                String parentPath = getFullPath(parent);
+                return parentPath == null ? null : parentPath + "/" + namePart;
+            }
+            // The paths it wants doesn't start with this
             if (namePart != null && namePart.equals("Datacenters")) {
                 return "";
             }
@@ -1590,7 +2103,7 @@ public class OccpEsxiHV implements OccpHV {
     }
 
     private String getDatastorePath(ManagedObjectReference vm) throws InvalidPropertyFaultMsg, RuntimeFaultFaultMsg {
-        VirtualMachineFileLayoutEx layout = (VirtualMachineFileLayoutEx) getEntityProp(vm, "layoutEx");
+        VirtualMachineFileLayoutEx layout = (VirtualMachineFileLayoutEx) getCachedProp(vm, "layoutEx");
         List<VirtualMachineFileLayoutExFileInfo> files = layout.getFile();
         if (!files.isEmpty()) {
             return files.get(0).getName();
@@ -1618,7 +2131,7 @@ public class OccpEsxiHV implements OccpHV {
 
             HostVirtualSwitchSpec spec = new HostVirtualSwitchSpec();
             spec.setNumPorts(20);
-            vimPort.addVirtualSwitch(nwSystem, virtualswitchid, spec);
+            vimPort().addVirtualSwitch(nwSystem, virtualswitchid, spec);
             return true;
         } catch (AlreadyExistsFaultMsg ex) {
             // Shouldn't happen, but could happen from a race condition
@@ -1651,9 +2164,9 @@ public class OccpEsxiHV implements OccpHV {
             portgrp.setPolicy(policy);
             // See if we are only updating the policy
             if (_networkExists(netName, false)) {
-                vimPort.updatePortGroup(nwSystem, netName, portgrp);
+                vimPort().updatePortGroup(nwSystem, netName, portgrp);
             } else {
-                vimPort.addPortGroup(nwSystem, portgrp);
+                vimPort().addPortGroup(nwSystem, portgrp);
             }
             return true;
         } catch (AlreadyExistsFaultMsg ex) {
@@ -1678,7 +2191,7 @@ public class OccpEsxiHV implements OccpHV {
         try {
             HostConfigManager configMgr = (HostConfigManager) getEntityProp(hostmor, "configManager");
             ManagedObjectReference nwSystem = configMgr.getNetworkSystem();
-            vimPort.removeVirtualSwitch(nwSystem, virtualswitchid);
+            vimPort().removeVirtualSwitch(nwSystem, virtualswitchid);
             logger.finest("Successful removing : " + virtualswitchid);
         } catch (HostConfigFaultFaultMsg ex) {
             logger.log(Level.SEVERE, "Configuration failure", ex);
@@ -1758,18 +2271,19 @@ public class OccpEsxiHV implements OccpHV {
         String oldVmxName = vmPathFileName.substring(vmPathFileName.lastIndexOf("/") + 1);
 
         // copyDatastoreFileTask arg 1
-        ManagedObjectReference fm = serviceContent.getFileManager();
+        ManagedObjectReference fm = serviceContent().getFileManager();
 
         // Locate the datastore we want; making some assumptions because we know this is esxi
         // copyDatastoreFileTask args 3, 5
-        ManagedObjectReference vmDCRef = vimPort.findChild(serviceContent.getSearchIndex(), rootRef, "ha-datacenter");
+        ManagedObjectReference vmDCRef = vimPort().findChild(serviceContent().getSearchIndex(), rootRef,
+                "ha-datacenter");
 
-        ManagedObjectReference copyTask = vimPort.copyDatastoreFileTask(fm, vmPathFolderName, vmDCRef, clonePath,
+        ManagedObjectReference copyTask = vimPort().copyDatastoreFileTask(fm, vmPathFolderName, vmDCRef, clonePath,
                 vmDCRef, false);
         getTaskResultAfterDone(copyTask);
 
         // registerVMTask arg 1
-        ManagedObjectReference folderRef = vimPort.findChild(serviceContent.getSearchIndex(), vmDCRef, "vm");
+        ManagedObjectReference folderRef = vimPort().findChild(serviceContent().getSearchIndex(), vmDCRef, "vm");
         if (folderRef == null) {
             logger.severe("Where are my VMs?");
             throw new RuntimeException("Hypervisor misconfiguration");
@@ -1780,8 +2294,8 @@ public class OccpEsxiHV implements OccpHV {
         logger.finest(clonePath + "/" + oldVmxName + " -> " + cloneName);
         ManagedObjectReference pool = (ManagedObjectReference) getDynamicProperty(vm, "resourcePool");
 
-        ManagedObjectReference task = vimPort.registerVMTask(folderRef, clonePath + "/" + oldVmxName, cloneName, false,
-                pool, null);
+        ManagedObjectReference task = vimPort().registerVMTask(folderRef, clonePath + "/" + oldVmxName, cloneName,
+                false, pool, null);
         getTaskResultAfterDone(task);
 
         // Get a reference to the new VM so we can update it
@@ -1816,7 +2330,7 @@ public class OccpEsxiHV implements OccpHV {
             devices.add(nic);
         }
         spec.getDeviceChange().addAll(devices);
-        vimPort.reconfigVMTask(newVM, spec);
+        vimPort().reconfigVMTask(newVM, spec);
         assignVMGroup(cloneName, newVM);
         return true;
     }
@@ -1831,7 +2345,7 @@ public class OccpEsxiHV implements OccpHV {
             return false;
         }
 
-        ManagedObjectReference vmRef = vimPort.findByInventoryPath(serviceContent.getSearchIndex(), vmPathName);
+        ManagedObjectReference vmRef = vimPort().findByInventoryPath(serviceContent().getSearchIndex(), vmPathName);
 
         VirtualMachineCloneSpec cloneSpec = new VirtualMachineCloneSpec();
         VirtualMachineRelocateSpec relocSpec = new VirtualMachineRelocateSpec();
@@ -1841,7 +2355,7 @@ public class OccpEsxiHV implements OccpHV {
 
         try {
             logger.finest("Starting clone task for " + cloneName);
-            ManagedObjectReference cloneTask = vimPort.cloneVMTask(vmRef, folderRef, cloneName, cloneSpec);
+            ManagedObjectReference cloneTask = vimPort().cloneVMTask(vmRef, folderRef, cloneName, cloneSpec);
             getTaskResultAfterDone(cloneTask);
             ManagedObjectReference newVM = (ManagedObjectReference) getEntityProp(cloneTask, "info.result");
             assignVMGroup(cloneName, newVM);
@@ -1854,9 +2368,108 @@ public class OccpEsxiHV implements OccpHV {
         return true;
     }
 
+    private static String cacheKey(ManagedObjectReference mor) {
+        return mor.getType() + ":" + mor.getValue();
+    }
+
+    private static boolean isWatchedProp(ManagedObjectReference mor, String prop) {
+        String[] watched = mor.getType().equals("VirtualMachine") ? WATCHED_VM_PROPS : WATCHED_ENTITY_PROPS;
+        return Arrays.asList(watched).contains(prop);
+    }
+
+    /**
+     * {@link #getEntityProp}, but kept for objects the property watcher reports changes to. The values returned are
+     * shared, so they must not be changed; read the property with getEntityProp to make changes from it.
+     * 
+     * @param mor - The object
+     * @param prop - The property
+     * @return The property's value, or null if it has none
+     * @throws InvalidPropertyFaultMsg
+     * @throws RuntimeFaultFaultMsg
+     */
+    private Object getCachedProp(ManagedObjectReference mor, String prop)
+            throws InvalidPropertyFaultMsg, RuntimeFaultFaultMsg {
+        String key = cacheKey(mor);
+        CachedObject cached;
+        long generation;
+        synchronized (propertyCache) {
+            if (!watchedObjects.contains(key) || !isWatchedProp(mor, prop)) {
+                return getEntityProp(mor, prop);
+            }
+            cached = propertyCache.get(key);
+            if (cached == null) {
+                cached = new CachedObject();
+                propertyCache.put(key, cached);
+            } else if (cached.values.containsKey(prop)) {
+                return cached.values.get(prop);
+            }
+            generation = cached.generation;
+        }
+        Object value = getEntityProp(mor, prop);
+        synchronized (propertyCache) {
+            // Unless it changed while we were reading it
+            if (cached.generation == generation && propertyCache.get(key) == cached) {
+                cached.values.put(prop, value);
+            }
+        }
+        return value;
+    }
+
+    /**
+     * Forget the cached properties of an object, because it changed
+     * 
+     * @param mor - The object
+     */
+    private void invalidate(ManagedObjectReference mor) {
+        synchronized (propertyCache) {
+            CachedObject cached = propertyCache.get(cacheKey(mor));
+            if (cached != null) {
+                cached.values.clear();
+                ++cached.generation;
+            }
+        }
+    }
+
+    /**
+     * Find the snapshot to make linked clones from, creating it if it's missing. Only one clone of each parent does
+     * this at a time; clones of other parents, and the clones themselves, go ahead in parallel.
+     * 
+     * @param vm - The parent VM
+     * @param snapshotBase - Name of the snapshot
+     * @return The snapshot
+     * @throws Exception
+     */
+    private ManagedObjectReference prepareSnapshot(ManagedObjectReference vm, String snapshotBase) throws Exception {
+        String key = vm.getValue() + "/" + snapshotBase.toLowerCase(Locale.ENGLISH);
+        while (true) {
+            PreparedSnapshot fresh = new PreparedSnapshot();
+            PreparedSnapshot preparing = preparingSnapshots.putIfAbsent(key, fresh);
+            if (preparing != null) {
+                ManagedObjectReference snapMOR = preparing.await();
+                if (snapMOR != null) {
+                    return snapMOR;
+                }
+                // The clone preparing it failed, try to take its place
+                continue;
+            }
+            ManagedObjectReference snapMOR = null;
+            try {
+                snapMOR = getSnapshotReference(vm, snapshotBase);
+                if (snapMOR == null) {
+                    this.createSnapshot(vm, snapshotBase);
+                    snapMOR = getSnapshotReference(vm, snapshotBase);
+                }
+                return snapMOR;
+            } finally {
+                // Later clones look again, in case the snapshot has gone since
+                preparingSnapshots.remove(key, fresh);
+                fresh.done(snapMOR);
+            }
+        }
+    }
+
     // Only works with vCenter, not with raw ESXi
-    // Synchronized prevents likely race condition; this operation should be quick
-    private synchronized boolean linkedCloneVM(ManagedObjectReference vm, String cloneName, String snapshotBase)
+    private boolean linkedCloneVM(ManagedObjectReference vm, String cloneName, String snapshotBase)
             throws Exception {
         // Clone function takes the path name to the VM
         String vmPathName = getFullPath(vm);
@@ -1865,16 +2478,9 @@ public class OccpEsxiHV implements OccpHV {
             return false;
         }
 
-        ManagedObjectReference vmRef = vimPort.findByInventoryPath(serviceContent.getSearchIndex(), vmPathName);
+        ManagedObjectReference vmRef = vimPort().findByInventoryPath(serviceContent().getSearchIndex(), vmPathName);
 
-        ManagedObjectReference snapMOR = null;
-        synchronized (this) {
-            snapMOR = getSnapshotReference(vm, snapshotBase);
-            if (snapMOR == null) {
-                this.createSnapshot(vm, snapshotBase);
-                snapMOR = getSnapshotReference(vm, snapshotBase);
-            }
-        }
+        ManagedObjectReference snapMOR = prepareSnapshot(vm, snapshotBase);
 
         VirtualMachineCloneSpec cloneSpec = new VirtualMachineCloneSpec();
         VirtualMachineRelocateSpec relocSpec = new VirtualMachineRelocateSpec();
@@ -1886,7 +2492,7 @@ public class OccpEsxiHV implements OccpHV {
 
         try {
             logger.finest("Starting clone task for " + cloneName);
-            ManagedObjectReference cloneTask = vimPort.cloneVMTask(vmRef, folderRef, cloneName, cloneSpec);
+            ManagedObjectReference cloneTask = vimPort().cloneVMTask(vmRef, folderRef, cloneName, cloneSpec);
             getTaskResultAfterDone(cloneTask);
             ManagedObjectReference newVM = (ManagedObjectReference) getEntityProp(cloneTask, "info.result");
             assignVMGroup(cloneName, newVM);
@@ -1931,8 +2537,8 @@ public class OccpEsxiHV implements OccpHV {
         List<PropertyFilterSpec> propertyFilterSpecs = new ArrayList<PropertyFilterSpec>();
         propertyFilterSpecs.add(propertyFilterSpec);
 
-        RetrieveResult rslts = vimPort.retrievePropertiesEx(serviceContent.getPropertyCollector(), propertyFilterSpecs,
-                new RetrieveOptions());
+        RetrieveResult rslts = vimPort().retrievePropertiesEx(serviceContent().getPropertyCollector(),
+                propertyFilterSpecs, new RetrieveOptions());
         List<ObjectContent> listobjcontent = new ArrayList<ObjectContent>();
         if (rslts != null && rslts.getObjects() != null && !rslts.getObjects().isEmpty()) {
             listobjcontent.addAll(rslts.getObjects());
@@ -1942,7 +2548,7 @@ public class OccpEsxiHV implements OccpHV {
             token = rslts.getToken();
         }
         while (token != null && !token.isEmpty()) {
-            rslts = vimPort.continueRetrievePropertiesEx(serviceContent.getPropertyCollector(), token);
+            rslts = vimPort().continueRetrievePropertiesEx(serviceContent().getPropertyCollector(), token);
             token = null;
             if (rslts != null) {
                 token = rslts.getToken();
@@ -2016,7 +2622,7 @@ public class OccpEsxiHV implements OccpHV {
 
             // Maintain session
             @SuppressWarnings("unchecked")
-            List<String> cookies = (List<String>) headers.get("Set-cookie");
+            List<String> cookies = (List<String>) session().headers.get("Set-cookie");
             String cookieValue = cookies.get(0);
             StringTokenizer tokenizer = new StringTokenizer(cookieValue, ";");
             cookieValue = tokenizer.nextToken();
@@ -2026,7 +2632,7 @@ public class OccpEsxiHV implements OccpHV {
             // set the cookie in the new request header
             Map<String, List<String>> map = new HashMap<String, List<String>>();
             map.put("Cookie", Collections.singletonList(cookie));
-            ((BindingProvider) vimPort).getRequestContext().put(MessageContext.HTTP_REQUEST_HEADERS, map);
+            ((BindingProvider) vimPort()).getRequestContext().put(MessageContext.HTTP_REQUEST_HEADERS, map);
             conn.setDoInput(true);
             conn.setDoOutput(true);
             conn.setUseCaches(false);
@@ -2151,7 +2757,7 @@ public class OccpEsxiHV implements OccpHV {
             parseParams.setLocale("");
             parseParams.setDeploymentOption("");
             parseParams.getImportOption().add("lax");
-            OvfParseDescriptorResult parseResult = vimPort.parseDescriptor(serviceContent.getOvfManager(),
+            OvfParseDescriptorResult parseResult = vimPort().parseDescriptor(serviceContent().getOvfManager(),
                     ovfDescriptor, parseParams);
             List<OvfNetworkMapping> networkMapping = new ArrayList<>();
             List<OvfNetworkInfo> importNets = parseResult.getNetwork();
@@ -2176,7 +2782,7 @@ public class OccpEsxiHV implements OccpHV {
             }
             importSpecParams.getNetworkMapping().addAll(networkMapping);
 
-            OvfCreateImportSpecResult ovfImportResult = vimPort.createImportSpec(serviceContent.getOvfManager(),
+            OvfCreateImportSpecResult ovfImportResult = vimPort().createImportSpec(serviceContent().getOvfManager(),
                     ovfDescriptor, rpMor, dsMor, importSpecParams);
             List<LocalizedMethodFault> errors = ovfImportResult.getError();
             for (LocalizedMethodFault error : errors) {
@@ -2213,13 +2819,13 @@ public class OccpEsxiHV implements OccpHV {
                 throw new IllegalArgumentException("Not importing VM with no attached media");
             }
             logger.fine("Uploading: " + TOTAL_BYTES);
-            httpNfcLease = vimPort.importVApp(rpMor, ovfImportResult.getImportSpec(), folderRef, hostmor);
+            httpNfcLease = vimPort().importVApp(rpMor, ovfImportResult.getImportSpec(), folderRef, hostmor);
             Object[] result = waitForValues(httpNfcLease, new String[] { "state" }, new String[] { "state" },
                     new Object[][] { new Object[] { HttpNfcLeaseState.READY, HttpNfcLeaseState.ERROR } });
             if (result[0].equals(HttpNfcLeaseState.READY)) {
                 logger.finest("HttpNfcLeaseState: " + result[0]);
                 HttpNfcLeaseInfo httpNfcLeaseInfo = (HttpNfcLeaseInfo) getEntityProp(httpNfcLease, "info");
-                HttpNfcLeaseExtender leaseExtender = new HttpNfcLeaseExtender(httpNfcLease, vimPort, vmName,
+                HttpNfcLeaseExtender leaseExtender = new HttpNfcLeaseExtender(httpNfcLease, vimPort(), vmName,
                         TOTAL_BYTES, true);
                 Thread t = new Thread(leaseExtender);
                 t.start();
@@ -2264,8 +2870,8 @@ public class OccpEsxiHV implements OccpHV {
                 }
                 leaseExtender.vmdkFlag = true;
                 t.interrupt();
-                vimPort.httpNfcLeaseProgress(httpNfcLease, 100);
-                vimPort.httpNfcLeaseComplete(httpNfcLease);
+                vimPort().httpNfcLeaseProgress(httpNfcLease, 100);
+                vimPort().httpNfcLeaseComplete(httpNfcLease);
             } else {
                 logger.severe("HttpNfcLeaseState not ready");
                 for (Object o : result) {
@@ -2283,7 +2889,7 @@ public class OccpEsxiHV implements OccpHV {
                 LocalizedMethodFault fault = new LocalizedMethodFault();
                 fault.setFault(new OvfImportFailed());
                 try {
-                    vimPort.httpNfcLeaseAbort(httpNfcLease, fault);
+                    vimPort().httpNfcLeaseAbort(httpNfcLease, fault);
                 } catch (InvalidStateFaultMsg | RuntimeFaultFaultMsg | TimedoutFaultMsg e1) {
                     VMOperationFailedException newEx = new VMOperationFailedException(name, vmName, ErrorCode.IMPORT, e);
                     newEx.addSuppressed(e1);
@@ -2356,19 +2962,121 @@ public class OccpEsxiHV implements OccpHV {
         }
     }
 
+    /**
+     * Watches the scenario's VMs, and the folders, datacenters and networks, for changes to the properties kept by
+     * getCachedProp, and drops the cached properties of whatever changes. It has a session of its own, since waiting
+     * for updates ties up the session's property collector. If it stops, nothing is cached any more.
+     */
+    private class PropertyWatcher implements Runnable {
+        @Override
+        public void run() {
+            Thread.currentThread().setName("Watch " + getName());
+            VimSession watching = new VimSession();
+            try {
+                watching.login();
+                watcherSession = watching;
+                ManagedObjectReference collector = watching.content.getPropertyCollector();
+                PropertyFilterSpec spec = new PropertyFilterSpec();
+                spec.getObjectSet().add(viewSpec(watching, folderRef, "VirtualMachine"));
+                spec.getObjectSet().add(viewSpec(watching, rootRef, "Folder", "Datacenter", "Network"));
+                spec.getPropSet().add(propSpec("VirtualMachine", WATCHED_VM_PROPS));
+                spec.getPropSet().add(propSpec("Folder", WATCHED_ENTITY_PROPS));
+                spec.getPropSet().add(propSpec("Datacenter", WATCHED_ENTITY_PROPS));
+                spec.getPropSet().add(propSpec("Network", WATCHED_ENTITY_PROPS));
+                watching.proxy.createFilter(collector, spec, true);
+
+                WaitOptions options = new WaitOptions();
+                options.setMaxWaitSeconds((int) (KEEPALIVE_MILLIS / 1000));
+                String version = "";
+                while (!Thread.interrupted() && !watching.closed) {
+                    UpdateSet updates = watching.proxy.waitForUpdatesEx(collector, version, options);
+                    if (updates == null) {
+                        // Nothing changed
+                        continue;
+                    }
+                    version = updates.getVersion();
+                    synchronized (propertyCache) {
+                        for (PropertyFilterUpdate filterUpdate : updates.getFilterSet()) {
+                            for (ObjectUpdate objectUpdate : filterUpdate.getObjectSet()) {
+                                String key = cacheKey(objectUpdate.getObj());
+                                // The first updates enter every object there is
+                                if (objectUpdate.getKind() == ObjectUpdateKind.LEAVE) {
+                                    watchedObjects.remove(key);
+                                    propertyCache.remove(key);
+                                } else {
+                                    watchedObjects.add(key);
+                                    invalidate(objectUpdate.getObj());
+                                }
+                            }
+                        }
+                    }
+                }
+            } catch (InvalidLocaleFaultMsg | InvalidLoginFaultMsg | InvalidPropertyFaultMsg | RuntimeFaultFaultMsg
+                    | InvalidCollectorVersionFaultMsg | RuntimeException e) {
+                if (!watching.closed) {
+                    logger.log(Level.WARNING, "Stopped watching " + getName() + " for changes, properties of its VMs"
+                            + " will no longer be cached", e);
+                }
+            } finally {
+                synchronized (propertyCache) {
+                    watchedObjects.clear();
+                    propertyCache.clear();
+                }
+                watcherSession = null;
+                watching.logout();
+            }
+        }
+
+        private ObjectSpec viewSpec(VimSession watching, ManagedObjectReference container, String... types)
+                throws RuntimeFaultFaultMsg {
+            ManagedObjectReference view = watching.proxy.createContainerView(watching.content.getViewManager(),
+                    container, Arrays.asList(types), true);
+            TraversalSpec ts = new TraversalSpec();
+            ts.setName("view");
+            ts.setPath("view");
+            ts.setSkip(false);
+            ts.setType("ContainerView");
+            ObjectSpec objectSpec = new ObjectSpec();
+            objectSpec.setObj(view);
+            objectSpec.setSkip(true);
+            objectSpec.getSelectSet().add(ts);
+            return objectSpec;
+        }
+
+        private PropertySpec propSpec(String type, String[] props) {
+            PropertySpec propertySpec = new PropertySpec();
+            propertySpec.setAll(Boolean.FALSE);
+            propertySpec.setType(type);
+            propertySpec.getPathSet().addAll(Arrays.asList(props));
+            return propertySpec;
+        }
+    }
+
     private class KeepAlive implements Runnable {
         @Override
         public void run() {
             Thread.currentThread().setName("Keepalive " + getName());
             try {
                 while (!Thread.interrupted()) {
-                    Thread.sleep(60000);
-                    serviceContent.getAbout();
+                    Thread.sleep(KEEPALIVE_MILLIS);
+                    List<VimSession> current;
+                    synchronized (sessions) {
+                        current = new ArrayList<>(sessions);
+                    }
+                    for (VimSession session : current) {
+                        // Busy sessions don't need it, and an expired one is logged in again by the ping
+                        if (System.currentTimeMillis() - session.lastUsed < KEEPALIVE_MILLIS) {
+                            continue;
+                        }
+                        try {
+                            session.proxy.currentTime(SVC_INST_REF);
+                        } catch (RuntimeFaultFaultMsg | RuntimeException e) {
+                            logger.log(Level.FINE, "Keepalive failed on " + getName(), e);
+                        }
+                    }
                 }
             } catch (InterruptedException sfe) {
                 // We are terminating
-            } catch (SOAPFaultException sfe) {
-                printSoapFaultException(sfe);
             }
         }
     }
@@ -2417,21 +3125,21 @@ public class OccpEsxiHV implements OccpHV {
             ManagedObjectReference vmmor = ((OccpEsxiVM) vm).mor;
             logger.finest("Getting the HTTP NFCLEASE for the VM: " + vm.getName());
 
-            ManagedObjectReference ovfMgr = serviceContent.getOvfManager();
-            httpNfcLease = vimPort.exportVm(vmmor);
+            ManagedObjectReference ovfMgr = serviceContent().getOvfManager();
+            httpNfcLease = vimPort().exportVm(vmmor);
             Object[] result = waitForValues(httpNfcLease, new String[] { "state" }, new String[] { "state" },
                     new Object[][] { new Object[] { HttpNfcLeaseState.READY, HttpNfcLeaseState.ERROR } });
             if (result[0].equals(HttpNfcLeaseState.READY)) {
                 logger.finest("HttpNfcLeaseState: " + result[0]);
                 HttpNfcLeaseInfo httpNfcLeaseInfo = (HttpNfcLeaseInfo) getEntityProp(httpNfcLease, "info");
                 httpNfcLeaseInfo.setLeaseTimeout(300000000);
-                List<HttpNfcLeaseManifestEntry> manifest = vimPort.httpNfcLeaseGetManifest(httpNfcLease);
+                List<HttpNfcLeaseManifestEntry> manifest = vimPort().httpNfcLeaseGetManifest(httpNfcLease);
                 long diskCapacity = 0;
                 for (HttpNfcLeaseManifestEntry entry : manifest) {
                     diskCapacity += entry.getSize();
                 }
                 logger.finest("Downloading " + diskCapacity + " bytes");
-                leaseExtender = new HttpNfcLeaseExtender(httpNfcLease, vimPort, vm.getName(), diskCapacity, false);
+                leaseExtender = new HttpNfcLeaseExtender(httpNfcLease, vimPort(), vm.getName(), diskCapacity, false);
                 t = new Thread(leaseExtender);
                 t.start();
                 File ovaFile = new File(exportDir.toPath().resolve(exportName).toString());
@@ -2456,7 +3164,7 @@ public class OccpEsxiHV implements OccpHV {
                     }
                     cdp.getOvfFiles().add(imageFile);
                 }
-                OvfCreateDescriptorResult descriptor = vimPort.createDescriptor(ovfMgr, vmmor, cdp);
+                OvfCreateDescriptorResult descriptor = vimPort().createDescriptor(ovfMgr, vmmor, cdp);
                 List<LocalizedMethodFault> errors = descriptor.getError();
                 for (LocalizedMethodFault error : errors) {
                     logger.severe(error.getLocalizedMessage());
@@ -2593,7 +3301,7 @@ public class OccpEsxiHV implements OccpHV {
                 LocalizedMethodFault fault = new LocalizedMethodFault();
                 fault.setFault(new OvfImportFailed());
                 try {
-                    vimPort.httpNfcLeaseAbort(httpNfcLease, fault);
+                    vimPort().httpNfcLeaseAbort(httpNfcLease, fault);
                 } catch (InvalidStateFaultMsg | RuntimeFaultFaultMsg | TimedoutFaultMsg thrown) {
                     logger.log(Level.WARNING, "Failed to abort task; please cancel this task from VMware", thrown);
                     cause.addSuppressed(thrown);
@@ -2610,8 +3318,8 @@ public class OccpEsxiHV implements OccpHV {
             }
             try {
                 if (!failure) {
-                    vimPort.httpNfcLeaseProgress(httpNfcLease, 100);
-                    vimPort.httpNfcLeaseComplete(httpNfcLease);
+                    vimPort().httpNfcLeaseProgress(httpNfcLease, 100);
+                    vimPort().httpNfcLeaseComplete(httpNfcLease);
                 }
             } catch (RuntimeFaultFaultMsg | TimedoutFaultMsg | InvalidStateFaultMsg | SOAPFaultException thrown) {
                 logger.log(Level.SEVERE, "Failed to complete export task; please cancel this task from VMware", thrown);
@@ -2639,7 +3347,7 @@ public class OccpEsxiHV implements OccpHV {
             if (currentRam != ram) {
                 VirtualMachineConfigSpec spec = new VirtualMachineConfigSpec();
                 spec.setMemoryMB(Long.valueOf(ram));
-                ManagedObjectReference task = vimPort.reconfigVMTask(vmMor, spec);
+                ManagedObjectReference task = vimPort().reconfigVMTask(vmMor, spec);
                 getTaskResultAfterDone(task);
             }
         } catch (InvalidPropertyFaultMsg | RuntimeFaultFaultMsg | ConcurrentAccessFaultMsg | DuplicateNameFaultMsg
@@ -2653,7 +3361,7 @@ public class OccpEsxiHV implements OccpHV {
     public void deleteVM(OccpVM vm) throws VMOperationFailedException {
         ManagedObjectReference vmMor = ((OccpEsxiVM) vm).mor;
         try {
-            ManagedObjectReference task = vimPort.destroyTask(vmMor);
+            ManagedObjectReference task = vimPort().destroyTask(vmMor);
             getTaskResultAfterDone(task);
         } catch (Exception e) {
             throw new VMOperationFailedException(name, vm.getName(), ErrorCode.DELETE_VM, e);
@@ -2666,7 +3374,7 @@ public class OccpEsxiHV implements OccpHV {
         try {
             snapmor = getSnapshotReference(((OccpEsxiVM) vm).mor, snapshotName);
             if (snapmor != null) {
-                ManagedObjectReference taskMor = vimPort.removeSnapshotTask(snapmor, false, true);
+                ManagedObjectReference taskMor = vimPort().removeSnapshotTask(snapmor, false, true);
                 getTaskResultAfterDone(taskMor);
             }
         } catch (Exception e) {
@@ -2688,7 +3396,7 @@ public class OccpEsxiHV implements OccpHV {
             throws InvalidPropertyFaultMsg, RuntimeFaultFaultMsg {
         ManagedObjectReference envBrowseMor = (ManagedObjectReference) getEntityProp(computeResMor,
                 "environmentBrowser");
-        VirtualMachineConfigOption cfgOpt = vimPort.queryConfigOption(envBrowseMor, null, hostmor);
+        VirtualMachineConfigOption cfgOpt = vimPort().queryConfigOption(envBrowseMor, null, hostmor);
         List<VirtualDevice> defaultDevs = null;
         if (cfgOpt == null) {
             throw new RuntimeException("No VirtualHardwareInfo found in ComputeResource");
@@ -2728,7 +3436,7 @@ public class OccpEsxiHV implements OccpHV {
 
         ManagedObjectReference envBrowseMor = (ManagedObjectReference) getEntityProp(computeResMor,
                 "environmentBrowser");
-        ConfigTarget configTarget = vimPort.queryConfigTarget(envBrowseMor, hostmor);
+        ConfigTarget configTarget = vimPort().queryConfigTarget(envBrowseMor, hostmor);
         if (configTarget == null) {
             throw new RuntimeException("No ConfigTarget found in ComputeResource");
         }
@@ -2821,7 +3529,7 @@ public class OccpEsxiHV implements OccpHV {
             ov.setKey("occp.group");
             ov.setValue(groupName);
             vmConfigSpec.getExtraConfig().add(ov);
-            ManagedObjectReference taskmor = vimPort.createVMTask(folderRef, vmConfigSpec, poolMor, hostmor);
+            ManagedObjectReference taskmor = vimPort().createVMTask(folderRef, vmConfigSpec, poolMor, hostmor);
             getTaskResultAfterDone(taskmor);
             logger.fine("Success: Creating VM  - [ " + vmName + " ]");
             ManagedObjectReference vmMor = (ManagedObjectReference) getEntityProp(taskmor, "info.result");
@@ -2866,6 +3574,7 @@ public class OccpEsxiHV implements OccpHV {
         usage.append("\n\t--folder <path> - The path of a folder used for OCCP VMs");
         usage.append("\n\t--host <host> [required] - The name of the host to use");
         usage.append("\n\t--password <password> [optional] The password used to authenticate with the VMware API, blank passwords are specified as \"\"");
+        usage.append("\n\t--sessions <count> - API sessions used at once, defaults to one per job");
         usage.append("\n\t--publicnet <name of network> [requried] The name of a network that can access the internet");
         usage.append("\n\t--url <URL> [requried] The URL to connect to VMware API");
         usage.append("\n\t--username <username> [required] The username used to authenticate with the VMware API");
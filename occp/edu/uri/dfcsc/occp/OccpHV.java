@@ -1,7 +1,12 @@
 package edu.uri.dfcsc.occp;
 
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
+import java.util.Set;
 
 import edu.uri.dfcsc.occp.exceptions.OccpException;
 import edu.uri.dfcsc.occp.exceptions.vm.HVOperationFailedException;
@@ -29,6 +34,133 @@ public interface OccpHV {
         String getName();
     }
 
+    /**
+     * What is known about a VM from a single look at the hypervisor, see describeVMs
+     */
+    public static final class VMInfo {
+        private final OccpVM vm;
+        private final Set<String> snapshots;
+        private final List<String> macs;
+
+        /**
+         * @param vm - Handle to the VM, usable as if retrieved by getVM()
+         * @param snapshots - Names of the VM's snapshots, in lower case
+         * @param macs - MAC addresses of the network adapters, in the order used by getVMMac()
+         */
+        public VMInfo(OccpVM vm, Set<String> snapshots, List<String> macs) {
+            this.vm = vm;
+            this.snapshots = Collections.unmodifiableSet(snapshots);
+            this.macs = Collections.unmodifiableList(macs);
+        }
+
+        /**
+         * @return Handle to the VM
+         */
+        public OccpVM getVM() {
+            return vm;
+        }
+
+        /**
+         * @param snapshotName - name of the snapshot
+         * @return True if the VM had a snapshot with this name
+         */
+        public boolean hasSnapshot(String snapshotName) {
+            return snapshots.contains(snapshotName.toLowerCase(Locale.ENGLISH));
+        }
+
+        /**
+         * @param snapshotName - name of the snapshot
+         * @return What is known about the VM once the snapshot is deleted
+         */
+        public VMInfo withoutSnapshot(String snapshotName) {
+            Set<String> remaining = new HashSet<>(snapshots);
+            remaining.remove(snapshotName.toLowerCase(Locale.ENGLISH));
+            return new VMInfo(vm, remaining, macs);
+        }
+
+        /**
+         * @return MAC addresses of the network adapters, in the order used by getVMMac()
+         */
+        public List<String> getMacs() {
+            return macs;
+        }
+    }
+
+    /**
+     * Changes to make to a VM together, see reconfigureVM. Anything not set is left as it is.
+     */
+    public static final class VMConfig {
+        private List<String> networks;
+        private int ram;
+        private String floppy;
+        private boolean bootCD;
+
+        /**
+         * @param networks - Names of the networks, as for assignVMNetworks()
+         * @return This
+         */
+        public VMConfig networks(List<String> networks) {
+            this.networks = networks;
+            return this;
+        }
+
+        /**
+         * @param ram - MB of RAM, as for assignVMRam(), 0 to leave it alone
+         * @return This
+         */
+        public VMConfig ram(int ram) {
+            this.ram = ram;
+            return this;
+        }
+
+        /**
+         * @param filename - Floppy image, as for attachFloppy()
+         * @return This
+         */
+        public VMConfig floppy(String filename) {
+            this.floppy = filename;
+            return this;
+        }
+
+        /**
+         * Boot off the CD, as for setBootCD()
+         * 
+         * @return This
+         */
+        public VMConfig bootCD() {
+            this.bootCD = true;
+            return this;
+        }
+
+        /**
+         * @return Names of the networks, or null to leave them alone
+         */
+        public List<String> getNetworks() {
+            return networks;
+        }
+
+        /**
+         * @return MB of RAM, or 0 to leave it alone
+         */
+        public int getRam() {
+            return ram;
+        }
+
+        /**
+         * @return Floppy image to attach, or null for none
+         */
+        public String getFloppy() {
+            return floppy;
+        }
+
+        /**
+         * @return True if the VM should boot off the CD
+         */
+        public boolean isBootCD() {
+            return bootCD;
+        }
+    }
+
     /**
      * Parse the CLI args for HV specific parameters
      * * Each hypervisor might have a different set of parameters, so we try to be general
@@ -62,6 +194,16 @@ public interface OccpHV {
      */
     public boolean hasSnapshot(OccpVM vm, String snapshotName) throws OccpException;
 
+    /**
+     * Describe many scenario VMs at once: whether each exists, its snapshots and MAC addresses. This
+     * takes a single pass over the hypervisor, rather than several round trips for each VM.
+     * 
+     * @param vmNames - names of the VMs to describe
+     * @return The description of each VM that exists, by name. VMs that don't exist are absent.
+     * @throws HVOperationFailedException
+     */
+    public Map<String, VMInfo> describeVMs(Collection<String> vmNames) throws HVOperationFailedException;
+
     /**
      * Create a snapshot with a given name
      * 
@@ -180,6 +322,17 @@ public interface OccpHV {
      */
     public void createNetwork(String netName) throws OccpException;
 
+    /**
+     * Make sure many networks exist at once, creating or fixing up those that don't. This reads the hypervisor's
+     * networks once and makes every change in one step, rather than several round trips for each network.
+     * 
+     * @param netNames - Names of the networks
+     * @param create - False to only find the missing networks, without changing anything
+     * @return The networks that were missing (and, if create was set, have now been created)
+     * @throws OccpException
+     */
+    public Set<String> ensureNetworks(Collection<String> netNames, boolean create) throws OccpException;
+
     /**
      * Check if a VM is connected to a given network
      * 
@@ -217,6 +370,16 @@ public interface OccpHV {
      */
     public void setBootCD(OccpVM vm) throws OccpException;
 
+    /**
+     * Make several changes to a VM at once: the same as assignVMNetworks(), assignVMRam(), attachFloppy() and
+     * setBootCD() for whatever the config sets, but in a single reconfiguration of the VM rather than one each.
+     * 
+     * @param vm - as retrieved by getVM()
+     * @param config - Changes to make
+     * @throws OccpException
+     */
+    public void reconfigureVM(OccpVM vm, VMConfig config) throws OccpException;
+
     /**
      * Add the connection parameters to the default connection info file
      * 
@@ -3,6 +3,10 @@ package edu.uri.dfcsc.occp;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Map.Entry;
@@ -22,6 +26,9 @@ import javax.xml.transform.stream.StreamResult;
 import org.w3c.dom.*;
 import org.xml.sax.SAXException;
 
+import edu.uri.dfcsc.occp.OccpHV.OccpVM;
+import edu.uri.dfcsc.occp.utils.Trace;
+
 /**
  * Creates a Hypervisor given command line arguments or vmname
  * Hypervisor configurations can be stored in hypervisors.xml
@@ -214,6 +221,8 @@ public class OccpHVFactory {
             hv = new OccpEsxiHV(name, profile);
         } else if (type.equalsIgnoreCase("vbox")) {
             hv = new OccpVBoxHV(name, profile);
+        } else if (type.equalsIgnoreCase("sim")) {
+            hv = new OccpSimHV(name, profile);
         } else {
             logger.severe("Hypervisor type not supported");
             return null;
@@ -221,9 +230,74 @@ public class OccpHVFactory {
         if (!hv.parseArgs(args)) {
             return null;
         }
+        if (Trace.isEnabled()) {
+            return (OccpHV) Proxy.newProxyInstance(OccpHV.class.getClassLoader(), new Class<?>[] { OccpHV.class },
+                    new TracedHV(hv));
+        }
         return hv;
     }
 
+    /**
+     * @param hv - A hypervisor from this factory
+     * @return The implementation behind it, for the few places that depend on which one it is
+     */
+    public static OccpHV unwrap(OccpHV hv) {
+        if (Proxy.isProxyClass(hv.getClass()) && Proxy.getInvocationHandler(hv) instanceof TracedHV) {
+            return ((TracedHV) Proxy.getInvocationHandler(hv)).hv;
+        }
+        return hv;
+    }
+
+    /**
+     * Records a trace span for each call to a hypervisor, other than the simple getters
+     */
+    private static final class TracedHV implements InvocationHandler {
+        final OccpHV hv;
+
+        TracedHV(OccpHV hv) {
+            this.hv = hv;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            if (method.getDeclaringClass() == Object.class) {
+                switch (method.getName()) {
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                default:
+                    return method.invoke(hv, args);
+                }
+            }
+            Trace.Span span;
+            if (args == null && (method.getName().startsWith("get") || method.getName().startsWith("is"))) {
+                span = null;
+            } else {
+                span = Trace.begin("hv", method.getName()).arg("hv", hv.getName());
+                for (int i = 0; args != null && i < args.length; ++i) {
+                    if (args[i] instanceof OccpVM) {
+                        span.arg("vm", ((OccpVM) args[i]).getName());
+                    } else if (args[i] instanceof String || args[i] instanceof Number) {
+                        span.arg("arg" + i, args[i]);
+                    }
+                }
+            }
+            try {
+                return method.invoke(hv, args);
+            } catch (InvocationTargetException e) {
+                if (span != null) {
+                    span.arg("error", e.getCause().getClass().getSimpleName());
+                }
+                throw e.getCause();
+            } finally {
+                if (span != null) {
+                    span.end();
+                }
+            }
+        }
+    }
+
     /**
      * Remove the named entry from the cache file
      * 
@@ -1,6 +1,10 @@
 package edu.uri.dfcsc.occp;
 
 import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 import java.util.*;
 import java.util.Map.Entry;
 import java.util.logging.Level;
@@ -8,20 +12,14 @@ import java.util.logging.Logger;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
-import javax.xml.XMLConstants;
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
-import javax.xml.parsers.ParserConfigurationException;
-import javax.xml.transform.Transformer;
-import javax.xml.transform.TransformerException;
-import javax.xml.transform.TransformerFactory;
-import javax.xml.transform.TransformerFactoryConfigurationError;
-import javax.xml.transform.dom.DOMSource;
-import javax.xml.transform.stream.StreamResult;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.stream.XMLStreamWriter;
 
 import org.apache.commons.lang.StringUtils;
-import org.w3c.dom.*;
-import org.xml.sax.SAXException;
 
 import edu.uri.dfcsc.occp.exceptions.parsing.MismatchedExpectedType;
 import edu.uri.dfcsc.occp.exceptions.parsing.MissingRequired;
@@ -78,13 +76,29 @@ public class OccpParser {
      */
     public List<OccpDNSEntry> dns;
 
-    private NamedNodeMap nnm; // cache
 
     private Map<String, String> reports = null;
     boolean routerNeeded = false;
 
     private OccpVariables occpVariables = null;
 
+    // Variables should start with "${occp:" and enclose the variable name with "}"
+    // ${occp:foo} or ${occp:bar}
+    // When variables are Arrays:
+    // ${occp:foo[]} for the entire array -> ['element0', 'element1', ..., 'elementN']
+    // ${occp:bar[X] to select the Xth element of the array
+    // If ${occp:foo} is used and foo is an array it is considered an error
+    private static final String VARIABLE_PREFIX = "${occp:";
+    private static final Pattern VARIABLE_PATTERN = Pattern
+            .compile("\\$\\{occp:([a-zA-Z]+\\w*)(\\[(\\d*)\\])?\\}");
+    private static final String LOOKUP_FAILED = "OCCP_VARIABLE_LOOKUP_FAILED";
+    // The same attribute values and text are rendered many times, only split them up once
+    private final Map<String, Template> templates = new HashMap<>();
+
+    // Generators run concurrently, these have been started but their variables are not yet merged
+    private final List<Generator.Pending> pendingGenerations = new ArrayList<>();
+    private boolean generationFailed = false;
+
     // Getters
     /**
      * Get a list of the OccpHost objects.
@@ -131,45 +145,97 @@ public class OccpParser {
                 }
             }
 
+            // An instance parses the same way every time, so the model from last time can be used as is
+            Path cacheFile = null;
+            byte[] cacheKey = null;
+            if (usingInstance) {
+                cacheFile = ScenarioCache.getPath(instanceFileName);
+                cacheKey = ScenarioCache.key(instanceXMLFile.toPath());
+                if (useCache(ScenarioCache.load(cacheFile, cacheKey), instanceXMLFile.toPath())) {
+                    logger.info("Using the cached scenario configuration");
+                    return true;
+                }
+            }
+
             // Must use TreeMap to ensure clone ordering
             hosts = new TreeMap<String, OccpHost>();
             networks = new HashMap<String, OccpNetwork>();
             occpVariables = new OccpVariables();
-
-            DocumentBuilderFactory dBF = DocumentBuilderFactory.newInstance();
-            DocumentBuilder docBuilder = dBF.newDocumentBuilder();
-            Document doc = docBuilder.parse(configFile);
+            pendingGenerations.clear();
+            generationFailed = false;
 
             logger.info("Reading the scenario configuration file");
 
-            // Variable Tags
-            NodeList variableTags = doc.getElementsByTagName("var");
-            for (int i = 0; i < variableTags.getLength(); i++) {
-                // For each tag, attempt to parse it
-                if (!parseVariable(variableTags.item(i))) {
-                    // Something did not go well
-                    parseErrorEncountered = true;
+            // Variables are dealt with as they stream by, in document order like before, and the rest is kept
+            // (without the top level variables) for after they are known
+            ScenarioNode scenario = null;
+            final boolean[] variableErrors = { false };
+            XMLInputFactory inputFactory = XMLInputFactory.newInstance();
+            inputFactory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, false);
+            inputFactory.setProperty(XMLInputFactory.IS_COALESCING, false);
+            inputFactory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+            try (InputStream in = new BufferedInputStream(new FileInputStream(configFile))) {
+                XMLStreamReader reader = inputFactory.createXMLStreamReader(in);
+                try {
+                    while (reader.hasNext()) {
+                        if (reader.next() == XMLStreamConstants.START_ELEMENT) {
+                            scenario = ScenarioNode.read(reader, new ScenarioNode.ChildFilter() {
+                                @Override
+                                public boolean keep(ScenarioNode child) {
+                                    if (child.getName().equals("var")) {
+                                        if (!parseVariable(child)) {
+                                            // Something did not go well
+                                            variableErrors[0] = true;
+                                        }
+                                        // Remove the variables so we don't regenerate them next time
+                                        return false;
+                                    }
+                                    // Variables within this child come before the next one in the file
+                                    for (ScenarioNode variableTag : findElements(child, "var")) {
+                                        if (!parseVariable(variableTag)) {
+                                            variableErrors[0] = true;
+                                        }
+                                    }
+                                    return true;
+                                }
+                            });
+                            break;
+                        }
+                    }
+                } finally {
+                    reader.close();
                 }
             }
+            if (variableErrors[0]) {
+                parseErrorEncountered = true;
+            }
+            if (scenario == null) {
+                throw new XMLStreamException("No elements in " + configFile);
+            }
+
+            // Every variable is known once the generators finish
+            finishGenerations();
+            if (generationFailed) {
+                parseErrorEncountered = true;
+            }
 
             // Report Tags
-            NodeList reportTags = doc.getElementsByTagName("report");
-            for (int i = 0; i < reportTags.getLength(); i++) {
+            for (ScenarioNode reportTag : findElements(scenario, "report")) {
                 // For each tag, attempt to parse it
-                if (!parseReport(reportTags.item(i))) {
+                if (!parseReport(reportTag)) {
                     // Something did not go well
                     parseErrorEncountered = true;
                 }
             }
 
             // Host Tags
-            NodeList hostTags = doc.getElementsByTagName("host");
-            if (hostTags.getLength() == 0) {
+            List<ScenarioNode> hostTags = findElements(scenario, "host");
+            if (hostTags.isEmpty()) {
                 parseErrorEncountered = true;
                 logger.severe("At least one host must be defined");
             }
-            for (int index = 0; index < hostTags.getLength(); ++index) {
-                if (!parseHost(hostTags.item(index), index)) {
+            for (int index = 0; index < hostTags.size(); ++index) {
+                if (!parseHost(hostTags.get(index), index)) {
                     parseErrorEncountered = true;
                 }
             }
@@ -202,21 +268,19 @@ public class OccpParser {
             }
 
             // Network tags
-            NodeList networkTags = doc.getElementsByTagName("network");
-            for (int index = 0; index < networkTags.getLength(); ++index) {
-                if (!parseNetwork(networkTags.item(index), index)) {
+            List<ScenarioNode> networkTags = findElements(scenario, "network");
+            for (int index = 0; index < networkTags.size(); ++index) {
+                if (!parseNetwork(networkTags.get(index), index)) {
                     parseErrorEncountered = true;
                 }
             }
 
             // DNS tags
-            NodeList rootdns = doc.getElementsByTagName("rootdns");
+            List<ScenarioNode> rootdns = findElements(scenario, "rootdns");
             this.dns = new ArrayList<OccpDNSEntry>();
-            if (rootdns.getLength() == 1) {
-                NodeList dnsEntries = (rootdns.item(0)).getChildNodes();
-                for (int index = 0; index < dnsEntries.getLength(); ++index) {
-                    Node entry = dnsEntries.item(index);
-                    if (entry.getNodeName().equals("entry")) {
+            if (rootdns.size() == 1) {
+                for (ScenarioNode entry : rootdns.get(0).getChildren()) {
+                    if (entry.getName().equals("entry")) {
                         OccpDNSEntry item = new OccpDNSEntry(safeGetStringAttribute(entry, "name"),
                                 safeGetIntegerAttribute(entry, "ttl", 1440), safeGetStringAttribute(entry, "class",
                                         "IN"), safeGetStringAttribute(entry, "rrtype"), safeGetStringAttribute(entry,
@@ -228,64 +292,19 @@ public class OccpParser {
             if (this.occpVariables.aLookupFailed()) {
                 parseErrorEncountered = true;
             }
-            // Get the top level tag
-            NodeList scenarioTags = doc.getElementsByTagName("occpchallenge");
-            if (scenarioTags.getLength() != 1) {
+            // Check the top level tag
+            if (!scenario.getName().equals("occpchallenge")) {
                 logger.severe("No scenario definition");
                 parseErrorEncountered = true;
             } else if (!parseErrorEncountered) {
-                Node scenario = scenarioTags.item(0);
-                NodeList secondLevel = scenario.getChildNodes();
-                // Remove the variables so we don't regenerate them next time
-                for (int nodeNumber = 0; nodeNumber < secondLevel.getLength(); ++nodeNumber) {
-                    Node candidate = secondLevel.item(nodeNumber);
-                    if (candidate.getNodeName().equals("var")) {
-                        scenario.removeChild(candidate);
-                    }
-                }
-                StringWriter writer = new StringWriter();
-                Transformer transformer;
-                try {
-                    TransformerFactory factory = TransformerFactory.newInstance();
-                    factory.setFeature(XMLConstants.FEATURE_SECURE_PROCESSING, true);
-                    factory.setAttribute(XMLConstants.ACCESS_EXTERNAL_DTD, "");
-                    // factory.setAttribute(XMLConstants.ACCESS_EXTERNAL_SCHEMA, "");
-                    factory.setAttribute(XMLConstants.ACCESS_EXTERNAL_STYLESHEET, "");
-                    transformer = factory.newTransformer();
-                    scenario.normalize();
-                    transformer.transform(new DOMSource(scenario), new StreamResult(writer));
-                } catch (TransformerFactoryConfigurationError | TransformerException e) {
-                    logger.log(Level.SEVERE, "Unable to generate scenario XML for gameserver", e);
-                }
-                String instanceXML = getValue(writer.toString());
-                if (this.occpVariables.aLookupFailed()) {
+                if (!writeInstance(scenario, instanceXMLFile.toPath(), !usingInstance)) {
                     parseErrorEncountered = true;
-                } else {
-                    try {
-                        if (hosts.get(GAMESERVER_NAME) != null) {
-                            // Write two copies, one for the game server, and one for us
-                            File gameserverXMLFile = new File(OccpAdmin.scenarioBaseDir.resolve(
-                                    "ContentPacks/gameserver/files/instance.xml").toString());
-                            PrintStream gameXML = new PrintStream(new FileOutputStream(gameserverXMLFile));
-                            gameXML.print(instanceXML);
-                            gameXML.close();
-                        } else {
-                            logger.warning("Your configuration does not specify the configuration of the \""
-                                    + GAMESERVER_NAME + "\" VM");
-                        }
-                        if (!usingInstance) {
-                            PrintStream instanceXMLStream = new PrintStream(new FileOutputStream(instanceXMLFile));
-                            instanceXMLStream.print(instanceXML);
-                            instanceXMLStream.close();
-                        }
-                    } catch (IOException e) {
-                        logger.log(Level.SEVERE, "Error writing gameserver configuration file", e);
-                        parseErrorEncountered = true;
-                    }
+                } else if (usingInstance) {
+                    new ScenarioCache(hosts, networks, dns, reports, routerNeeded).save(cacheFile, cacheKey);
                 }
             }
 
-        } catch (SAXException | IOException | ParserConfigurationException | MissingRequired | MismatchedExpectedType e) {
+        } catch (XMLStreamException | IOException | MissingRequired | MismatchedExpectedType e) {
             parseErrorEncountered = true;
             logger.log(Level.SEVERE, "Error parsing the configuration file", e);
         }
@@ -293,6 +312,106 @@ public class OccpParser {
         return !parseErrorEncountered;
     }
 
+    /**
+     * Take the model from the scenario cache, provided the game server's copy of the instance is still in place
+     * 
+     * @param cached - Model loaded from the cache, may be null
+     * @param instanceXMLFile - The instance file the model came from
+     * @return True if the model was taken, false if the scenario must be parsed
+     */
+    private boolean useCache(ScenarioCache cached, Path instanceXMLFile) {
+        if (cached == null) {
+            return false;
+        }
+        if (cached.hosts.get(GAMESERVER_NAME) != null) {
+            Path gameserverXMLFile = OccpAdmin.scenarioBaseDir.resolve("ContentPacks/gameserver/files/instance.xml");
+            if (!Files.exists(gameserverXMLFile)) {
+                // The parse writes this copy, so let it
+                return false;
+            }
+        }
+        hosts = cached.hosts;
+        networks = cached.networks;
+        dns = cached.dns;
+        reports = cached.reports;
+        routerNeeded = cached.routerNeeded;
+        occpVariables = new OccpVariables();
+        return true;
+    }
+
+    /**
+     * @param scenario - Element to search within
+     * @param elementName - Name to look for
+     * @return Every element with the name, at any depth, in document order
+     */
+    private static List<ScenarioNode> findElements(ScenarioNode scenario, String elementName) {
+        List<ScenarioNode> found = new ArrayList<>();
+        scenario.findElements(elementName, found);
+        return found;
+    }
+
+    /**
+     * Write the scenario, with every variable replaced by its value, for the game server and (if asked) as the
+     * instance file that later runs read instead of the scenario. Nothing is written if a variable can't be found.
+     * 
+     * @param scenario - The scenario element, without its variables
+     * @param instanceXMLFile - Where the instance file belongs
+     * @param writeInstanceFile - Whether to write the instance file
+     * @return True if written, false on any problem
+     */
+    private boolean writeInstance(ScenarioNode scenario, Path instanceXMLFile, boolean writeInstanceFile) {
+        Path gameserverXMLFile = OccpAdmin.scenarioBaseDir
+                .resolve("ContentPacks/gameserver/files/instance.xml");
+        boolean hasGameserver = hosts.get(GAMESERVER_NAME) != null;
+        if (!hasGameserver) {
+            logger.warning("Your configuration does not specify the configuration of the \"" + GAMESERVER_NAME
+                    + "\" VM");
+            if (!writeInstanceFile) {
+                return true;
+            }
+        }
+        Path temp = null;
+        try {
+            // Streamed out to a temporary file, so a failed lookup or a crash never leaves a partial instance
+            temp = Files.createTempFile(instanceXMLFile.getParent(), ".instance", ".xml");
+            try (Writer out = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+                XMLStreamWriter writer = XMLOutputFactory.newInstance().createXMLStreamWriter(out);
+                writer.writeStartDocument("UTF-8", "1.0");
+                scenario.write(writer, new ScenarioNode.ValueRenderer() {
+                    @Override
+                    public String render(String value) {
+                        return getValue(value);
+                    }
+                });
+                writer.writeEndDocument();
+                writer.close();
+            }
+            if (this.occpVariables.aLookupFailed()) {
+                return false;
+            }
+            if (hasGameserver) {
+                // Two copies, one for the game server, and one for us
+                Files.copy(temp, gameserverXMLFile, StandardCopyOption.REPLACE_EXISTING);
+            }
+            if (writeInstanceFile) {
+                Files.move(temp, instanceXMLFile, StandardCopyOption.REPLACE_EXISTING);
+                temp = null;
+            }
+            return true;
+        } catch (IOException | XMLStreamException e) {
+            logger.log(Level.SEVERE, "Error writing gameserver configuration file", e);
+            return false;
+        } finally {
+            if (temp != null) {
+                try {
+                    Files.deleteIfExists(temp);
+                } catch (IOException e) {
+                    logger.log(Level.FINE, "Unable to remove " + temp, e);
+                }
+            }
+        }
+    }
+
     /**
      * Return the list of reports
      * 
@@ -302,16 +421,16 @@ public class OccpParser {
         return (HashMap<String, String>) this.reports;
     }
 
-    private boolean parseReport(Node reportNode) {
+    private boolean parseReport(ScenarioNode reportNode) {
         boolean parseErrorEncountered = false;
 
-        NodeList children = reportNode.getChildNodes();
+        List<ScenarioNode> children = reportNode.getChildren();
 
         try {
             String reportName = safeGetStringAttribute(reportNode, "name");
             if (!reports.containsKey(reportName)) {
-                if (children.getLength() == 1) {
-                    reports.put(reportName, getValue(children.item(0).getNodeValue()));
+                if (children.size() == 1) {
+                    reports.put(reportName, getValue(children.get(0).getText()));
                 } else {
                     logger.warning("A report tag expects data");
                 }
@@ -330,10 +449,10 @@ public class OccpParser {
     /**
      * Parse an OCCP variable tag. See the wiki for full documentation of their usage and structure
      * 
-     * @param variableNode - DOM Node for a variable
+     * @param variableNode - Element for a variable
      * @return True if no parse errors encountered, false otherwise
      */
-    private boolean parseVariable(Node variableNode) {
+    private boolean parseVariable(ScenarioNode variableNode) {
         boolean parseErrorEncountered = false;
         String variableName = null, value = null;
 
@@ -348,8 +467,8 @@ public class OccpParser {
             String variableType = safeGetStringAttribute(variableNode, "type", "data");
 
             // Caches to be used later
-            NodeList children = variableNode.getChildNodes();
-            Node childOfInterest = null;
+            List<ScenarioNode> children = variableNode.getChildren();
+            ScenarioNode childOfInterest = null;
 
             // Decide if this is a normal variable or a generator
             if (generatorName != "") {
@@ -360,25 +479,24 @@ public class OccpParser {
                 try {
                     Generator generator = generatorFactory.getGenerator(generatorName);
                     HashMap<String, String> parameters = new HashMap<>();
-                    Node child = null;
+                    ScenarioNode child = null;
                     // Collect any and all param tags for this
-                    for (int i = 0; i < children.getLength(); i++) {
+                    for (int i = 0; i < children.size(); i++) {
                         // Look at each child tag and determine if param tag
-                        child = children.item(i);
-                        if (child.getNodeName().equals("param")) {
+                        child = children.get(i);
+                        if (child.getName().equals("param")) {
                             // Because it is a param tag it must have a name and a value
                             try {
                                 String paramName = safeGetStringAttribute(child, "name");
                                 String paramValue = null;
 
                                 // Our value should be in the first child
-                                childOfInterest = child.getChildNodes().item(0);
+                                childOfInterest = child.getChildren().isEmpty() ? null : child.getChildren().get(0);
                                 // Ensure the type of the child is what we expect
-                                if (childOfInterest.getNodeType() == Node.CDATA_SECTION_NODE
-                                        || childOfInterest.getNodeType() == Node.TEXT_NODE) {
+                                if (childOfInterest != null && childOfInterest.isText()) {
                                     // Expected child type found, extract value
                                     // Call getValue to allow variables to reference other variables
-                                    paramValue = getValue(childOfInterest.getNodeValue());
+                                    paramValue = getValue(childOfInterest.getText());
                                 } else {
                                     // Unexpected child type
                                     parseErrorEncountered = true;
@@ -396,18 +514,8 @@ public class OccpParser {
                         }
                     }
                     if (!parseErrorEncountered) {
-                        // Generate our variables
-                        OccpVariables generatedVariables;
-                        try {
-                            generatedVariables = generator.generate(variableName, parameters);
-                            // Attempt to merge the generated variables to our current variables
-                            if (!this.occpVariables.mergeVariables(generatedVariables)) {
-                                parseErrorEncountered = true;
-                            }
-                        } catch (InvalidGeneratorParameterException e) {
-                            parseErrorEncountered = true;
-                            logger.log(Level.SEVERE, "Failed to generate requested variable " + variableName, e);
-                        }
+                        // Generate our variables alongside any others, they are merged by finishGenerations
+                        pendingGenerations.add(generator.submit(variableName, parameters));
                     }
                 } catch (UnknownGeneratorException e) {
                     parseErrorEncountered = true;
@@ -418,18 +526,17 @@ public class OccpParser {
                 if (variableType.equalsIgnoreCase("data")) {
                     // This is a normal variable so there should be exactly one child and it should be data.
                     // Specifically the value of the variable.
-                    if (children.getLength() == 1) {
-                        childOfInterest = children.item(0);
-                        if (childOfInterest.getNodeType() == Node.CDATA_SECTION_NODE
-                                || childOfInterest.getNodeType() == Node.TEXT_NODE) {
+                    if (children.size() == 1) {
+                        childOfInterest = children.get(0);
+                        if (childOfInterest.isText()) {
                             // Expected child type found, extract value
-                            value = getValue(childOfInterest.getNodeValue());
+                            value = getValue(childOfInterest.getText());
                         } else {
                             parseErrorEncountered = true;
                             logger.severe("Variable tag with \"" + variableName
                                     + "\" was specified with unexpected value type. Expecting value or CDATA.");
                         }
-                    } else if (children.getLength() > 1) {
+                    } else if (children.size() > 1) {
                         parseErrorEncountered = true;
                         logger.severe("Variable tag with \"" + variableName
                                 + "\" was specified with too many child tags. Expecting value or CDATA.");
@@ -446,20 +553,19 @@ public class OccpParser {
                     }
                 } else if (variableType.equalsIgnoreCase("array")) {
                     // Check for elements
-                    Node child = null;
+                    ScenarioNode child = null;
                     ArrayList<String> arrayElements = new ArrayList<>();
-                    for (int i = 0; i < children.getLength(); i++) {
+                    for (int i = 0; i < children.size(); i++) {
                         // Look at each child tag and determine if element tag
-                        child = children.item(i);
-                        if (child.getNodeName().equals("element")) {
+                        child = children.get(i);
+                        if (child.getName().equals("element")) {
                             // Our value should be in the first child
-                            childOfInterest = child.getChildNodes().item(0);
+                            childOfInterest = child.getChildren().isEmpty() ? null : child.getChildren().get(0);
                             // Ensure the type of the child is what we expect
-                            if (childOfInterest.getNodeType() == Node.CDATA_SECTION_NODE
-                                    || childOfInterest.getNodeType() == Node.TEXT_NODE) {
+                            if (childOfInterest != null && childOfInterest.isText()) {
                                 // Expected child type found, extract value. Call getValue to allow variables to
                                 // reference other variables
-                                arrayElements.add(getValue(childOfInterest.getNodeValue()));
+                                arrayElements.add(getValue(childOfInterest.getText()));
                             } else {
                                 // Unexpected child type
                                 parseErrorEncountered = true;
@@ -490,11 +596,11 @@ public class OccpParser {
      * label if it isn't specified or it meant to be a duplicate, but we need to
      * differentiate.
      * 
-     * @param network - DOM Node for a network
+     * @param network - Element for a network
      * @param index - unique number (small) for this network
      * @return True if no errors encountered, false otherwise
      */
-    private boolean parseNetwork(Node network, int index) {
+    private boolean parseNetwork(ScenarioNode network, int index) {
         boolean parseErrorEncountered = false;
         OccpNetwork net = new OccpNetwork();
         try {
@@ -522,7 +628,7 @@ public class OccpParser {
      * @param node the pack element
      * @return True if parsed with no errors, false otherwise
      */
-    private boolean parsePack(OccpHost host, Node node) {
+    private boolean parsePack(OccpHost host, ScenarioNode node) {
         boolean parseErrorEncountered = false;
 
         ContentPackInfo contentPack;
@@ -547,28 +653,27 @@ public class OccpParser {
         contentPack = new ContentPackInfo(packName, className);
 
         // Look for parameters add add them
-        NodeList packChildren = node.getChildNodes();
-
-        Node currentChild = null;
-        for (int i = 0; i < packChildren.getLength(); i++) {
-            currentChild = packChildren.item(i);
-
-            if (currentChild.getNodeType() == Node.ELEMENT_NODE) {
-                String paramName = getValue(currentChild.getNodeName());
-                NodeList paramChildren = currentChild.getChildNodes();
-                if (paramChildren.getLength() == 1) {
-                    Node paramChild = paramChildren.item(0);
-                    if (paramChild.getNodeType() == Node.CDATA_SECTION_NODE
-                            || paramChild.getNodeType() == Node.TEXT_NODE) {
+        List<ScenarioNode> packChildren = node.getChildren();
+
+        ScenarioNode currentChild = null;
+        for (int i = 0; i < packChildren.size(); i++) {
+            currentChild = packChildren.get(i);
+
+            if (currentChild.isElement()) {
+                String paramName = getValue(currentChild.getName());
+                List<ScenarioNode> paramChildren = currentChild.getChildren();
+                if (paramChildren.size() == 1) {
+                    ScenarioNode paramChild = paramChildren.get(0);
+                    if (paramChild.isText()) {
                         // Expected child type found, extract value
-                        String paramValue = getValue(paramChild.getNodeValue());
+                        String paramValue = getValue(paramChild.getText());
                         contentPack.addCustomParameter(paramName, paramValue);
                     } else {
                         parseErrorEncountered = true;
                         logger.severe("Unexpected value for pack parameter \"" + paramName + "\" for content pack \""
                                 + packName + "\" on host " + host.getLabel());
                     }
-                } else if (paramChildren.getLength() > 1) {
+                } else if (paramChildren.size() > 1) {
                     parseErrorEncountered = true;
                     logger.severe("Unexpected tags for pack parameter \"" + paramName + "\" for content pack \""
                             + packName + "\" on host " + host.getLabel());
@@ -592,18 +697,18 @@ public class OccpParser {
      * @param node the content element
      * @return True if parsed with no errors, false otherwise
      */
-    private boolean parseContent(OccpHost host, Node node) {
+    private boolean parseContent(OccpHost host, ScenarioNode node) {
         boolean parseErrorEncountered = false;
 
         // Additional data for this host
-        NodeList children = node.getChildNodes();
+        List<ScenarioNode> children = node.getChildren();
 
         // Look through each child
-        for (int i = 0; i < children.getLength(); i++) {
-            Node child = children.item(i);
+        for (int i = 0; i < children.size(); i++) {
+            ScenarioNode child = children.get(i);
 
             // Determine if pack
-            if (child.getNodeName().equalsIgnoreCase("pack")) {
+            if (child.getName().equalsIgnoreCase("pack")) {
                 if (!this.parsePack(host, child)) {
                     parseErrorEncountered = true;
                 }
@@ -618,10 +723,10 @@ public class OccpParser {
      * Parse an OCCP/host/ip tag
      * 
      * @param curHost - Host entry we are parsing
-     * @param node - DOM node of &lt;ip&gt;
+     * @param node - Element for &lt;ip&gt;
      * @return True if parsed with no errors, false otherwise
      */
-    private boolean parseInterface(OccpHost curHost, Node node) {
+    private boolean parseInterface(OccpHost curHost, ScenarioNode node) {
         boolean parseErrorEncountered = false;
         String name = null, network = null, temp = null, ipv4Address = null, ipv4Netmask = null;
         // TODO message names
@@ -704,12 +809,12 @@ public class OccpParser {
                 }
             }
 
-            NodeList children = node.getChildNodes();
+            List<ScenarioNode> children = node.getChildren();
 
             // Look through each child
-            for (int i = 0; i < children.getLength(); i++) {
-                Node child = children.item(i);
-                if (child.getNodeName().equalsIgnoreCase("route")) {
+            for (int i = 0; i < children.size(); i++) {
+                ScenarioNode child = children.get(i);
+                if (child.getName().equalsIgnoreCase("route")) {
                     String subnet = safeGetStringAttribute(child, "subnet");
                     occpInterface.addRoute(subnet);
                 }
@@ -732,11 +837,11 @@ public class OccpParser {
      * generate a generic label if it isn't specified or it meant to be a
      * duplicate, but we need to differentiate.
      * 
-     * @param node - DOM Node for a Host
+     * @param node - Element for a Host
      * @param index - unique number (small) for this host
      * @return True if parsed with no errors, false otherwise
      */
-    private boolean parseHost(Node node, int index) {
+    private boolean parseHost(ScenarioNode node, int index) {
         boolean parseErrorEncountered = false;
         String label = null, baseVM, ovaName, domain, hostname, isoName;
         int clones, phase = -1, ram;
@@ -791,20 +896,20 @@ public class OccpParser {
             host.setRam(ram);
 
             // Additional data for this host
-            NodeList children = node.getChildNodes();
+            List<ScenarioNode> children = node.getChildren();
 
             // Look through each child
-            for (int i = 0; i < children.getLength(); i++) {
-                Node child = children.item(i);
+            for (int i = 0; i < children.size(); i++) {
+                ScenarioNode child = children.get(i);
 
                 // Determine if it is a tag we should parse
-                if (child.getNodeName().equalsIgnoreCase("interface")) {
+                if (child.getName().equalsIgnoreCase("interface")) {
                     // It is an interface tag, parse as such
                     if (!this.parseInterface(host, child)) {
                         parseErrorEncountered = true;
                     }
 
-                } else if (child.getNodeName().equalsIgnoreCase("content")) {
+                } else if (child.getName().equalsIgnoreCase("content")) {
                     // It is a content tag, parse as such
                     if (!this.parseContent(host, child)) {
                         parseErrorEncountered = true;
@@ -914,7 +1019,7 @@ public class OccpParser {
      *             boolean
      */
     @SuppressWarnings("unused")
-    private boolean safeGetBooleanAttribute(Node node, String attrname) throws XMLParseException {
+    private boolean safeGetBooleanAttribute(ScenarioNode node, String attrname) throws XMLParseException {
         String tempResult = safeGetStringAttribute(node, attrname);
         boolean result;
 
@@ -940,7 +1045,7 @@ public class OccpParser {
      * @throws MismatchedExpectedType if the found value is not a boolean
      * @throws MissingRequired
      */
-    private boolean safeGetBooleanAttribute(Node node, String attrname, boolean def)
+    private boolean safeGetBooleanAttribute(ScenarioNode node, String attrname, boolean def)
             throws MismatchedExpectedType, MissingRequired {
         String tempResult = safeGetStringAttribute(node, attrname, Boolean.toString(def));
         boolean result = def;
@@ -966,7 +1071,7 @@ public class OccpParser {
      * @throws XMLParseException if the required attribute is not found or is
      *             not an integer
      */
-    private int safeGetIntegerAttribute(Node node, String attrname) throws XMLParseException {
+    private int safeGetIntegerAttribute(ScenarioNode node, String attrname) throws XMLParseException {
         String tempResult = safeGetStringAttribute(node, attrname);
         int result = 0;
         try {
@@ -988,7 +1093,7 @@ public class OccpParser {
      * @throws MismatchedExpectedType If the encountered value is not an integer
      * @throws MissingRequired
      */
-    private int safeGetIntegerAttribute(Node node, String attrname, int def)
+    private int safeGetIntegerAttribute(ScenarioNode node, String attrname, int def)
             throws MismatchedExpectedType, MissingRequired {
         String tempResult = safeGetStringAttribute(node, attrname, "" + def);
         int result = def;
@@ -1009,23 +1114,16 @@ public class OccpParser {
      * @return String value of the attribute
      * @throws MissingRequired if the attribute is not found
      */
-    private String safeGetStringAttribute(Node node, String attrname) throws MissingRequired {
+    private String safeGetStringAttribute(ScenarioNode node, String attrname) throws MissingRequired {
         if (node == null) {
             throw new MissingRequired("\"" + attrname + "\" was required but not found");
         }
 
-        nnm = node.getAttributes();
-        if (nnm == null) {
-            throw new MissingRequired("\"" + attrname + "\" was required but not found");
-        }
-
-        Node attr = nnm.getNamedItem(attrname);
-
-        if (attr == null) {
+        String value = node.getAttribute(attrname);
+        if (value == null) {
             throw new MissingRequired("\"" + attrname + "\" was required but not found");
         }
 
-        String value = ((Attr) attr).getValue();
         // Handles OCCP variables
         value = getValue(value);
         if (value == null || value.isEmpty()) {
@@ -1045,24 +1143,17 @@ public class OccpParser {
      * @return The attribute's value if available or the given default
      * @throws MissingRequired
      */
-    private String safeGetStringAttribute(Node node, String attrname, String def) throws MissingRequired {
+    private String safeGetStringAttribute(ScenarioNode node, String attrname, String def) throws MissingRequired {
 
         if (node == null) {
             return def;
         }
 
-        nnm = node.getAttributes();
-        if (nnm == null) {
-            return def;
-        }
-
-        Node attr = nnm.getNamedItem(attrname);
-
-        if (attr == null) {
+        String value = node.getAttribute(attrname);
+        if (value == null) {
             return def;
         }
 
-        String value = ((Attr) attr).getValue();
         // Handles OCCP variables
         value = getValue(value);
 
@@ -1080,70 +1171,161 @@ public class OccpParser {
      * @param encountered the input to test
      * @return the input or the value if input was a variable
      */
-    private String getValue(String encountered) {
-        String result = encountered;
-
-        // Variables should start with "${occp:" and enclose the variable name with "}"
-        // ${occp:foo} or ${occp:bar}
-
-        // When variables are Arrays:
-        // ${occp:foo[]} for the entire array -> ['element0', 'element1', ..., 'elementN']
-        // ${occp:bar[X] to select the Xth element of the array
-        // If ${occp:foo} is used and foo is an array it is considered an error
-
-        // regex for occp variable matching
-        Pattern occpVariablePattern = Pattern.compile("\\$\\{occp:([a-zA-Z]+\\w*)(\\[(\\d*)\\])?\\}");
-        Matcher occpVariableMatcher = occpVariablePattern.matcher(encountered);
-
-        while (occpVariableMatcher.find()) {
-            // Extract the variable name
-            String variableName = occpVariableMatcher.group(1);
-
-            // Extract the element if available
-            String element = occpVariableMatcher.group(3);
-
-            // Storage for the lookup value
-            String value = null;
-
-            // Determine if array syntax is being used
-            if (occpVariableMatcher.group(2) != null) {
-                // Is an array but is a specific element being requested?
-                if (element != null && !element.equalsIgnoreCase("")) {
-                    // Yes, convert to integer and lookup specified value
-                    int index = Integer.parseInt(element);
-                    value = this.occpVariables.getVariableArray(variableName, index);
-                } else {
-                    // No, lookup all values
-                    value = this.occpVariables.getVariableArray(variableName);
-                }
-                if (value != null) {
-                    // Sanitize the lookup so regex will not choke on reserved characters
-                    value = Matcher.quoteReplacement(value);
-                    // Replace the variable with the value, then consider the new text with the replacement in case
-                    // there are more variables left.
-                    result = occpVariableMatcher.replaceFirst(value);
-                } else {
+    String getValue(String encountered) {
+        return render(encountered, new ArrayDeque<String>());
+    }
 
-                    result = occpVariableMatcher.replaceFirst("OCCP_VARIABLE_LOOKUP_FAILED");
-                }
-            } else {
-                // Just a normal variable, no array syntax used
-                value = this.occpVariables.getVariable(variableName);
-                if (value != null) {
-                    value = Matcher.quoteReplacement(value);
-                    result = occpVariableMatcher.replaceFirst(value);
+    /**
+     * Wait for the generators that have been started and merge their variables, in the order the variables were
+     * declared
+     */
+    private void finishGenerations() {
+        for (Generator.Pending generation : pendingGenerations) {
+            mergeGeneration(generation);
+        }
+        pendingGenerations.clear();
+    }
+
+    /**
+     * Wait for just the generator making a variable, if it is still running, and merge its variables. Generators
+     * name what they make after the declared variable, some with a suffix such as _plain.
+     * 
+     * @param variableName - Name of the variable about to be used
+     */
+    private void awaitGeneration(String variableName) {
+        Iterator<Generator.Pending> pending = pendingGenerations.iterator();
+        while (pending.hasNext()) {
+            Generator.Pending generation = pending.next();
+            String declared = generation.getVariableName();
+            if (variableName.equals(declared) || variableName.startsWith(declared + "_")) {
+                pending.remove();
+                mergeGeneration(generation);
+            }
+        }
+    }
+
+    private void mergeGeneration(Generator.Pending generation) {
+        try {
+            // Attempt to merge the generated variables to our current variables
+            if (!this.occpVariables.mergeVariables(generation.getVariables())) {
+                generationFailed = true;
+            }
+        } catch (InvalidGeneratorParameterException e) {
+            generationFailed = true;
+            logger.log(Level.SEVERE, "Failed to generate requested variable " + generation.getVariableName(), e);
+        }
+    }
+
+    /**
+     * Replace the OCCP variables in some text with their values. Values that themselves contain variables are
+     * rendered in turn.
+     * 
+     * @param text - The text to render
+     * @param resolving - The variables whose values are currently being rendered, to detect reference cycles
+     * @return The rendered text
+     */
+    private String render(String text, Deque<String> resolving) {
+        if (!text.contains(VARIABLE_PREFIX)) {
+            return text;
+        }
+        Template template = templates.get(text);
+        if (template == null) {
+            template = new Template(text);
+            templates.put(text, template);
+        }
+        StringBuilder result = new StringBuilder(text.length());
+        for (int i = 0; i < template.references.length; ++i) {
+            result.append(template.literals[i]);
+            Reference reference = template.references[i];
+            String value = lookup(reference);
+            if (value == null) {
+                value = LOOKUP_FAILED;
+            } else if (value.contains(VARIABLE_PREFIX)) {
+                if (resolving.contains(reference.text)) {
+                    logger.severe("The OCCP variable \"" + reference.text + "\" refers to itself through "
+                            + StringUtils.join(resolving.descendingIterator(), " -> "));
+                    this.occpVariables.aVariableLookupFailed = true;
+                    value = LOOKUP_FAILED;
                 } else {
-                    if (this.occpVariables.getVariableArray(variableName) != null) {
-                        logger.severe("Attempting to use the variable array \"" + variableName
-                                + "\" as normal variable. Did you mean \"" + variableName + "[]\"?");
-                    }
-                    result = occpVariableMatcher.replaceFirst("OCCP_VARIABLE_LOOKUP_FAILED");
+                    resolving.push(reference.text);
+                    value = render(value, resolving);
+                    resolving.pop();
                 }
             }
-            // Update to use the newly processed text
-            occpVariableMatcher = occpVariablePattern.matcher(result);
+            result.append(value);
+        }
+        result.append(template.literals[template.references.length]);
+        return result.toString();
+    }
+
+    /**
+     * Look up the value of a single variable reference
+     * 
+     * @param reference - The reference to look up
+     * @return The value, or null if the lookup failed
+     */
+    private String lookup(Reference reference) {
+        if (!pendingGenerations.isEmpty()) {
+            // It may be a variable that is still being generated
+            awaitGeneration(reference.name);
+        }
+        if (reference.isArray) {
+            if (reference.index >= 0) {
+                return this.occpVariables.getVariableArray(reference.name, reference.index);
+            }
+            return this.occpVariables.getVariableArray(reference.name);
+        }
+        // Just a normal variable, no array syntax used
+        String value = this.occpVariables.getVariable(reference.name);
+        if (value == null && this.occpVariables.occpVariableArrays.containsKey(reference.name)) {
+            logger.severe("Attempting to use the variable array \"" + reference.name
+                    + "\" as normal variable. Did you mean \"" + reference.name + "[]\"?");
+        }
+        return value;
+    }
+
+    /**
+     * A single OCCP variable reference within some text
+     */
+    private static final class Reference {
+        // The reference as written, such as ${occp:foo[2]}
+        final String text;
+        final String name;
+        final boolean isArray;
+        // The element requested, or -1 for the entire array
+        final int index;
+
+        Reference(Matcher matcher) {
+            text = matcher.group();
+            name = matcher.group(1);
+            isArray = matcher.group(2) != null;
+            String element = matcher.group(3);
+            index = (element != null && !element.isEmpty()) ? Integer.parseInt(element) : -1;
+        }
+    }
+
+    /**
+     * Text split once into literal parts and the variable references between them. There is always one more literal
+     * than references: literals[i] comes before references[i], and the last literal ends the text.
+     */
+    private static final class Template {
+        final String[] literals;
+        final Reference[] references;
+
+        Template(String text) {
+            List<String> literalList = new ArrayList<>();
+            List<Reference> referenceList = new ArrayList<>();
+            Matcher matcher = VARIABLE_PATTERN.matcher(text);
+            int end = 0;
+            while (matcher.find()) {
+                literalList.add(text.substring(end, matcher.start()));
+                referenceList.add(new Reference(matcher));
+                end = matcher.end();
+            }
+            literalList.add(text.substring(end));
+            literals = literalList.toArray(new String[literalList.size()]);
+            references = referenceList.toArray(new Reference[referenceList.size()]);
         }
-        return result;
     }
 
     /**
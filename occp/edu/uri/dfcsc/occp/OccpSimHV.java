@@ -0,0 +1,587 @@
+package edu.uri.dfcsc.occp;
+
+import java.io.File;
+import java.util.*;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.logging.Logger;
+
+import edu.uri.dfcsc.occp.exceptions.OccpException;
+import edu.uri.dfcsc.occp.exceptions.vm.HVOperationFailedException;
+import edu.uri.dfcsc.occp.exceptions.vm.VMNotFoundException;
+import edu.uri.dfcsc.occp.exceptions.vm.VMOperationFailedException;
+import edu.uri.dfcsc.occp.exceptions.vm.VMOperationFailedException.ErrorCode;
+
+/**
+ * Simulated hypervisor, for load testing the deploy logic without real hosts. VMs, snapshots and networks only exist
+ * in memory, for the life of the program. Every operation takes a (configurable) amount of time and may fail on
+ * purpose, so scheduling changes can be tried against hundreds of VMs on any machine.
+ * <ul>
+ * <li>latency: mean milliseconds per operation, latency-&lt;operation&gt; overrides it for one operation (e.g.
+ * latency-cloneVM)
+ * <li>distribution: fixed, uniform (0 to twice the mean), exponential or lognormal
+ * <li>failure: chance (0-1) each operation fails, failure-&lt;operation&gt; overrides it for one operation
+ * <li>bandwidth: bytes per second for imports, exports and file transfers
+ * <li>capacity: operations the host handles at full speed, beyond that they all slow down proportionally
+ * <li>poweroff: milliseconds a powered on VM runs before shutting itself down, like at the end of a phase (0 never)
+ * <li>basevms: comma separated names of the base VMs; when absent any base VM asked for exists
+ * </ul>
+ */
+public class OccpSimHV implements OccpHV {
+    private static Logger logger = Logger.getLogger(OccpSimHV.class.getName());
+    // Size assumed for files that don't exist locally
+    private static final long DEFAULT_FILE_SIZE = 512L * 1024 * 1024;
+    private static final String[] SETTINGS = { "jobs", "latency", "distribution", "failure", "bandwidth", "capacity",
+            "poweroff", "basevms" };
+
+    private final String name;
+    private final Map<String, String> settings = new HashMap<>();
+    private boolean isLocal = false;
+    private int inFlight = 0;
+    // Scenario VMs and base VMs by name
+    private final Map<String, SimVM> vms = new HashMap<>();
+    private final Map<String, SimVM> baseVMs = new HashMap<>();
+    private final Set<String> networks = new HashSet<>();
+    private int macCounter = 0;
+
+    /**
+     * A simulated VM
+     */
+    static final class SimVM implements OccpHV.OccpVM {
+        final String name;
+        final List<String> snapshots = new ArrayList<>();
+        final List<String> networks = new ArrayList<>();
+        final List<String> macs = new ArrayList<>();
+        int ram = 0;
+        // When the guest will shut itself down, 0 while off
+        long onUntil = 0;
+        boolean bootCD = false;
+        String floppy = null;
+
+        SimVM(String name) {
+            this.name = name;
+        }
+
+        @Override
+        public String getName() {
+            return name;
+        }
+    }
+
+    /**
+     * @param name The name of this hypervisor
+     * @param cache Settings, if available
+     */
+    public OccpSimHV(String name, Map<String, String> cache) {
+        this.name = name;
+        if (cache != null) {
+            for (Map.Entry<String, String> entry : cache.entrySet()) {
+                if (isSetting(entry.getKey())) {
+                    settings.put(entry.getKey(), entry.getValue());
+                }
+            }
+        }
+    }
+
+    private static boolean isSetting(String key) {
+        return Arrays.asList(SETTINGS).contains(key) || key.startsWith("latency-") || key.startsWith("failure-");
+    }
+
+    @Override
+    public boolean parseArgs(String[] args) {
+        for (int ai = 0; ai + 1 < args.length; ++ai) {
+            String param = args[ai].trim();
+            String val = args[ai + 1].trim();
+            if (param.startsWith("--") && isSetting(param.substring(2)) && !val.startsWith("--")) {
+                settings.put(param.substring(2), val);
+                ++ai;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public Map<String, String> getSaveParameters() {
+        Map<String, String> params = new HashMap<String, String>(settings);
+        params.put("hypervisor", "sim"); // required
+        return params;
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public void setLocal(boolean isLocal) {
+        this.isLocal = isLocal;
+    }
+
+    @Override
+    public boolean getLocal() {
+        return this.isLocal;
+    }
+
+    @Override
+    public int getJobs() {
+        return Integer.parseInt(setting("jobs", "1"));
+    }
+
+    @Override
+    public boolean connect() {
+        String bases = settings.get("basevms");
+        if (bases != null) {
+            synchronized (this) {
+                for (String base : bases.split(",")) {
+                    if (!base.trim().isEmpty()) {
+                        baseVMs.put(base.trim(), new SimVM(base.trim()));
+                    }
+                }
+            }
+        }
+        logger.finest("Simulating the hypervisor " + name + " with " + settings);
+        return true;
+    }
+
+    @Override
+    public void disconnect() {
+        // Nothing to do
+    }
+
+    private String setting(String key, String defaultValue) {
+        String value = settings.get(key);
+        return value == null ? defaultValue : value;
+    }
+
+    private double setting(String key, String operation, double defaultValue) {
+        String value = settings.get(key + "-" + operation);
+        if (value == null) {
+            value = settings.get(key);
+        }
+        return value == null ? defaultValue : Double.parseDouble(value);
+    }
+
+    /**
+     * Spend the time an operation takes and decide whether it fails
+     * 
+     * @param operation - Name of the operation
+     * @param bytes - Data moved by the operation
+     * @return True if the operation should fail
+     * @throws HVOperationFailedException - If interrupted
+     */
+    private boolean simulate(String operation, long bytes) throws HVOperationFailedException {
+        int load;
+        synchronized (this) {
+            load = ++inFlight;
+        }
+        try {
+            double mean = setting("latency", operation, 0);
+            double millis;
+            Random random = ThreadLocalRandom.current();
+            switch (setting("distribution", "fixed")) {
+            case "uniform":
+                millis = 2 * mean * random.nextDouble();
+                break;
+            case "exponential":
+                millis = -mean * Math.log(1 - random.nextDouble());
+                break;
+            case "lognormal":
+                // Sigma of 0.5, scaled so the mean is as configured
+                millis = mean * Math.exp(0.5 * random.nextGaussian() - 0.125);
+                break;
+            default:
+                millis = mean;
+            }
+            double bandwidth = setting("bandwidth", operation, 0);
+            if (bandwidth > 0) {
+                millis += 1000.0 * bytes / bandwidth;
+            }
+            double capacity = setting("capacity", operation, 0);
+            if (capacity > 0 && load > capacity) {
+                millis *= load / capacity;
+            }
+            if (millis > 0) {
+                Thread.sleep((long) millis);
+            }
+            return random.nextDouble() < setting("failure", operation, 0);
+        } catch (InterruptedException e) {
+            throw new HVOperationFailedException(name, "Interrupted during " + operation, e);
+        } finally {
+            synchronized (this) {
+                --inFlight;
+            }
+        }
+    }
+
+    private void simulate(String operation, OccpVM vm, ErrorCode code) throws OccpException {
+        simulate(operation, vm, code, 0);
+    }
+
+    private void simulate(String operation, OccpVM vm, ErrorCode code, long bytes) throws OccpException {
+        if (simulate(operation, bytes)) {
+            throw new VMOperationFailedException(name, vm.getName(), code, "Simulated failure");
+        }
+    }
+
+    private static long fileSize(String fileName) {
+        File file = new File(fileName);
+        return file.isFile() ? file.length() : DEFAULT_FILE_SIZE;
+    }
+
+    private synchronized SimVM addVM(String vmName, SimVM from) throws HVOperationFailedException {
+        if (vms.containsKey(vmName)) {
+            throw new HVOperationFailedException(name, "A VM named " + vmName + " already exists");
+        }
+        SimVM vm = new SimVM(vmName);
+        if (from != null) {
+            vm.ram = from.ram;
+            vm.networks.addAll(from.networks);
+        }
+        while (vm.macs.size() < vm.networks.size()) {
+            vm.macs.add(nextMac());
+        }
+        vms.put(vmName, vm);
+        return vm;
+    }
+
+    private String nextMac() {
+        int id = ++macCounter;
+        return String.format("02:00:00:%02x:%02x:%02x", (id >> 16) & 0xff, (id >> 8) & 0xff, id & 0xff);
+    }
+
+    private static boolean isOn(SimVM vm) {
+        if (vm.onUntil != 0 && vm.onUntil < System.currentTimeMillis()) {
+            // The guest has shut itself down
+            vm.onUntil = 0;
+        }
+        return vm.onUntil != 0;
+    }
+
+    private static int findSnapshot(SimVM vm, String snapshotName) {
+        for (int i = 0; i < vm.snapshots.size(); ++i) {
+            if (vm.snapshots.get(i).equalsIgnoreCase(snapshotName)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    @Override
+    public OccpVM getVM(String vmName) throws VMNotFoundException, HVOperationFailedException {
+        if (simulate("getVM", 0)) {
+            throw new HVOperationFailedException(name, "Simulated failure getting the VM " + vmName);
+        }
+        synchronized (this) {
+            SimVM vm = vms.get(vmName);
+            if (vm == null) {
+                throw new VMNotFoundException(vmName);
+            }
+            return vm;
+        }
+    }
+
+    @Override
+    public OccpVM getBaseVM(String vmName) throws VMNotFoundException, HVOperationFailedException {
+        if (simulate("getBaseVM", 0)) {
+            throw new HVOperationFailedException(name, "Simulated failure getting the base VM " + vmName);
+        }
+        synchronized (this) {
+            SimVM vm = baseVMs.get(vmName);
+            if (vm == null) {
+                if (settings.containsKey("basevms")) {
+                    throw new VMNotFoundException(vmName);
+                }
+                vm = new SimVM(vmName);
+                baseVMs.put(vmName, vm);
+            }
+            return vm;
+        }
+    }
+
+    @Override
+    public Map<String, VMInfo> describeVMs(Collection<String> vmNames) throws HVOperationFailedException {
+        if (simulate("describeVMs", 0)) {
+            throw new HVOperationFailedException(name, "Simulated failure describing VMs");
+        }
+        Map<String, VMInfo> result = new HashMap<>();
+        synchronized (this) {
+            for (String vmName : vmNames) {
+                SimVM vm = vms.get(vmName);
+                if (vm != null) {
+                    Set<String> snapshots = new HashSet<>();
+                    for (String snapshot : vm.snapshots) {
+                        snapshots.add(snapshot.toLowerCase(Locale.ENGLISH));
+                    }
+                    result.put(vmName, new VMInfo(vm, snapshots, new ArrayList<>(vm.macs)));
+                }
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public boolean hasSnapshot(OccpVM vm, String snapshotName) throws OccpException {
+        if (simulate("hasSnapshot", 0)) {
+            throw new HVOperationFailedException(name, "Simulated failure listing the snapshots of " + vm.getName());
+        }
+        synchronized (this) {
+            return findSnapshot((SimVM) vm, snapshotName) >= 0;
+        }
+    }
+
+    @Override
+    public void createSnapshot(OccpVM vm, String snapshotName) throws OccpException {
+        simulate("createSnapshot", vm, ErrorCode.CREATE_SNAPSHOT);
+        synchronized (this) {
+            ((SimVM) vm).snapshots.add(snapshotName);
+        }
+    }
+
+    @Override
+    public void revertToSnapshot(OccpVM vm, String snapshotName) throws OccpException {
+        simulate("revertToSnapshot", vm, ErrorCode.REVERT_SNAPSHOT);
+        synchronized (this) {
+            if (findSnapshot((SimVM) vm, snapshotName) < 0) {
+                throw new VMOperationFailedException(name, vm.getName(), ErrorCode.REVERT_SNAPSHOT,
+                        "No snapshot named " + snapshotName);
+            }
+            ((SimVM) vm).onUntil = 0;
+        }
+    }
+
+    @Override
+    public void deleteSnapshot(OccpVM vm, String snapshotName) throws OccpException {
+        simulate("deleteSnapshot", vm, ErrorCode.DELETE_SNAPSHOT);
+        synchronized (this) {
+            int index = findSnapshot((SimVM) vm, snapshotName);
+            if (index >= 0) {
+                ((SimVM) vm).snapshots.remove(index);
+            }
+        }
+    }
+
+    @Override
+    public void cloneVM(OccpVM vm, String cloneName, String snapshotBase) throws OccpException {
+        simulate("cloneVM", vm, ErrorCode.CLONE);
+        addVM(cloneName, (SimVM) vm);
+    }
+
+    @Override
+    public void importVM(String vmName, String fileName) throws OccpException {
+        simulate("importVM", new SimVM(vmName), ErrorCode.IMPORT, fileSize(fileName));
+        addVM(vmName, null);
+    }
+
+    @Override
+    public OccpVM createVMwithISO(String vmName, String isoFilename) throws OccpException {
+        simulate("createVMwithISO", new SimVM(vmName), ErrorCode.CREATE_VM);
+        SimVM vm = addVM(vmName, null);
+        synchronized (this) {
+            vm.bootCD = true;
+        }
+        return vm;
+    }
+
+    @Override
+    public void exportVM(OccpVM vm, String fileName, String exportName) throws OccpException {
+        simulate("exportVM", vm, ErrorCode.EXPORT, DEFAULT_FILE_SIZE);
+    }
+
+    @Override
+    public void deleteVM(OccpVM vm) throws OccpException {
+        simulate("deleteVM", vm, ErrorCode.DELETE_VM);
+        synchronized (this) {
+            vms.remove(vm.getName());
+        }
+    }
+
+    @Override
+    public String getVMMac(OccpVM vm, int iFaceNumber) throws OccpException {
+        if (simulate("getVMMac", 0)) {
+            throw new HVOperationFailedException(name, "Simulated failure getting the MAC address of " + vm.getName());
+        }
+        synchronized (this) {
+            List<String> macs = ((SimVM) vm).macs;
+            return iFaceNumber < macs.size() ? macs.get(iFaceNumber) : null;
+        }
+    }
+
+    @Override
+    public void powerOnVM(OccpVM vm) throws OccpException {
+        simulate("powerOnVM", vm, ErrorCode.POWER_ON);
+        long runFor = Long.parseLong(setting("poweroff", "0"));
+        synchronized (this) {
+            ((SimVM) vm).onUntil = runFor > 0 ? System.currentTimeMillis() + runFor : Long.MAX_VALUE;
+        }
+    }
+
+    @Override
+    public synchronized boolean isVMOn(OccpVM vm) {
+        return isOn((SimVM) vm);
+    }
+
+    @Override
+    public void powerOffVM(OccpVM vm) throws OccpException {
+        simulate("powerOffVM", vm, ErrorCode.POWER_OFF);
+        synchronized (this) {
+            ((SimVM) vm).onUntil = 0;
+        }
+    }
+
+    @Override
+    public synchronized boolean networkExists(String netName) {
+        return networks.contains(netName);
+    }
+
+    @Override
+    public void createNetwork(String netName) throws OccpException {
+        if (simulate("createNetwork", 0)) {
+            throw new HVOperationFailedException(name, "Simulated failure creating the network " + netName);
+        }
+        synchronized (this) {
+            networks.add(netName);
+        }
+    }
+
+    @Override
+    public Set<String> ensureNetworks(Collection<String> netNames, boolean create) throws OccpException {
+        if (simulate("ensureNetworks", 0)) {
+            throw new HVOperationFailedException(name, "Simulated failure creating networks");
+        }
+        Set<String> missing = new TreeSet<>();
+        synchronized (this) {
+            for (String netName : netNames) {
+                if (!networks.contains(netName)) {
+                    missing.add(netName);
+                }
+            }
+            if (create) {
+                networks.addAll(missing);
+            }
+        }
+        return missing;
+    }
+
+    @Override
+    public boolean isVMOnNetwork(OccpVM vm, String netName) throws OccpException {
+        if (simulate("isVMOnNetwork", 0)) {
+            throw new HVOperationFailedException(name, "Simulated failure listing the networks of " + vm.getName());
+        }
+        synchronized (this) {
+            return ((SimVM) vm).networks.contains(netName);
+        }
+    }
+
+    @Override
+    public void assignVMNetworks(OccpVM vm, List<String> networkNames) throws OccpException {
+        simulate("assignVMNetworks", vm, ErrorCode.ASSIGN_NETWORK);
+        synchronized (this) {
+            connect((SimVM) vm, networkNames);
+        }
+    }
+
+    private void connect(SimVM simVM, List<String> networkNames) throws VMOperationFailedException {
+        for (String network : networkNames) {
+            if (network != null && !networks.contains(network)) {
+                throw new VMOperationFailedException(name, simVM.getName(), ErrorCode.ASSIGN_NETWORK,
+                        "No network named " + network);
+            }
+        }
+        for (int i = 0; i < networkNames.size(); ++i) {
+            // null means leave that adapter alone
+            if (i >= simVM.networks.size()) {
+                simVM.networks.add(networkNames.get(i));
+                simVM.macs.add(nextMac());
+            } else if (networkNames.get(i) != null) {
+                simVM.networks.set(i, networkNames.get(i));
+            }
+        }
+    }
+
+    @Override
+    public void assignVMRam(OccpVM vm, int ram) throws OccpException {
+        simulate("assignVMRam", vm, ErrorCode.ASSIGN_RAM);
+        synchronized (this) {
+            ((SimVM) vm).ram = ram;
+        }
+    }
+
+    @Override
+    public void attachFloppy(OccpVM vm, String filename) throws OccpException {
+        simulate("attachFloppy", vm, ErrorCode.ATTACH_FLOPPY, fileSize(filename));
+        synchronized (this) {
+            ((SimVM) vm).floppy = filename;
+        }
+    }
+
+    @Override
+    public void setBootCD(OccpVM vm) throws OccpException {
+        simulate("setBootCD", vm, ErrorCode.BOOT_ORDER);
+        synchronized (this) {
+            ((SimVM) vm).bootCD = true;
+        }
+    }
+
+    @Override
+    public void reconfigureVM(OccpVM vm, VMConfig config) throws OccpException {
+        // One round trip for all of it, like the real thing
+        simulate("reconfigureVM", vm, ErrorCode.ASSIGN_NETWORK,
+                config.getFloppy() == null ? 0 : fileSize(config.getFloppy()));
+        synchronized (this) {
+            SimVM simVM = (SimVM) vm;
+            if (config.getNetworks() != null) {
+                connect(simVM, config.getNetworks());
+            }
+            if (config.getRam() > 0) {
+                simVM.ram = config.getRam();
+            }
+            if (config.getFloppy() != null) {
+                simVM.floppy = config.getFloppy();
+            }
+            simVM.bootCD |= config.isBootCD();
+        }
+    }
+
+    @Override
+    public void createSharedFolder(OccpVM vm) throws OccpException {
+        simulate("createSharedFolder", vm, ErrorCode.SHARED_FOLDER);
+    }
+
+    @Override
+    public void waitForGuestPowerOn(OccpVM vm) throws OccpException {
+        simulate("waitForGuestPowerOn", vm, ErrorCode.GUEST);
+    }
+
+    @Override
+    public void transferFileToVM(OccpVM vm, String sourcePath, String destPath, boolean executable)
+            throws OccpException {
+        simulate("transferFileToVM", vm, ErrorCode.TRANSFER_TO, fileSize(sourcePath));
+    }
+
+    @Override
+    public void retrieveFileFromVM(OccpVM vm, String from, String to) throws OccpException {
+        simulate("retrieveFileFromVM", vm, ErrorCode.TRANSFER_FROM, DEFAULT_FILE_SIZE);
+    }
+
+    @Override
+    public void runCommand(OccpVM vm, String[] cmd, boolean waitForIt) throws OccpException {
+        simulate("runCommand", vm, ErrorCode.RUN_COMMAND);
+    }
+
+    /**
+     * @return Usage string for the simulated hypervisor
+     */
+    public static String getUsage() {
+        StringBuilder usage = new StringBuilder();
+        usage.append("sim:");
+        usage.append("\n\t--basevms <names> [optional] Comma separated base VMs, otherwise any base VM exists");
+        usage.append("\n\t--bandwidth <bytes/s> [optional] Transfer rate for imports, exports and files");
+        usage.append("\n\t--capacity <n> [optional] Operations at once before every operation slows down");
+        usage.append("\n\t--distribution <fixed|uniform|exponential|lognormal> [optional] Latency distribution");
+        usage.append("\n\t--failure <0-1> [optional] Chance of an operation failing, --failure-<operation> for one");
+        usage.append("\n\t--jobs <n> [optional] Simultaneous jobs");
+        usage.append("\n\t--latency <ms> [optional] Mean operation latency, --latency-<operation> for one");
+        usage.append("\n\t--poweroff <ms> [optional] How long VMs run before shutting themselves down");
+
+        return usage.toString();
+    }
+}
@@ -363,6 +363,63 @@ public class OccpVBoxHV implements OccpHV {
         return true;
     }
 
+    @Override
+    public Map<String, VMInfo> describeVMs(Collection<String> vmNames) throws HVOperationFailedException {
+        Set<String> wanted = new HashSet<>(vmNames);
+        Map<String, VMInfo> result = new HashMap<>();
+        try {
+            for (IMachine machine : vbox.getMachines()) {
+                try {
+                    String vmName = machine.getName();
+                    if (!wanted.contains(vmName) || result.containsKey(vmName)
+                            || !machine.getGroups().contains(groupName)) {
+                        continue;
+                    }
+                    OccpVBoxVM handle = cachedVMs.get(vmName);
+                    if (handle == null) {
+                        handle = new OccpVBoxVM();
+                        handle.machine = machine;
+                        handle.vmMgr = mgr;
+                        handle.name = vmName;
+                        cachedVMs.put(vmName, handle);
+                    }
+                    Set<String> snapshots = new HashSet<>();
+                    if (machine.getSnapshotCount() > 0) {
+                        // The root snapshot
+                        collectSnapshotNames(machine.findSnapshot(null), snapshots);
+                    }
+                    List<String> macs = new ArrayList<>();
+                    long adapters = vbox.getSystemProperties().getMaxNetworkAdapters(machine.getChipsetType());
+                    int lastEnabled = -1;
+                    for (long slot = 0; slot < adapters; ++slot) {
+                        INetworkAdapter adapter = machine.getNetworkAdapter(slot);
+                        macs.add(formatMac(adapter.getMACAddress()));
+                        if (adapter.getEnabled()) {
+                            lastEnabled = (int) slot;
+                        }
+                    }
+                    List<String> enabled = new ArrayList<>(macs.subList(0, lastEnabled + 1));
+                    result.put(vmName, new VMInfo(handle, snapshots, enabled));
+                } catch (VBoxException e) {
+                    if (e.getResultCode() == /* E_ACCESSDENIED */0x80070005) {
+                        continue;
+                    }
+                    throw e;
+                }
+            }
+        } catch (VBoxException e) {
+            throw new HVOperationFailedException(name, "Unable to describe VMs", e);
+        }
+        return result;
+    }
+
+    private void collectSnapshotNames(ISnapshot snapshot, Set<String> names) {
+        names.add(snapshot.getName().toLowerCase(Locale.ENGLISH));
+        for (ISnapshot child : snapshot.getChildren()) {
+            collectSnapshotNames(child, names);
+        }
+    }
+
     @Override
     public void createSnapshot(OccpVM vm, String snapshotName) throws OccpException {
         ISession oSession = null;
@@ -437,21 +494,28 @@ public class OccpVBoxHV implements OccpHV {
         try {
             oMachine = ((OccpVBoxVM) vm).machine;
             INetworkAdapter oNetworkAdapter = oMachine.getNetworkAdapter((long) iFaceNumber);
-            String address = oNetworkAdapter.getMACAddress();
-            StringBuilder macAddress = new StringBuilder(18);
-            macAddress.append(address);
-            macAddress.insert(2, ":");
-            macAddress.insert(5, ":");
-            macAddress.insert(8, ":");
-            macAddress.insert(11, ":");
-            macAddress.insert(14, ":");
-            return macAddress.toString();
+            return formatMac(oNetworkAdapter.getMACAddress());
         } catch (Exception e) {
             logger.log(Level.SEVERE, "Error retrieving MAC address for " + vm.getName() + " card " + iFaceNumber, e);
             return null;
         }
     }
 
+    /**
+     * @param address - MAC address as Virtualbox stores it (no separators)
+     * @return The MAC address separated by colons
+     */
+    private static String formatMac(String address) {
+        StringBuilder macAddress = new StringBuilder(18);
+        macAddress.append(address);
+        macAddress.insert(2, ":");
+        macAddress.insert(5, ":");
+        macAddress.insert(8, ":");
+        macAddress.insert(11, ":");
+        macAddress.insert(14, ":");
+        return macAddress.toString();
+    }
+
     @Override
     public boolean networkExists(String netName) {
         // Virtualbox will create them automatically.
@@ -463,6 +527,12 @@ public class OccpVBoxHV implements OccpHV {
         // created by setting the name in the VM
     }
 
+    @Override
+    public Set<String> ensureNetworks(Collection<String> netNames, boolean create) {
+        // Virtualbox will create them automatically.
+        return Collections.emptySet();
+    }
+
     @Override
     public boolean isVMOnNetwork(OccpVM vm, String netName) {
         IMachine oMachine = null;
@@ -493,54 +563,64 @@ public class OccpVBoxHV implements OccpHV {
             oSession = ((OccpVBoxVM) vm).vmMgr.getSessionObject();
             oMachine = ((OccpVBoxVM) vm).machine;
             lockMachine(oSession, oMachine, LockType.Write);
-            long i = 0;
-            String netName;
-            boolean changed = false;
-            ISystemProperties props = vbox.getSystemProperties();
-            for (i = 0; i < props.getMaxNetworkAdapters(oMachine.getChipsetType()); ++i) {
-                INetworkAdapter oNetworkAdapter = oSession.getMachine().getNetworkAdapter(i);
-                if (i < networks.size()) {
-                    netName = networks.get((int) i);
-                    // We aren't to reconfigure adapters set to null, except to make
-                    // sure they are enabled
-
-                    if (netName != null) {
-                        if (!oNetworkAdapter.getAttachmentType().equals(NetworkAttachmentType.Internal)) {
-                            oNetworkAdapter.setAttachmentType(NetworkAttachmentType.Internal);
-                            changed = true;
-                        }
-                        if (!oNetworkAdapter.getInternalNetwork().equals(netName)) {
-                            oNetworkAdapter.setInternalNetwork(netName);
-                            changed = true;
-                        }
-                        if (oNetworkAdapter.getPromiscModePolicy() != NetworkAdapterPromiscModePolicy.AllowAll) {
-                            oNetworkAdapter.setPromiscModePolicy(NetworkAdapterPromiscModePolicy.AllowAll);
-                            changed = true;
-                        }
+            if (setNetworks(oSession.getMachine(), networks)) {
+                oSession.getMachine().saveSettings();
+            }
+        } catch (Exception e) {
+            throw new VMOperationFailedException(name, vm.getName(), ErrorCode.ASSIGN_NETWORK, e);
+        } finally {
+            unlockMachine(oSession, oMachine);
+        }
+    }
+
+    /**
+     * Attach the network adapters of a locked machine, without saving
+     * 
+     * @param rwMachine - The machine, from the session holding the write lock
+     * @param networks - Names of the networks
+     * @return True if anything changed
+     */
+    private boolean setNetworks(IMachine rwMachine, List<String> networks) {
+        String netName;
+        boolean changed = false;
+        ISystemProperties props = vbox.getSystemProperties();
+        for (long i = 0; i < props.getMaxNetworkAdapters(rwMachine.getChipsetType()); ++i) {
+            INetworkAdapter oNetworkAdapter = rwMachine.getNetworkAdapter(i);
+            if (i < networks.size()) {
+                netName = networks.get((int) i);
+                // We aren't to reconfigure adapters set to null, except to make
+                // sure they are enabled
+
+                if (netName != null) {
+                    if (!oNetworkAdapter.getAttachmentType().equals(NetworkAttachmentType.Internal)) {
+                        oNetworkAdapter.setAttachmentType(NetworkAttachmentType.Internal);
+                        changed = true;
                     }
-                    if (!oNetworkAdapter.getEnabled()) {
-                        oNetworkAdapter.setEnabled(true);
+                    if (!oNetworkAdapter.getInternalNetwork().equals(netName)) {
+                        oNetworkAdapter.setInternalNetwork(netName);
                         changed = true;
                     }
-                    // Ensure we use the best and same networking on all cards
-                    if (oNetworkAdapter.getAdapterType() != NetworkAdapterType.I82540EM) {
-                        oNetworkAdapter.setAdapterType(NetworkAdapterType.I82540EM);
+                    if (oNetworkAdapter.getPromiscModePolicy() != NetworkAdapterPromiscModePolicy.AllowAll) {
+                        oNetworkAdapter.setPromiscModePolicy(NetworkAdapterPromiscModePolicy.AllowAll);
                         changed = true;
                     }
-                } else if (oNetworkAdapter.getEnabled()) {
-                    // Disable all other cards
-                    oNetworkAdapter.setEnabled(false);
+                }
+                if (!oNetworkAdapter.getEnabled()) {
+                    oNetworkAdapter.setEnabled(true);
                     changed = true;
                 }
+                // Ensure we use the best and same networking on all cards
+                if (oNetworkAdapter.getAdapterType() != NetworkAdapterType.I82540EM) {
+                    oNetworkAdapter.setAdapterType(NetworkAdapterType.I82540EM);
+                    changed = true;
+                }
+            } else if (oNetworkAdapter.getEnabled()) {
+                // Disable all other cards
+                oNetworkAdapter.setEnabled(false);
+                changed = true;
             }
-            if (changed) {
-                oSession.getMachine().saveSettings();
-            }
-        } catch (Exception e) {
-            throw new VMOperationFailedException(name, vm.getName(), ErrorCode.ASSIGN_NETWORK, e);
-        } finally {
-            unlockMachine(oSession, oMachine);
         }
+        return changed;
     }
 
     @Override
@@ -580,41 +660,8 @@ public class OccpVBoxHV implements OccpHV {
             oSession = ((OccpVBoxVM) vm).vmMgr.getSessionObject();
             oMachine = ((OccpVBoxVM) vm).machine;
             lockMachine(oSession, oMachine, LockType.Write);
-            List<IStorageController> controllers = oSession.getMachine().getStorageControllers();
-            boolean found = false;
-            String floppyControllerName = "Floppy device 0";
-            for (IStorageController c : controllers) {
-                if (c.getBus() == StorageBus.Floppy) {
-                    floppyControllerName = c.getName();
-                    found = true;
-                }
-            }
-            IMachine rwMachine = oSession.getMachine();
-            // If for some reason we couldn't find the floppy controller for
-            // this machine, add one
-            if (!found) {
-                rwMachine.addStorageController(floppyControllerName, StorageBus.Floppy);
-            }
-            // Remove the old one to avoid build-up
-            try {
-                if (rwMachine.getMediumAttachment(floppyControllerName, 0, 0) != null) {
-                    rwMachine.unmountMedium(floppyControllerName, 0, 0, true);
-                }
-            } catch (VBoxException e) {
-                if (e.getResultCode() != 0x80bb0001) {
-                    // Expected if it doesn't exist
-                    logger.log(Level.WARNING, "Could not query floppy controller", e);
-                } else {
-                    rwMachine.attachDeviceWithoutMedium(floppyControllerName, 0, 0, DeviceType.Floppy);
-                }
-            }
-
-            IMedium oMedium = vbox.openMedium(this.importDir + "/" + OccpAdmin.scenarioName + "/" + filename,
-                    DeviceType.Floppy, AccessMode.ReadWrite, true);
-            rwMachine.mountMedium(floppyControllerName, 0, 0, oMedium, true);
-            rwMachine.saveSettings();
-            found = true;
-
+            insertFloppy(oSession.getMachine(), filename);
+            oSession.getMachine().saveSettings();
         } catch (Exception e) {
             throw new VMOperationFailedException(name, vm.getName(), ErrorCode.ATTACH_FLOPPY, e).set("filename",
                     filename);
@@ -623,6 +670,46 @@ public class OccpVBoxHV implements OccpHV {
         }
     }
 
+    /**
+     * Mount a floppy image in a locked machine, without saving
+     * 
+     * @param rwMachine - The machine, from the session holding the write lock
+     * @param filename - Floppy image, relative to the scenario's import directory
+     */
+    private void insertFloppy(IMachine rwMachine, String filename) {
+        List<IStorageController> controllers = rwMachine.getStorageControllers();
+        boolean found = false;
+        String floppyControllerName = "Floppy device 0";
+        for (IStorageController c : controllers) {
+            if (c.getBus() == StorageBus.Floppy) {
+                floppyControllerName = c.getName();
+                found = true;
+            }
+        }
+        // If for some reason we couldn't find the floppy controller for
+        // this machine, add one
+        if (!found) {
+            rwMachine.addStorageController(floppyControllerName, StorageBus.Floppy);
+        }
+        // Remove the old one to avoid build-up
+        try {
+            if (rwMachine.getMediumAttachment(floppyControllerName, 0, 0) != null) {
+                rwMachine.unmountMedium(floppyControllerName, 0, 0, true);
+            }
+        } catch (VBoxException e) {
+            if (e.getResultCode() != 0x80bb0001) {
+                // Expected if it doesn't exist
+                logger.log(Level.WARNING, "Could not query floppy controller", e);
+            } else {
+                rwMachine.attachDeviceWithoutMedium(floppyControllerName, 0, 0, DeviceType.Floppy);
+            }
+        }
+
+        IMedium oMedium = vbox.openMedium(this.importDir + "/" + OccpAdmin.scenarioName + "/" + filename,
+                DeviceType.Floppy, AccessMode.ReadWrite, true);
+        rwMachine.mountMedium(floppyControllerName, 0, 0, oMedium, true);
+    }
+
     private boolean assignVMGroup(OccpVM vm) throws OccpException {
         IMachine oMachine = null, rwMachine = null;
         ISession oSession = null;
@@ -681,6 +768,53 @@ public class OccpVBoxHV implements OccpHV {
         }
     }
 
+    @Override
+    public void reconfigureVM(OccpVM vm, VMConfig config) throws OccpException {
+        IMachine oMachine = ((OccpVBoxVM) vm).machine;
+        ISession oSession = ((OccpVBoxVM) vm).vmMgr.getSessionObject();
+        // Check this before taking the lock, as assignVMRam does
+        if (config.getRam() > 0) {
+            try {
+                checkRam(config.getRam());
+            } catch (IllegalArgumentException e) {
+                throw new VMOperationFailedException(name, vm.getName(), ErrorCode.ASSIGN_RAM, e).set("ram",
+                        config.getRam());
+            }
+        }
+        lockMachine(oSession, oMachine, LockType.Write);
+        // One lock and one save for all of the changes
+        ErrorCode step = ErrorCode.ASSIGN_NETWORK;
+        try {
+            IMachine rwMachine = oSession.getMachine();
+            boolean changed = false;
+            if (config.getNetworks() != null) {
+                changed |= setNetworks(rwMachine, config.getNetworks());
+            }
+            step = ErrorCode.ASSIGN_RAM;
+            if (config.getRam() > 0 && rwMachine.getMemorySize() != config.getRam()) {
+                rwMachine.setMemorySize((long) config.getRam());
+                changed = true;
+            }
+            step = ErrorCode.ATTACH_FLOPPY;
+            if (config.getFloppy() != null) {
+                insertFloppy(rwMachine, config.getFloppy());
+                changed = true;
+            }
+            step = ErrorCode.BOOT_ORDER;
+            if (config.isBootCD()) {
+                rwMachine.setBootOrder(1L, DeviceType.DVD);
+                changed = true;
+            }
+            if (changed) {
+                rwMachine.saveSettings();
+            }
+        } catch (Exception e) {
+            throw new VMOperationFailedException(name, vm.getName(), step, e);
+        } finally {
+            unlockMachine(oSession, oMachine);
+        }
+    }
+
     @Override
     public void importVM(String vmName, String fileName) throws OccpException {
         // Since importApp doesn't give a list of new VMs, memorize which ones exist
@@ -1312,15 +1446,7 @@ public class OccpVBoxHV implements OccpHV {
         ISession oSession = null;
         boolean locked = false;
         try {
-            ISystemProperties props = vbox.getSystemProperties();
-            Long maxRam = props.getMaxGuestRAM();
-            IHost vboxHost = vbox.getHost();
-            Long maxHostRam = vboxHost.getMemoryAvailable();
-            if (ram < props.getMinGuestRAM()) {
-                throw new IllegalArgumentException("Minimum ram value is " + props.getMinGuestRAM());
-            } else if (ram > Math.min(maxRam, maxHostRam)) {
-                throw new IllegalArgumentException("Maximum ram value is " + props.getMaxGuestRAM());
-            }
+            checkRam(ram);
 
             oMachine = ((OccpVBoxVM) vm).machine;
             oSession = ((OccpVBoxVM) vm).vmMgr.getSessionObject();
@@ -1340,6 +1466,22 @@ public class OccpVBoxHV implements OccpHV {
         }
     }
 
+    /**
+     * @param ram - MB of RAM for a VM
+     * @throws IllegalArgumentException - If Virtualbox or the host can not give a VM that much
+     */
+    private void checkRam(int ram) throws IllegalArgumentException {
+        ISystemProperties props = vbox.getSystemProperties();
+        Long maxRam = props.getMaxGuestRAM();
+        IHost vboxHost = vbox.getHost();
+        Long maxHostRam = vboxHost.getMemoryAvailable();
+        if (ram < props.getMinGuestRAM()) {
+            throw new IllegalArgumentException("Minimum ram value is " + props.getMinGuestRAM());
+        } else if (ram > Math.min(maxRam, maxHostRam)) {
+            throw new IllegalArgumentException("Maximum ram value is " + props.getMaxGuestRAM());
+        }
+    }
+
     @Override
     public void deleteVM(OccpVM vm) throws OccpException {
         OccpVBoxVM vbvm = ((OccpVBoxVM) vm);
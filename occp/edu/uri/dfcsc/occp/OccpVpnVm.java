@@ -3,6 +3,7 @@
  */
 package edu.uri.dfcsc.occp;
 
+import java.io.File;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -13,6 +14,7 @@ import edu.uri.dfcsc.occp.OccpHV.OccpVM;
 import edu.uri.dfcsc.occp.exceptions.OccpException;
 import edu.uri.dfcsc.occp.exceptions.vm.VMOperationFailedException;
 import edu.uri.dfcsc.occp.exceptions.vm.VMOperationFailedException.ErrorCode;
+import edu.uri.dfcsc.occp.utils.Trace;
 
 /**
  * @author Kevin Bryan (bryank@cs.uri.edu)
@@ -130,12 +132,25 @@ public class OccpVpnVm {
      * @param from Local file name
      * @throws OccpException
      */
-    public synchronized void stageFile(String from) throws OccpException {
+    public void stageFile(String from) throws OccpException {
+        Trace.Span span = Trace.begin("setup", "stageFile").arg("hv", hv.getName()).arg("file", from);
+        File file = new File(from);
+        if (file.isFile()) {
+            span.arg("bytes", file.length());
+        }
+        try {
+            stageFileLocked(from);
+        } finally {
+            span.end();
+        }
+    }
+
+    private synchronized void stageFileLocked(String from) throws OccpException {
         boolean transferSuccess = false;
         /*
          * Only VBox requires transfer to the host; Esxi allows uploads
          */
-        if (this.hv.getClass() == OccpVBoxHV.class) {
+        if (OccpHVFactory.unwrap(this.hv).getClass() == OccpVBoxHV.class) {
             try {
                 completionLock.lock();
                 if (!completed_conditions.containsKey(from)) {
@@ -189,7 +204,7 @@ public class OccpVpnVm {
         /*
          * Only VBox requires transfer from the host; Esxi allows downloads
          */
-        if (this.hv.getClass() == OccpVBoxHV.class) {
+        if (OccpHVFactory.unwrap(this.hv).getClass() == OccpVBoxHV.class) {
             this.hv.retrieveFileFromVM(this.vm, from, to);
         }
     }
@@ -0,0 +1,206 @@
+package edu.uri.dfcsc.occp;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.logging.Logger;
+
+import edu.uri.dfcsc.occp.OccpHV.OccpVM;
+import edu.uri.dfcsc.occp.exceptions.OccpException;
+import edu.uri.dfcsc.occp.exceptions.vm.VMNotFoundException;
+
+/**
+ * Powers the VMs of a scenario on or off, many at once, with no more than getJobs() operations at a time on each
+ * hypervisor. VMs are powered on in waves: a wave is only started once every VM of the waves before it is ready, so
+ * the router, game server and VPNs can be up before the VMs that depend on them. How long to wait between waves is
+ * the bootWait setting of occp.conf:
+ * <ul>
+ * <li>none: no waiting, every VM is started at once
+ * <li>power: until the VMs are powered on (the default)
+ * <li>guest: until the guest tools of the VMs are running
+ * </ul>
+ */
+final class PowerControl {
+    private static final Logger logger = Logger.getLogger(PowerControl.class.getName());
+
+    /**
+     * The VM of a label on a hypervisor
+     */
+    private static final class Target {
+        final OccpHV hv;
+        final String label;
+
+        Target(OccpHV hv, String label) {
+            this.hv = hv;
+            this.label = label;
+        }
+    }
+
+    // Targets by wave, in the order they are started
+    private final TreeMap<Integer, List<Target>> waves = new TreeMap<>();
+    private final Map<String, Semaphore> hvjobs = new HashMap<>();
+    private final String bootWait;
+
+    PowerControl() {
+        bootWait = OccpAdmin.globalConfig.getProperty("bootWait", "power");
+        if (!bootWait.equals("none") && !bootWait.equals("power") && !bootWait.equals("guest")) {
+            throw new IllegalArgumentException("bootWait must be none, power or guest, not " + bootWait);
+        }
+    }
+
+    /**
+     * Include a VM
+     * 
+     * @param wave - Wave to power it on in, lower waves first
+     * @param hv - Hypervisor it is on
+     * @param label - Label of the VM
+     */
+    void add(int wave, OccpHV hv, String label) {
+        if (bootWait.equals("none")) {
+            wave = 0;
+        }
+        List<Target> targets = waves.get(wave);
+        if (targets == null) {
+            targets = new ArrayList<>();
+            waves.put(wave, targets);
+        }
+        targets.add(new Target(hv, label));
+        if (!hvjobs.containsKey(hv.getName())) {
+            hvjobs.put(hv.getName(), new Semaphore(Math.max(1, hv.getJobs())));
+        }
+    }
+
+    /**
+     * Power on every VM, a wave at a time
+     * 
+     * @throws OccpException - The first failure, no later wave is started
+     */
+    void powerOn() throws OccpException {
+        for (Map.Entry<Integer, List<Target>> wave : waves.entrySet()) {
+            Operation guestWait = null;
+            if (wave.getKey() < waves.lastKey() && bootWait.equals("guest")) {
+                guestWait = new Operation() {
+                    @Override
+                    public void run(OccpHV hv, OccpVM vm, String label) throws OccpException {
+                        hv.waitForGuestPowerOn(vm);
+                    }
+                };
+            }
+            run(wave.getValue(), false, new Operation() {
+                @Override
+                public void run(OccpHV hv, OccpVM vm, String label) throws OccpException {
+                    logger.info("Powering on the VM \"" + label + "\" on the hypervisor \"" + hv.getName() + '"');
+                    hv.powerOnVM(vm);
+                }
+            }, guestWait);
+        }
+    }
+
+    /**
+     * Power off every VM, all at once. VMs that don't exist are skipped.
+     * 
+     * @throws OccpException - The first failure
+     */
+    void powerOff() throws OccpException {
+        List<Target> targets = new ArrayList<>();
+        for (List<Target> wave : waves.values()) {
+            targets.addAll(wave);
+        }
+        run(targets, true, new Operation() {
+            @Override
+            public void run(OccpHV hv, OccpVM vm, String label) throws OccpException {
+                hv.powerOffVM(vm);
+            }
+        }, null);
+    }
+
+    private interface Operation {
+        void run(OccpHV hv, OccpVM vm, String label) throws OccpException;
+    }
+
+    /**
+     * Run an operation on each target in parallel and wait for all of them
+     * 
+     * @param targets - VMs to run it on
+     * @param skipMissing - Whether VMs that don't exist are skipped, rather than a failure
+     * @param operation - What to do to each VM, holding one of its hypervisor's jobs
+     * @param then - What to wait for once the job is given back, so slow guests don't hold up the others; or null
+     * @throws OccpException - The first failure
+     */
+    private void run(List<Target> targets, final boolean skipMissing, final Operation operation,
+            final Operation then) throws OccpException {
+        if (targets.isEmpty()) {
+            return;
+        }
+        // Waiting VMs hold a thread but no job, so then needs a thread for each of them
+        int threads = then != null ? targets.size() : Math.min(targets.size(), maxJobs());
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<Void>> futures = new ArrayList<>();
+            for (final Target target : targets) {
+                futures.add(pool.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws Exception {
+                        Semaphore jobs = hvjobs.get(target.hv.getName());
+                        OccpVM vm;
+                        jobs.acquire();
+                        try {
+                            vm = target.hv.getVM(target.label);
+                            operation.run(target.hv, vm, target.label);
+                        } catch (VMNotFoundException e) {
+                            if (!skipMissing) {
+                                throw e;
+                            }
+                            return null;
+                        } finally {
+                            jobs.release();
+                        }
+                        if (then != null) {
+                            then.run(target.hv, vm, target.label);
+                        }
+                        return null;
+                    }
+                }));
+            }
+            OccpException failure = null;
+            for (Future<Void> future : futures) {
+                try {
+                    future.get();
+                } catch (ExecutionException e) {
+                    if (failure == null && e.getCause() instanceof OccpException) {
+                        failure = (OccpException) e.getCause();
+                    } else if (failure == null) {
+                        throw new RuntimeException(e.getCause());
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new RuntimeException(e);
+                }
+            }
+            if (failure != null) {
+                throw failure;
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    /**
+     * @return The most operations that can be running at once, over all hypervisors
+     */
+    private int maxJobs() {
+        int total = 0;
+        for (Semaphore jobs : hvjobs.values()) {
+            total += jobs.availablePermits();
+        }
+        return Math.max(1, total);
+    }
+}
@@ -14,6 +14,7 @@ import edu.uri.dfcsc.occp.exceptions.configmanager.ConfigManagerException;
 import edu.uri.dfcsc.occp.exceptions.configmanager.ConfigManagerPermanentFailureException;
 import edu.uri.dfcsc.occp.utils.BaseVMRemoteConfig;
 import edu.uri.dfcsc.occp.utils.BaseVMRemoteConfig.CommandOutput;
+import edu.uri.dfcsc.occp.utils.Trace;
 
 /**
  * Controls Puppet as the configuration management system
@@ -48,6 +49,18 @@ public class PuppetControl extends ConfigManagerControl {
 
     @Override
     public void doPhase(String label, String phase, boolean poweroff) throws ConfigManagerException {
+        Trace.Span span = Trace.begin("config", "doPhase").arg("vm", label).arg("phase", phase);
+        try {
+            applyPhase(label, phase, poweroff);
+        } catch (ConfigManagerException e) {
+            span.arg("error", e.getClass().getSimpleName());
+            throw e;
+        } finally {
+            span.end();
+        }
+    }
+
+    private void applyPhase(String label, String phase, boolean poweroff) throws ConfigManagerException {
         // Retrieve host we are configuring
         OccpHost host = super.getHostByLabel(label);
 
@@ -340,7 +353,7 @@ public class PuppetControl extends ConfigManagerControl {
      * @return A string that could be written as nodes.pp representing the given
      *         hosts
      */
-    private String compileNodeFile(ArrayList<OccpHost> hosts) {
+    String compileNodeFile(ArrayList<OccpHost> hosts) {
         StringBuilder nodesContent = new StringBuilder();
 
         nodesContent.append("# OCCP auto generated nodes file\n\n");
@@ -0,0 +1,330 @@
+package edu.uri.dfcsc.occp;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.TreeMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Binary copy of the model resolved from a scenario's instance file: hosts, networks, DNS entries and reports. Once
+ * an instance file exists the parse is deterministic, so it only needs to be done once; later runs map this file and
+ * rebuild the model from it without touching the XML.
+ * 
+ * The file is keyed by a hash of everything the parse depends on, any change to those (or any problem reading the
+ * file) simply means it is not used. Like the instance file, it is never required.
+ */
+final class ScenarioCache {
+    private static final Logger logger = Logger.getLogger(ScenarioCache.class.getName());
+
+    // "OCCP"
+    private static final int MAGIC = 0x4f434350;
+    // Increase whenever the layout or the parse that produces the model changes
+    private static final int FORMAT_VERSION = 1;
+
+    final Map<String, OccpHost> hosts;
+    final Map<String, OccpNetwork> networks;
+    final List<OccpDNSEntry> dns;
+    final Map<String, String> reports;
+    final boolean routerNeeded;
+
+    /**
+     * @param hosts - Hosts by label
+     * @param networks - Networks by label
+     * @param dns - Root DNS entries
+     * @param reports - Report text by name
+     * @param routerNeeded - Whether the scenario needs the router
+     */
+    ScenarioCache(Map<String, OccpHost> hosts, Map<String, OccpNetwork> networks, List<OccpDNSEntry> dns,
+            Map<String, String> reports, boolean routerNeeded) {
+        this.hosts = hosts;
+        this.networks = networks;
+        this.dns = dns;
+        this.reports = reports;
+        this.routerNeeded = routerNeeded;
+    }
+
+    /**
+     * @param instanceFileName - Name of the instance file the model comes from
+     * @return Where the model for this scenario (and instance) is kept
+     */
+    static Path getPath(String instanceFileName) {
+        String prefix = "";
+        if (OccpAdmin.scenarioName != null) {
+            prefix = OccpAdmin.scenarioName + "-";
+        }
+        return OccpAdmin.occpHiddenDirPath.resolve(prefix + instanceFileName.replaceFirst("\\.xml$", "") + ".model");
+    }
+
+    /**
+     * Hash the instance file along with the settings that change how it is parsed
+     * 
+     * @param instanceFile - The instance file
+     * @return The key, or null if it could not be computed
+     */
+    static byte[] key(Path instanceFile) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(Integer.toString(FORMAT_VERSION).getBytes(StandardCharsets.UTF_8));
+            try (InputStream in = new DigestInputStream(Files.newInputStream(instanceFile), digest)) {
+                byte[] buffer = new byte[8192];
+                while (in.read(buffer) != -1) {
+                    // Only the digest matters
+                }
+            }
+            // Network names carry the instance id, the router ISO lives in the hidden directory
+            for (Object setting : new Object[] { OccpAdmin.instanceId, OccpAdmin.scenarioBaseDir,
+                    OccpAdmin.occpHiddenDirPath }) {
+                digest.update((byte) 0);
+                digest.update(String.valueOf(setting).getBytes(StandardCharsets.UTF_8));
+            }
+            return digest.digest();
+        } catch (IOException | NoSuchAlgorithmException e) {
+            logger.log(Level.FINE, "Unable to compute the scenario cache key", e);
+            return null;
+        }
+    }
+
+    /**
+     * Load the model, if there is one for this key
+     * 
+     * @param path - Location of the cache
+     * @param key - Expected key
+     * @return The model, or null if there is no usable one
+     */
+    static ScenarioCache load(Path path, byte[] key) {
+        if (key == null || !Files.isRegularFile(path)) {
+            return null;
+        }
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            MappedByteBuffer in = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (in.getInt() != MAGIC || in.getInt() != FORMAT_VERSION) {
+                return null;
+            }
+            byte[] stored = new byte[key.length];
+            in.get(stored);
+            if (!Arrays.equals(stored, key)) {
+                logger.fine("Scenario cache is out of date");
+                return null;
+            }
+            boolean routerNeeded = in.get() != 0;
+            Map<String, OccpHost> hosts = new TreeMap<>();
+            for (int count = in.getInt(); count > 0; --count) {
+                OccpHost host = readHost(in);
+                hosts.put(host.getLabel(), host);
+            }
+            Map<String, OccpNetwork> networks = new HashMap<>();
+            for (int count = in.getInt(); count > 0; --count) {
+                OccpNetwork network = new OccpNetwork();
+                network.setLabel(unqualified(readString(in)));
+                networks.put(network.getLabel(), network);
+            }
+            List<OccpDNSEntry> dns = new ArrayList<>();
+            for (int count = in.getInt(); count > 0; --count) {
+                dns.add(new OccpDNSEntry(readString(in), in.getInt(), readString(in), readString(in), readString(in)));
+            }
+            Map<String, String> reports = new HashMap<>();
+            for (int count = in.getInt(); count > 0; --count) {
+                reports.put(readString(in), readString(in));
+            }
+            return new ScenarioCache(hosts, networks, dns, reports, routerNeeded);
+        } catch (IOException | BufferUnderflowException | IllegalArgumentException e) {
+            logger.log(Level.FINE, "Unable to use the scenario cache " + path, e);
+            return null;
+        }
+    }
+
+    /**
+     * Save the model for this key, replacing any previous one. Problems are only logged.
+     * 
+     * @param path - Location of the cache
+     * @param key - Key of the model
+     */
+    void save(Path path, byte[] key) {
+        if (key == null) {
+            return;
+        }
+        Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+        try {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+                out.writeInt(MAGIC);
+                out.writeInt(FORMAT_VERSION);
+                out.write(key);
+                out.writeBoolean(routerNeeded);
+                out.writeInt(hosts.size());
+                for (OccpHost host : hosts.values()) {
+                    writeHost(out, host);
+                }
+                out.writeInt(networks.size());
+                for (OccpNetwork network : networks.values()) {
+                    writeString(out, network.getLabel());
+                }
+                out.writeInt(dns.size());
+                for (OccpDNSEntry entry : dns) {
+                    writeString(out, entry.entryName);
+                    out.writeInt(entry.ttl);
+                    writeString(out, entry.entryClass);
+                    writeString(out, entry.entryType);
+                    writeString(out, entry.entryValue);
+                }
+                out.writeInt(reports.size());
+                for (Entry<String, String> report : reports.entrySet()) {
+                    writeString(out, report.getKey());
+                    writeString(out, report.getValue());
+                }
+            }
+            Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            logger.log(Level.FINE, "Unable to save the scenario cache " + path, e);
+            try {
+                Files.deleteIfExists(temp);
+            } catch (IOException e1) {
+                logger.log(Level.FINE, "Unable to remove " + temp, e1);
+            }
+        }
+    }
+
+    private static void writeHost(DataOutputStream out, OccpHost host) throws IOException {
+        writeString(out, host.getLabel());
+        writeString(out, host.getHostname());
+        writeString(out, host.getDomain());
+        writeString(out, host.getBaseVM());
+        writeString(out, host.getClone());
+        writeString(out, host.getOvaName());
+        writeString(out, host.getIsoName());
+        writeString(out, host.getSetupIP());
+        out.writeBoolean(host.getInterfaceConfig());
+        out.writeBoolean(host.getIntermediate());
+        out.writeInt(host.getPhase());
+        out.writeInt(host.getRam());
+        out.writeInt(host.getInterfaces().size());
+        for (OccpNetworkInterface intf : host.getInterfaces()) {
+            writeString(out, intf.getName());
+            writeString(out, intf.getType().name());
+            writeString(out, intf.getConfig().name());
+            writeString(out, intf.getNetwork());
+            out.writeBoolean(intf.getAuto());
+            writeString(out, intf.getV4Address());
+            writeString(out, intf.getV4Netmask());
+            writeString(out, intf.getV4Broadcast());
+            writeString(out, intf.getV4Gateway());
+            out.writeInt(intf.getRoutes().size());
+            for (String route : intf.getRoutes()) {
+                writeString(out, route);
+            }
+        }
+        out.writeInt(host.getContentPacks().size());
+        for (ContentPackInfo pack : host.getContentPacks()) {
+            writeString(out, pack.getPackName());
+            writeString(out, pack.getClassName());
+            out.writeInt(pack.getCustomParameters().size());
+            for (Entry<String, String> parameter : pack.getCustomParameters().entrySet()) {
+                writeString(out, parameter.getKey());
+                writeString(out, parameter.getValue());
+            }
+        }
+    }
+
+    private static OccpHost readHost(ByteBuffer in) {
+        OccpHost host = new OccpHost(readString(in), readString(in), readString(in));
+        host.setBaseVM(readString(in));
+        host.setClone(readString(in));
+        host.setOvaName(readString(in));
+        host.setIsoName(readString(in));
+        host.setSetupIP(readString(in));
+        host.setInterfaceConfig(in.get() != 0);
+        host.setIntermediate(in.get() != 0);
+        host.setPhase(in.getInt());
+        host.setRam(in.getInt());
+        for (int count = in.getInt(); count > 0; --count) {
+            OccpNetworkInterface intf = new OccpNetworkInterface(readString(in),
+                    OccpNetworkInterface.InterfaceType.valueOf(readString(in)),
+                    OccpNetworkInterface.Config.valueOf(readString(in)));
+            String network = readString(in);
+            if (network != null) {
+                intf.setNetwork(unqualified(network));
+            }
+            intf.setAuto(in.get() != 0);
+            String address = readString(in), netmask = readString(in);
+            String broadcast = readString(in), gateway = readString(in);
+            if (address != null) {
+                intf.setV4Address(address, netmask);
+            }
+            if (broadcast != null) {
+                intf.setV4Broadcast(broadcast);
+            }
+            if (gateway != null) {
+                intf.setV4Gateway(gateway);
+            }
+            for (int routes = in.getInt(); routes > 0; --routes) {
+                intf.addRoute(readString(in));
+            }
+            host.addInterface(intf);
+        }
+        for (int count = in.getInt(); count > 0; --count) {
+            ContentPackInfo pack = new ContentPackInfo(readString(in), readString(in));
+            for (int parameters = in.getInt(); parameters > 0; --parameters) {
+                pack.addCustomParameter(readString(in), readString(in));
+            }
+            host.addContentPack(pack);
+        }
+        return host;
+    }
+
+    /**
+     * Network names are stored as the hypervisor knows them, with the instance id the setters add back on
+     * 
+     * @param name - Name of a network, as stored
+     * @return Name of the network as it appears in the scenario
+     */
+    private static String unqualified(String name) {
+        String suffix = "-" + OccpAdmin.instanceId;
+        if (OccpAdmin.instanceId != null && !name.equals(OccpParser.INTERNET_NAME) && name.endsWith(suffix)) {
+            return name.substring(0, name.length() - suffix.length());
+        }
+        return name;
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(ByteBuffer in) {
+        int length = in.getInt();
+        if (length < 0) {
+            return null;
+        }
+        if (length > in.remaining()) {
+            throw new BufferUnderflowException();
+        }
+        byte[] bytes = new byte[length];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,221 @@
+package edu.uri.dfcsc.occp;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Logger;
+
+import org.apache.commons.lang.StringUtils;
+
+/**
+ * Writes synthetic scenarios, with a matching hypervisor map, for seeing how the planning of a deploy copes with
+ * scenarios far larger than any real one. Every size is a setting:
+ * <ul>
+ * <li>hosts: scenario hosts, not counting the game server (100)
+ * <li>networks: networks the hosts are spread over (one per 10 hosts)
+ * <li>hypervisors: hypervisors in the map, named sim0, sim1, ... (1)
+ * <li>clones: hosts made from each template host, 0 for none (0)
+ * <li>packs: content packs on each host (1)
+ * <li>variables: values made by each of the password and username generators (10)
+ * <li>internet: share (0-1) of hosts with an interface on the fake internet (0.1)
+ * </ul>
+ * Hosts are placed on hypervisors in contiguous blocks, as they would be by hand, so only the networks at the edges
+ * of a block need a VPN.
+ */
+final class ScenarioGenerator {
+    private static final Logger logger = Logger.getLogger(ScenarioGenerator.class.getName());
+    private static final String[] SETTINGS = { "hosts", "networks", "hypervisors", "clones", "packs", "variables",
+            "internet" };
+
+    private final Map<String, String> settings = new HashMap<>();
+
+    /**
+     * @param args - Command line arguments, those that are not settings are ignored
+     * @throws IllegalArgumentException - If a setting is not a number
+     */
+    ScenarioGenerator(String[] args) throws IllegalArgumentException {
+        for (int ai = 0; ai + 1 < args.length; ++ai) {
+            String param = args[ai].trim();
+            String val = args[ai + 1].trim();
+            if (param.startsWith("--") && Arrays.asList(SETTINGS).contains(param.substring(2))
+                    && !val.startsWith("--")) {
+                settings.put(param.substring(2), val);
+                ++ai;
+            }
+        }
+        // Check them all now, rather than part way through writing
+        getHosts();
+        getNetworks();
+        getHypervisors();
+        setting("clones", 0);
+        setting("packs", 1);
+        setting("variables", 10);
+        getInternet();
+    }
+
+    private int setting(String key, int defaultValue) throws IllegalArgumentException {
+        String value = settings.get(key);
+        try {
+            int result = value == null ? defaultValue : Integer.parseInt(value);
+            if (result < 0) {
+                throw new IllegalArgumentException("--" + key + " must not be negative");
+            }
+            return result;
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("--" + key + " expects a number, not " + value);
+        }
+    }
+
+    private int getHosts() {
+        return Math.max(1, setting("hosts", 100));
+    }
+
+    private int getNetworks() {
+        return Math.max(1, setting("networks", (getHosts() + 9) / 10));
+    }
+
+    private int getHypervisors() {
+        return Math.max(1, setting("hypervisors", 1));
+    }
+
+    private double getInternet() throws IllegalArgumentException {
+        String value = settings.get("internet");
+        try {
+            double result = value == null ? 0.1 : Double.parseDouble(value);
+            if (result < 0 || result > 1) {
+                throw new IllegalArgumentException("--internet must be between 0 and 1");
+            }
+            return result;
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("--internet expects a number, not " + value);
+        }
+    }
+
+    /**
+     * Write the scenario, its game server content pack and names file, and the map
+     * 
+     * @param scenarioFile - Where the scenario goes, its directory is created if needed
+     * @param mapFile - Where the hypervisor map goes
+     * @throws IOException
+     */
+    void write(Path scenarioFile, Path mapFile) throws IOException {
+        Path baseDir = scenarioFile.toAbsolutePath().getParent();
+        Files.createDirectories(baseDir.resolve("ContentPacks/gameserver/files"));
+        int hosts = getHosts(), networks = getNetworks(), hypervisors = getHypervisors();
+        int clones = setting("clones", 0), packs = setting("packs", 1), variables = setting("variables", 10);
+        double internet = getInternet();
+
+        // The usernames are picked from this, with plenty to spare
+        Path namesFile = baseDir.resolve("names.csv");
+        try (PrintStream names = new PrintStream(Files.newOutputStream(namesFile), false, "UTF-8")) {
+            for (int i = 0; i < Math.max(1, variables) * 4; ++i) {
+                names.println("First" + i + ",Last" + i + ",user" + i);
+            }
+        }
+
+        // Labels of the scenario hosts (or clones) on each hypervisor
+        List<List<String>> placement = new ArrayList<>();
+        for (int hv = 0; hv < hypervisors; ++hv) {
+            placement.add(new ArrayList<String>());
+        }
+        // The game server is on the fake internet, so there is always a router
+        placement.get(0).add(OccpParser.ROUTER_NAME);
+        placement.get(0).add(OccpParser.GAMESERVER_NAME);
+
+        try (PrintStream out = new PrintStream(Files.newOutputStream(scenarioFile), false, "UTF-8")) {
+            out.println("<?xml version=\"1.0\" encoding=\"UTF-8\"?>");
+            out.println("<occpchallenge>");
+            out.println("  <var name=\"domain\">example.com</var>");
+            if (variables > 0) {
+                out.println("  <var name=\"passwords\" generator=\"password\">");
+                out.println("    <param name=\"count\">" + variables + "</param>");
+                out.println("    <param name=\"length\">12</param>");
+                out.println("  </var>");
+                out.println("  <var name=\"users\" generator=\"username\">");
+                out.println("    <param name=\"count\">" + variables + "</param>");
+                out.println("    <param name=\"names\">names.csv</param>");
+                out.println("  </var>");
+            }
+            out.println("  <host label=\"" + OccpParser.GAMESERVER_NAME + "\" hostname=\"gameserver\""
+                    + " domain=\"${occp:domain}\" phase=\"2\">");
+            out.println("    <interface name=\"eth0\" network=\"" + OccpParser.INTERNET_NAME + "\"/>");
+            out.println("    <content><pack name=\"gameserver\"/></content>");
+            out.println("  </host>");
+
+            // Each host element is a template for its clones, or a single host
+            int perElement = Math.max(1, clones);
+            int internetEvery = internet > 0 ? (int) Math.max(1, Math.round(1 / internet)) : 0;
+            for (int first = 0, element = 0; first < hosts; first += perElement, ++element) {
+                int count = Math.min(perElement, hosts - first);
+                String label = "host" + first;
+                // Neighbouring hosts share networks and hypervisors
+                int network = (int) ((long) first * networks / hosts);
+                int hv = (int) ((long) first * hypervisors / hosts);
+                out.print("  <host label=\"" + label + "\" hostname=\"" + label + "\" domain=\"${occp:domain}\""
+                        + " phase=\"1\" basevm=\"base\"");
+                out.println(clones > 0 ? " clones=\"" + count + "\">" : ">");
+                out.println("    <interface name=\"eth0\" network=\"net" + network + "\"/>");
+                if (network + 1 < networks && element % 3 == 0) {
+                    // Some hosts also reach into the next network, which may be on the next hypervisor
+                    out.println("    <interface name=\"eth1\" network=\"net" + (network + 1) + "\"/>");
+                } else if (internetEvery > 0 && element % internetEvery == 0) {
+                    out.println("    <interface name=\"eth1\" network=\"" + OccpParser.INTERNET_NAME + "\"/>");
+                }
+                out.println("    <content>");
+                for (int pack = 0; pack < packs; ++pack) {
+                    out.print("      <pack name=\"pack" + pack + "\">");
+                    if (variables > 0) {
+                        // A single generated value is not an array
+                        String index = variables == 1 ? "" : "[" + element % variables + "]";
+                        out.print("<user>${occp:users" + index + "}</user>");
+                        out.print("<password>${occp:passwords_plain" + index + "}</password>");
+                    }
+                    out.println("</pack>");
+                }
+                out.println("    </content>");
+                out.println("  </host>");
+                if (clones > 0) {
+                    for (int clone = 1; clone <= count; ++clone) {
+                        placement.get(hv).add(label + "-" + clone);
+                    }
+                } else {
+                    placement.get(hv).add(label);
+                }
+            }
+            for (int network = 0; network < networks; ++network) {
+                out.println("  <network label=\"net" + network + "\"/>");
+            }
+            out.println("</occpchallenge>");
+        }
+
+        // Every hypervisor gets a VPN address, since any of them may share a network with another
+        try (PrintStream map = new PrintStream(Files.newOutputStream(mapFile), false, "UTF-8")) {
+            for (int hv = 0; hv < hypervisors; ++hv) {
+                map.println("sim" + hv + "/10.0." + (hv / 250) + "." + (hv % 250 + 1) + ":"
+                        + StringUtils.join(placement.get(hv), ","));
+            }
+        }
+        logger.info("Wrote a scenario of " + hosts + " hosts on " + networks + " networks to " + scenarioFile
+                + " and a map of " + hypervisors + " hypervisors to " + mapFile);
+    }
+
+    /**
+     * @return Usage information for the generator settings
+     */
+    static String getUsage() {
+        return "Scenario generator (--mode genscenario, writes to --config and --hvmap):\n"
+                + "--hosts <count> - Scenario hosts, not counting the game server (100)\n"
+                + "--networks <count> - Networks the hosts are spread over (one per 10 hosts)\n"
+                + "--hypervisors <count> - Hypervisors in the map, named sim0, sim1, ... (1)\n"
+                + "--clones <count> - Hosts made from each template host, 0 for none (0)\n"
+                + "--packs <count> - Content packs on each host (1)\n"
+                + "--variables <count> - Values made by each of the password and username generators (10)\n"
+                + "--internet <share> - Share (0-1) of hosts with an interface on the fake internet (0.1)";
+    }
+}
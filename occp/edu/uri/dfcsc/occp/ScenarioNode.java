@@ -0,0 +1,239 @@
+package edu.uri.dfcsc.occp;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.stream.XMLStreamWriter;
+
+/**
+ * A compact, read-only piece of a scenario file, read from a StAX stream. It holds no more than the parser needs: the
+ * element names, attributes and children, and the text, CDATA and comment nodes between them (which the parser
+ * counts, just as it would count DOM nodes).
+ */
+final class ScenarioNode {
+    /**
+     * Applied to attribute values and text when a node is written back out
+     */
+    interface ValueRenderer {
+        /**
+         * @param value - Value as it appears in the scenario file
+         * @return Value to write
+         */
+        String render(String value);
+    }
+
+    // XMLStreamConstants event type of this node
+    private final int type;
+    // Element name, or the DOM style name of other nodes (#text, #cdata-section, #comment)
+    private final String name;
+    private final String text;
+    private final Map<String, String> attributes;
+    private final List<ScenarioNode> children;
+
+    private ScenarioNode(int type, String name, String text, Map<String, String> attributes,
+            List<ScenarioNode> children) {
+        this.type = type;
+        this.name = name;
+        this.text = text;
+        this.attributes = attributes;
+        this.children = children;
+    }
+
+    /**
+     * Decides whether a child element is kept once it has been read
+     */
+    interface ChildFilter {
+        /**
+         * @param child - A complete child element
+         * @return True to keep it as a child, false to drop it
+         */
+        boolean keep(ScenarioNode child);
+    }
+
+    /**
+     * Read the element the reader is positioned at, including everything within it. Leaves the reader at the
+     * element's end tag.
+     * 
+     * @param reader - Positioned at a START_ELEMENT
+     * @return The element
+     * @throws XMLStreamException
+     */
+    static ScenarioNode read(XMLStreamReader reader) throws XMLStreamException {
+        return read(reader, null);
+    }
+
+    /**
+     * Read the element the reader is positioned at, handing each of its child elements to a filter as soon as that
+     * child is complete. Children the filter drops are never held, so they can be dealt with as the file streams by.
+     * 
+     * @param reader - Positioned at a START_ELEMENT
+     * @param filter - Applied to each child element, null to keep them all
+     * @return The element
+     * @throws XMLStreamException
+     */
+    static ScenarioNode read(XMLStreamReader reader, ChildFilter filter) throws XMLStreamException {
+        Map<String, String> attributes = Collections.emptyMap();
+        if (reader.getAttributeCount() > 0) {
+            attributes = new LinkedHashMap<>();
+            for (int i = 0; i < reader.getAttributeCount(); ++i) {
+                attributes.put(qualifiedName(reader.getAttributePrefix(i), reader.getAttributeLocalName(i)),
+                        reader.getAttributeValue(i));
+            }
+        }
+        String elementName = qualifiedName(reader.getPrefix(), reader.getLocalName());
+        List<ScenarioNode> children = new ArrayList<>();
+        // The reader may split text, join it back up like a DOM would
+        StringBuilder pendingText = null;
+        while (true) {
+            int event = reader.next();
+            if (event == XMLStreamConstants.CHARACTERS || event == XMLStreamConstants.SPACE) {
+                if (pendingText == null) {
+                    pendingText = new StringBuilder();
+                }
+                pendingText.append(reader.getText());
+                continue;
+            }
+            if (pendingText != null) {
+                children.add(new ScenarioNode(XMLStreamConstants.CHARACTERS, "#text", pendingText.toString(), null,
+                        null));
+                pendingText = null;
+            }
+            switch (event) {
+            case XMLStreamConstants.START_ELEMENT:
+                ScenarioNode child = read(reader);
+                if (filter == null || filter.keep(child)) {
+                    children.add(child);
+                }
+                break;
+            case XMLStreamConstants.CDATA:
+                children.add(new ScenarioNode(event, "#cdata-section", reader.getText(), null, null));
+                break;
+            case XMLStreamConstants.COMMENT:
+                children.add(new ScenarioNode(event, "#comment", reader.getText(), null, null));
+                break;
+            case XMLStreamConstants.END_ELEMENT:
+                return new ScenarioNode(XMLStreamConstants.START_ELEMENT, elementName, null, attributes, children);
+            default:
+                // Processing instructions and the like have no meaning in a scenario
+                break;
+            }
+        }
+    }
+
+    private static String qualifiedName(String prefix, String localName) {
+        if (prefix == null || prefix.isEmpty()) {
+            return localName;
+        }
+        return prefix + ":" + localName;
+    }
+
+    /**
+     * @return The element name, or #text, #cdata-section or #comment for other nodes
+     */
+    String getName() {
+        return name;
+    }
+
+    /**
+     * @return True if this is an element
+     */
+    boolean isElement() {
+        return type == XMLStreamConstants.START_ELEMENT;
+    }
+
+    /**
+     * @return True if this is text or CDATA
+     */
+    boolean isText() {
+        return type == XMLStreamConstants.CHARACTERS || type == XMLStreamConstants.CDATA;
+    }
+
+    /**
+     * @return The content of a text, CDATA or comment node; null for elements
+     */
+    String getText() {
+        return text;
+    }
+
+    /**
+     * @param attributeName - Name of the attribute
+     * @return Its value, or null if the element does not have it
+     */
+    String getAttribute(String attributeName) {
+        if (attributes == null) {
+            return null;
+        }
+        return attributes.get(attributeName);
+    }
+
+    /**
+     * @return The children of an element, empty for other nodes
+     */
+    List<ScenarioNode> getChildren() {
+        if (children == null) {
+            return Collections.emptyList();
+        }
+        return children;
+    }
+
+    /**
+     * Find every element with the given name, at any depth within this one (like getElementsByTagName)
+     * 
+     * @param elementName - Name to look for
+     * @param found - Matching elements are added to this, in document order
+     */
+    void findElements(String elementName, List<ScenarioNode> found) {
+        for (ScenarioNode child : getChildren()) {
+            if (child.isElement()) {
+                if (child.name.equals(elementName)) {
+                    found.add(child);
+                }
+                child.findElements(elementName, found);
+            }
+        }
+    }
+
+    /**
+     * Write this node and everything within it
+     * 
+     * @param writer - Where to write
+     * @param renderer - Applied to attribute values, text and comments
+     * @throws XMLStreamException
+     */
+    void write(XMLStreamWriter writer, ValueRenderer renderer) throws XMLStreamException {
+        switch (type) {
+        case XMLStreamConstants.START_ELEMENT:
+            if (children.isEmpty()) {
+                writer.writeEmptyElement(name);
+            } else {
+                writer.writeStartElement(name);
+            }
+            for (Entry<String, String> attribute : attributes.entrySet()) {
+                writer.writeAttribute(attribute.getKey(), renderer.render(attribute.getValue()));
+            }
+            if (!children.isEmpty()) {
+                for (ScenarioNode child : children) {
+                    child.write(writer, renderer);
+                }
+                writer.writeEndElement();
+            }
+            break;
+        case XMLStreamConstants.CDATA:
+            writer.writeCData(renderer.render(text));
+            break;
+        case XMLStreamConstants.COMMENT:
+            writer.writeComment(renderer.render(text));
+            break;
+        default:
+            writer.writeCharacters(renderer.render(text));
+            break;
+        }
+    }
+}
@@ -26,6 +26,7 @@ import edu.uri.dfcsc.occp.exceptions.vm.HVOperationFailedException;
 import edu.uri.dfcsc.occp.exceptions.vm.VMNotFoundException;
 import edu.uri.dfcsc.occp.exceptions.vm.VMOperationFailedException;
 import edu.uri.dfcsc.occp.exceptions.vm.VMOperationFailedException.ErrorCode;
+import edu.uri.dfcsc.occp.utils.Trace;
 
 /**
  * @author Kevin Bryan (bryank@cs.uri.edu)
@@ -129,6 +130,7 @@ public class SetupNetwork {
             return true;
         }
         logger.info("Attempting to start the \"" + OccpParser.SETUPVPN_NAME + "\" on the hypervisor \"" + hvName + '"');
+        Trace.Span span = Trace.begin("setup", "connect").arg("hv", hvName);
         try {
             /* null network means don't touch it */
             vpnvm.verify(Arrays.asList(new String[] { null, setupNetworkName }), "importdir");
@@ -148,6 +150,8 @@ public class SetupNetwork {
         } catch (OccpException e) {
             logger.log(Level.SEVERE, "Failed to start/configure " + OccpParser.SETUPVPN_NAME, e);
             this.stop();
+        } finally {
+            span.end();
         }
 
         logger.info("Started the \"" + OccpParser.SETUPVPN_NAME + "\" on the hypervisor \"" + hvName
@@ -325,7 +329,7 @@ public class SetupNetwork {
         OccpHV occphv = hvs.get(hv);
         if (occphv.getLocal()) {
             logger.info("Copying " + from);
-            if (occphv.getClass() == OccpVBoxHV.class) {
+            if (OccpHVFactory.unwrap(occphv).getClass() == OccpVBoxHV.class) {
                 Path filename = FileSystems.getDefault().getPath(from).getFileName();
                 Path to = OccpAdmin.scenarioBaseDir.resolve(filename);
                 logger.info("Copying " + from + " to " + to.toString());
@@ -2,6 +2,11 @@ package edu.uri.dfcsc.occp.generator;
 
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
 
 import edu.uri.dfcsc.occp.OccpParser.OccpVariables;
 import edu.uri.dfcsc.occp.exceptions.OccpException;
@@ -10,6 +15,11 @@ import edu.uri.dfcsc.occp.exceptions.OccpException;
  * All OCCP Generators should extend and implement this class
  */
 public abstract class Generator {
+    // Generation is pure computation, so it gets a pool of core-sized work stealing threads shared by every generator
+    private static final ForkJoinPool pool = new ForkJoinPool();
+
+    // Items generated by one task before it stops splitting the work
+    private static final int BULK_THRESHOLD = 4;
 
     /**
      * The implementing child will generate what ever variables are appropriate for its generation based on the
@@ -23,6 +33,158 @@ public abstract class Generator {
     public abstract OccpVariables generate(String variableName, HashMap<String, String> parameters)
             throws InvalidGeneratorParameterException;
 
+    /**
+     * Start generating on the shared pool, so independent variables can be generated at the same time
+     * 
+     * @param variableName - The variable name the generator will generator or base off of
+     * @param parameters - The parameters that the generator will use
+     * @return The generation that has been started
+     */
+    public Pending submit(String variableName, HashMap<String, String> parameters) {
+        Pending result = new Pending(this, variableName, parameters);
+        pool.execute(result);
+        return result;
+    }
+
+    /**
+     * A generation running on the shared pool
+     */
+    public static final class Pending extends RecursiveTask<OccpVariables> {
+        private static final long serialVersionUID = 1L;
+        private final Generator generator;
+        private final String variableName;
+        private final HashMap<String, String> parameters;
+        private InvalidGeneratorParameterException failure = null;
+
+        Pending(Generator generator, String variableName, HashMap<String, String> parameters) {
+            this.generator = generator;
+            this.variableName = variableName;
+            this.parameters = parameters;
+        }
+
+        @Override
+        protected OccpVariables compute() {
+            try {
+                return generator.generate(variableName, parameters);
+            } catch (InvalidGeneratorParameterException e) {
+                failure = e;
+                return null;
+            }
+        }
+
+        /**
+         * @return The variable being generated
+         */
+        public String getVariableName() {
+            return variableName;
+        }
+
+        /**
+         * Wait for the generation to finish
+         * 
+         * @return The generated variables
+         * @throws InvalidGeneratorParameterException
+         */
+        public OccpVariables getVariables() throws InvalidGeneratorParameterException {
+            OccpVariables result = join();
+            if (failure != null) {
+                throw failure;
+            }
+            return result;
+        }
+    }
+
+    /**
+     * Makes one of the items a generator was asked for
+     * 
+     * @param <T> - The type of item
+     */
+    protected interface ItemMaker<T> {
+        /**
+         * @param index - Which item (from 0), only for generators whose items depend on their position
+         * @return The item
+         * @throws InvalidGeneratorParameterException
+         */
+        T make(int index) throws InvalidGeneratorParameterException;
+    }
+
+    /**
+     * Make a number of independent items at once, spread across the shared pool. The maker must be safe to call from
+     * several threads.
+     * 
+     * @param count - How many items
+     * @param maker - Makes each item
+     * @return The items, in index order
+     * @throws InvalidGeneratorParameterException - The first exception thrown by the maker, if any
+     */
+    protected static <T> List<T> generate(int count, ItemMaker<T> maker) throws InvalidGeneratorParameterException {
+        @SuppressWarnings("unchecked")
+        T[] items = (T[]) new Object[count];
+        BulkTask<T> task = new BulkTask<>(maker, items, 0, count);
+        try {
+            if (ForkJoinTask.inForkJoinPool()) {
+                // Already running on a pool thread (see submit), split up from here
+                task.invoke();
+            } else {
+                pool.invoke(task);
+            }
+        } catch (BulkTask.MakerFailed e) {
+            throw e.failure;
+        }
+        List<T> result = new ArrayList<>(count);
+        for (T item : items) {
+            result.add(item);
+        }
+        return result;
+    }
+
+    /**
+     * Makes a range of items, halving the range between two subtasks until it is small
+     */
+    private static final class BulkTask<T> extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        /**
+         * Carries the maker's checked exception out of the pool
+         */
+        private static final class MakerFailed extends RuntimeException {
+            private static final long serialVersionUID = 1L;
+            final InvalidGeneratorParameterException failure;
+
+            MakerFailed(InvalidGeneratorParameterException failure) {
+                super(failure);
+                this.failure = failure;
+            }
+        }
+
+        private final ItemMaker<T> maker;
+        private final T[] items;
+        private final int from, to;
+
+        BulkTask(ItemMaker<T> maker, T[] items, int from, int to) {
+            this.maker = maker;
+            this.items = items;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= BULK_THRESHOLD) {
+                try {
+                    for (int index = from; index < to; ++index) {
+                        items[index] = maker.make(index);
+                    }
+                } catch (InvalidGeneratorParameterException e) {
+                    throw new MakerFailed(e);
+                }
+                return;
+            }
+            int middle = (from + to) >>> 1;
+            invokeAll(new BulkTask<>(maker, items, from, middle), new BulkTask<>(maker, items, middle, to));
+        }
+    }
+
     /**
      * Attempts to get the string value from the parameter
      * 
@@ -0,0 +1,203 @@
+package edu.uri.dfcsc.occp.generator;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.apache.commons.codec.binary.Hex;
+
+import edu.uri.dfcsc.occp.OccpAdmin;
+
+/**
+ * Where each usable line (first,last,username) of a names CSV starts, so any line can be read without reading the
+ * whole file. Both the CSV and the index are memory mapped. The index is built on the first use of a CSV and kept in
+ * the hidden directory until the CSV changes.
+ */
+final class NameIndex {
+    private static final Logger logger = Logger.getLogger(NameIndex.class.getName());
+
+    // "ONIX"
+    private static final int MAGIC = 0x4f4e4958;
+    private static final int HEADER_SIZE = 4 + 8 + 8 + 4;
+
+    // Indexes already opened by this run, by CSV location
+    private static final Map<Path, NameIndex> opened = new HashMap<>();
+
+    private final long modified;
+    private final MappedByteBuffer csv;
+    private final IntBuffer offsets;
+
+    private NameIndex(long modified, MappedByteBuffer csv, IntBuffer offsets) {
+        this.modified = modified;
+        this.csv = csv;
+        this.offsets = offsets;
+    }
+
+    /**
+     * Get the index of a names CSV, building it if the CSV is new or has changed
+     * 
+     * @param csvPath - The names CSV
+     * @return The index
+     * @throws IOException - If the CSV can't be read
+     */
+    static synchronized NameIndex open(Path csvPath) throws IOException {
+        csvPath = csvPath.toAbsolutePath();
+        NameIndex result = opened.get(csvPath);
+        long size = Files.size(csvPath), modified = Files.getLastModifiedTime(csvPath).toMillis();
+        if (result != null && result.csv.capacity() == size && result.modified == modified) {
+            return result;
+        }
+        MappedByteBuffer csv;
+        try (FileChannel channel = FileChannel.open(csvPath, StandardOpenOption.READ)) {
+            csv = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        }
+        Path indexPath = getIndexPath(csvPath);
+        IntBuffer offsets = null;
+        if (indexPath != null && Files.exists(indexPath)) {
+            offsets = load(indexPath, size, modified);
+        }
+        if (offsets == null) {
+            offsets = build(csv);
+            if (indexPath != null) {
+                save(indexPath, size, modified, offsets);
+            }
+        }
+        result = new NameIndex(modified, csv, offsets);
+        opened.put(csvPath, result);
+        return result;
+    }
+
+    /**
+     * @return The number of usable lines
+     */
+    int size() {
+        return offsets.limit();
+    }
+
+    /**
+     * @param line - Which usable line (from 0)
+     * @return The line's fields: first name, last name, username
+     */
+    String[] get(int line) {
+        int start = offsets.get(line), end = start;
+        while (end < csv.limit() && csv.get(end) != '\n') {
+            ++end;
+        }
+        // Like readLine, don't keep the carriage return of a DOS line ending
+        if (end > start && csv.get(end - 1) == '\r') {
+            --end;
+        }
+        byte[] bytes = new byte[end - start];
+        for (int i = 0; i < bytes.length; ++i) {
+            bytes[i] = csv.get(start + i);
+        }
+        // The CSV has always been read in the platform encoding
+        return new String(bytes, Charset.defaultCharset()).split(",");
+    }
+
+    /**
+     * Find each line of the CSV with exactly three fields
+     * 
+     * @param csv - The CSV
+     * @return Where each of those lines starts
+     */
+    private static IntBuffer build(ByteBuffer csv) {
+        IntBuffer result = IntBuffer.allocate(1024);
+        // split drops trailing empty fields, so only commas before the last of the content separate fields
+        int start = 0, commas = 0, fields = 0;
+        for (int i = 0; i <= csv.limit(); ++i) {
+            byte b = i < csv.limit() ? csv.get(i) : (byte) '\n';
+            if (b == '\n') {
+                if (fields == 3) {
+                    if (!result.hasRemaining()) {
+                        IntBuffer larger = IntBuffer.allocate(result.capacity() * 2);
+                        result.flip();
+                        larger.put(result);
+                        result = larger;
+                    }
+                    result.put(start);
+                }
+                start = i + 1;
+                commas = 0;
+                fields = 0;
+            } else if (b == ',') {
+                ++commas;
+            } else if (b != '\r' || (i + 1 < csv.limit() && csv.get(i + 1) != '\n')) {
+                fields = commas + 1;
+            }
+        }
+        result.flip();
+        return result;
+    }
+
+    private static Path getIndexPath(Path csvPath) {
+        if (OccpAdmin.occpHiddenDirPath == null) {
+            return null;
+        }
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            byte[] hash = digest.digest(csvPath.toString().getBytes(StandardCharsets.UTF_8));
+            return OccpAdmin.occpHiddenDirPath.resolve("names-" + Hex.encodeHexString(hash).substring(0, 16)
+                    + ".idx");
+        } catch (NoSuchAlgorithmException e) {
+            return null;
+        }
+    }
+
+    private static IntBuffer load(Path indexPath, long size, long modified) {
+        try (FileChannel channel = FileChannel.open(indexPath, StandardOpenOption.READ)) {
+            MappedByteBuffer index = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (index.limit() < HEADER_SIZE || index.getInt() != MAGIC || index.getLong() != size
+                    || index.getLong() != modified) {
+                return null;
+            }
+            int count = index.getInt();
+            if (index.remaining() != count * 4L) {
+                return null;
+            }
+            return index.slice().asIntBuffer();
+        } catch (IOException e) {
+            logger.log(Level.FINE, "Unable to read the names index " + indexPath, e);
+            return null;
+        }
+    }
+
+    private static void save(Path indexPath, long size, long modified, IntBuffer offsets) {
+        Path temp = indexPath.resolveSibling(indexPath.getFileName() + ".tmp");
+        try {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+                out.writeInt(MAGIC);
+                out.writeLong(size);
+                out.writeLong(modified);
+                out.writeInt(offsets.limit());
+                for (int i = 0; i < offsets.limit(); ++i) {
+                    out.writeInt(offsets.get(i));
+                }
+            }
+            Files.move(temp, indexPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            logger.log(Level.FINE, "Unable to save the names index " + indexPath, e);
+            try {
+                Files.deleteIfExists(temp);
+            } catch (IOException e1) {
+                logger.log(Level.FINE, "Unable to remove " + temp, e1);
+            }
+        }
+    }
+}
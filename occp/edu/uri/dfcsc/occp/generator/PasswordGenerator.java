@@ -1,6 +1,7 @@
 package edu.uri.dfcsc.occp.generator;
 
 import java.io.BufferedReader;
+import java.io.File;
 import java.io.FileReader;
 import java.io.IOException;
 import java.security.NoSuchAlgorithmException;
@@ -30,9 +31,24 @@ import edu.uri.dfcsc.occp.OccpParser.OccpVariables;
  * is AlphaNumeric (Optional)
  */
 public class PasswordGenerator extends Generator {
+    // Pool files already read, by location. Shared, as several variables often use the same pool.
+    private static final Map<String, PoolFile> poolFiles = new HashMap<>();
+
+    // Salts are made on several threads at once, and creating a SecureRandom is slow, so each thread keeps one
+    private static final ThreadLocal<SecureRandom> saltRandom = new ThreadLocal<SecureRandom>() {
+        @Override
+        protected SecureRandom initialValue() {
+            try {
+                return SecureRandom.getInstance("SHA1PRNG");
+            } catch (NoSuchAlgorithmException e) {
+                return null;
+            }
+        }
+    };
+
     private int minLength = 0, maxLength = 0;
     private String type;
-    private Stack<String> pool;
+    private Deque<String> pool;
     EncryptionType encryptionType;
 
     @Override
@@ -60,7 +76,7 @@ public class PasswordGenerator extends Generator {
             String poolFilename = this.getStringValue("pool", parameters, "", false);
             if (!poolFilename.equalsIgnoreCase("")) {
                 // There was one, try to set the pool
-                this.setPool(poolFilename);
+                this.setPool(poolFilename, count);
                 type = "FromPool";
             } else {
                 // Get the length
@@ -106,20 +122,21 @@ public class PasswordGenerator extends Generator {
             }
             if (count > 1) {
                 // More than one requested, index
-                ArrayList<String> plain = new ArrayList<>();
-                ArrayList<String> shadow = new ArrayList<>();
+                final ArrayList<String> plain = new ArrayList<>();
                 for (int i = 1; i <= count; i++) {
-
                     // Generate the plaintext version
-                    String generatedPlaintext = makePlainText();
+                    plain.add(makePlainText());
+                }
 
-                    // With plaintext version generate shadow file password
-                    String generatedShadowLine = generatePasswd(generatedPlaintext);
+                // With plaintext version generate shadow file password, hashing is slow so spread it over the cores
+                ArrayList<String> shadow = new ArrayList<>(generate(count, new ItemMaker<String>() {
+                    @Override
+                    public String make(int index) {
+                        return generatePasswd(plain.get(index));
+                    }
+                }));
 
-                    // Store the generated material
-                    plain.add(generatedPlaintext);
-                    shadow.add(generatedShadowLine);
-                }
+                // Store the generated material
                 result.setVariable(variableName + "_plain", plain);
                 result.setVariable(variableName + "_shadow", shadow);
             } else {
@@ -160,9 +177,8 @@ public class PasswordGenerator extends Generator {
             generatedPlaintext = generateRandomAscii(this.pickLength());
         } else if (type.equals("FromPool")) {
             // Grab one from the pool
-            try {
-                generatedPlaintext = this.pool.pop();
-            } catch (EmptyStackException exception) {
+            generatedPlaintext = this.pool.poll();
+            if (generatedPlaintext == null) {
                 // The pool was exhausted prematurely
                 throw new InvalidGeneratorParameterException(
                         "There were not enough passwords in the pool file to satisfy amount requested from the generator");
@@ -314,14 +330,13 @@ public class PasswordGenerator extends Generator {
                 'r', 's', 't', 'u', 'v', 'w', 'x', 'y', 'z', 'A', 'B', 'C', 'D', 'E', 'F', 'G', 'H', 'I', 'J', 'K',
                 'L', 'M', 'N', 'O', 'P', 'Q', 'R', 'S', 'T', 'U', 'V', 'W', 'X', 'Y', 'Z', '0', '1', '2', '3', '4',
                 '5', '6', '7', '8', '9', '.', '/' };
-        try {
-            return RandomStringUtils.random(length, 0, acceptableChars.length, false, false, acceptableChars,
-                    SecureRandom.getInstance("SHA1PRNG"));
-        } catch (NoSuchAlgorithmException e) {
+        SecureRandom random = saltRandom.get();
+        if (random == null) {
             // Well we tried to be somewhat secure but couldn't
             // falling back
             return RandomStringUtils.random(length, 0, acceptableChars.length, false, false, acceptableChars);
         }
+        return RandomStringUtils.random(length, 0, acceptableChars.length, false, false, acceptableChars, random);
     }
 
     /**
@@ -343,28 +358,80 @@ public class PasswordGenerator extends Generator {
     }
 
     /**
-     * Reads in the pool file and shuffles it to create a pool of plain text passwords to later choose from.
+     * Picks passwords at random from the pool file to create a pool of plain text passwords to later choose from.
+     * 
+     * @param poolFilename - The name of the pool file
+     * @param count - How many passwords will be needed
+     * @throws InvalidGeneratorParameterException - If there is a problem with the pool file.
+     */
+    private void setPool(String poolFilename, int count) throws InvalidGeneratorParameterException {
+        List<String> passwords = readPoolFile(poolFilename);
+        // Initialize the pool
+        pool = new ArrayDeque<>();
+        // Shuffle the passwords only as far as needed, tracking the positions that have been moved
+        Random random = new Random();
+        Map<Integer, Integer> moved = new HashMap<>();
+        for (int i = 0; i < passwords.size() && i < count; ++i) {
+            int pick = i + random.nextInt(passwords.size() - i);
+            Integer line = moved.get(pick);
+            if (line == null) {
+                line = pick;
+            }
+            Integer displaced = moved.remove(i);
+            if (pick != i) {
+                moved.put(pick, displaced == null ? i : displaced);
+            }
+            pool.add(passwords.get(line));
+        }
+    }
+
+    /**
+     * Read a pool file, or get it from the pool files already read. Each password appears once, however many times it
+     * is in the file, so no two passwords picked from a pool are the same.
      * 
      * @param poolFilename - The name of the pool file
+     * @return The distinct passwords in the file
      * @throws InvalidGeneratorParameterException - If there is a problem with the pool file.
      */
-    private void setPool(String poolFilename) throws InvalidGeneratorParameterException {
-        try (BufferedReader bufferedReader = new BufferedReader(new FileReader(OccpAdmin.scenarioBaseDir + "/"
-                + poolFilename))) {
-            // Temporary String to hold each line of the file as it is read
-            String line;
-            // Initialize the pool
-            pool = new Stack<>();
-            // Read the file line by line
-            while ((line = bufferedReader.readLine()) != null) {
-                // Add each line to the pool
-                pool.add(line);
+    private static List<String> readPoolFile(String poolFilename) throws InvalidGeneratorParameterException {
+        File poolFile = new File(OccpAdmin.scenarioBaseDir + "/" + poolFilename);
+        synchronized (poolFiles) {
+            PoolFile cached = poolFiles.get(poolFile.getAbsolutePath());
+            if (cached != null && cached.modified == poolFile.lastModified() && cached.length == poolFile.length()) {
+                return cached.passwords;
             }
-            // Randomize the order of the pool
-            Collections.shuffle(pool);
-        } catch (IOException exception) {
-            // Problem with the pool file
-            throw new InvalidGeneratorParameterException("Could not open pool file: \"" + poolFilename + '"', exception);
+            try (BufferedReader bufferedReader = new BufferedReader(new FileReader(poolFile))) {
+                long modified = poolFile.lastModified(), length = poolFile.length();
+                // Temporary String to hold each line of the file as it is read
+                String line;
+                Set<String> passwords = new LinkedHashSet<>();
+                // Read the file line by line
+                while ((line = bufferedReader.readLine()) != null) {
+                    // Add each line to the pool
+                    passwords.add(line);
+                }
+                cached = new PoolFile(modified, length, new ArrayList<>(passwords));
+                poolFiles.put(poolFile.getAbsolutePath(), cached);
+                return cached.passwords;
+            } catch (IOException exception) {
+                // Problem with the pool file
+                throw new InvalidGeneratorParameterException("Could not open pool file: \"" + poolFilename + '"',
+                        exception);
+            }
+        }
+    }
+
+    /**
+     * The distinct passwords of a pool file, as of when it was read
+     */
+    private static final class PoolFile {
+        final long modified, length;
+        final List<String> passwords;
+
+        PoolFile(long modified, long length, List<String> passwords) {
+            this.modified = modified;
+            this.length = length;
+            this.passwords = Collections.unmodifiableList(passwords);
         }
     }
 
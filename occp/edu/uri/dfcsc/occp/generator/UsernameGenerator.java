@@ -1,11 +1,14 @@
 package edu.uri.dfcsc.occp.generator;
 
-import java.io.BufferedReader;
-import java.io.FileReader;
 import java.io.IOException;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Paths;
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
 
 import edu.uri.dfcsc.occp.OccpAdmin;
 import edu.uri.dfcsc.occp.OccpParser.OccpVariables;
@@ -15,7 +18,7 @@ import edu.uri.dfcsc.occp.OccpParser.OccpVariables;
  * Accepted parameters:
  * count - A positive non-zero integer representing the number of passwords to generate. Default is 1. (Optional)
  * names - The name CSV to use from the scenario's base directory. (Required)
- * TODO Take list of reserved names
+ * reserved - A comma separated list of usernames that must not be picked. (Optional)
  */
 public class UsernameGenerator extends Generator {
 
@@ -29,7 +32,16 @@ public class UsernameGenerator extends Generator {
         // Look for the csv
         String nameFile = this.getStringValue("names", parameters, "", true);
 
-        ArrayList<User> users = this.generateRandomUsers(count, OccpAdmin.scenarioBaseDir + "/" + nameFile);
+        // Look for names to avoid
+        Set<String> reservedNames = new HashSet<>();
+        for (String reservedName : this.getStringValue("reserved", parameters, "", false).split(",")) {
+            if (!reservedName.trim().isEmpty()) {
+                reservedNames.add(reservedName.trim());
+            }
+        }
+
+        ArrayList<User> users = this.generateRandomUsers(count, OccpAdmin.scenarioBaseDir + "/" + nameFile,
+                reservedNames);
 
         if (users.size() == count) {
             // No issues, lets go through and add these as variables
@@ -70,70 +82,47 @@ public class UsernameGenerator extends Generator {
     }
 
     /**
-     * Generate a list of random users from the specified csv file. If the amount of usernames in the csv is not
-     * sufficient for the amount requested a random shuffling of the usernames available are returned. If there are
-     * problems with the file a list of size zero is returned.
-     * CSV should of the form:
-     * first,last,username
-     * 
-     * @param amount The amount of users to pick
-     * @param csvOfNames Filename of a username csv
-     * @return An ArrayList of OCCPUsers
-     */
-    private ArrayList<User> generateRandomUsers(int amount, String csvOfNames) {
-        return generateRandomUsers(amount, csvOfNames, null);
-    }
-
-    /**
-     * Generate a list of random users from the specified csv file that do not match a given list. If the amount of
-     * usernames in the csv is not sufficient for the amount requested a random shuffling of the usernames available are
-     * returned. If there are problems with the file a list of size zero is returned.
+     * Generate a list of random users from the specified csv file that do not match a given set of names. If the amount
+     * of usernames in the csv is not sufficient for the amount requested a random shuffling of the usernames available
+     * are returned. If there are problems with the file a list of size zero is returned.
      * CSV should of the form:
      * first,last,username
+     * Only the lines picked are read, so the cost depends on the amount rather than the size of the file.
      * 
      * @param amount The amount of users to pick
      * @param csvOfNames Filename of a username csv
-     * @param reservedNames a list of names that cannot be used
+     * @param reservedNames names that cannot be used
      * @return An ArrayList of OCCPUsers
      */
-    private ArrayList<User> generateRandomUsers(int amount, String csvOfNames, ArrayList<String> reservedNames) {
+    private ArrayList<User> generateRandomUsers(int amount, String csvOfNames, Set<String> reservedNames) {
         ArrayList<User> result = new ArrayList<>();
-        String line;
-
-        // First generate a pool of acceptable users. i.e. do not match a reserved name
-        ArrayList<User> pool = new ArrayList<>();
-        try (BufferedReader bufferedReader = new BufferedReader(new FileReader(csvOfNames))) {
-            while ((line = bufferedReader.readLine()) != null) {
-                String[] temp = line.split(",");
-                if (temp.length == 3) {
-                    // Expected first, last, username
-                    if (reservedNames != null) {
-                        // Ensure we do not match a reserved name
-                        if (!reservedNames.contains(temp[2])) {
-                            // We don't match one so add to our pool
-                            pool.add(new User(temp[0], temp[1], temp[2]));
-                        }
-                    } else {
-                        // There are no restrictions, add to the pool
-                        pool.add(new User(temp[0], temp[1], temp[2]));
-                    }
-                }
-            }
-        } catch (IOException e) {
+        NameIndex names;
+        try {
+            names = NameIndex.open(Paths.get(csvOfNames));
+        } catch (IOException | InvalidPathException e) {
             // Nothing we can do, caller will get list of size zero
+            return result;
         }
-
-        // Shuffle the pool
-        Collections.shuffle(pool);
-
-        if (amount < pool.size()) {
-            // We can choose the specified amount, so pick that many for the caller
-            for (int i = 0; i < amount; i++) {
-                result.add(pool.get(i));
+        // Shuffle the lines only as far as needed. Lines that have been moved are tracked in a map, so this costs the
+        // amount picked, however large the file is.
+        int size = names.size();
+        Random random = new Random();
+        Map<Integer, Integer> moved = new HashMap<>();
+        for (int i = 0; i < size && result.size() < amount; ++i) {
+            int pick = i + random.nextInt(size - i);
+            Integer line = moved.get(pick);
+            if (line == null) {
+                line = pick;
+            }
+            Integer displaced = moved.remove(i);
+            if (pick != i) {
+                moved.put(pick, displaced == null ? i : displaced);
+            }
+            String[] fields = names.get(line);
+            // Ensure we do not match a reserved name
+            if (!reservedNames.contains(fields[2])) {
+                result.add(new User(fields[0], fields[1], fields[2]));
             }
-        } else {
-            // Pool is not large enough to pick the requested number, return the pool
-            result = pool;
         }
         return result;
     }
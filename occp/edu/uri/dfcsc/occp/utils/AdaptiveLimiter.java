@@ -0,0 +1,170 @@
+package edu.uri.dfcsc.occp.utils;
+
+import java.util.logging.Logger;
+
+/**
+ * A concurrency limit that adapts to what the resource behind it can actually sustain. The limit grows additively
+ * while operations complete quickly and is cut in half when one fails or, for operations whose duration doesn't
+ * depend on how much they have to do, when latency rises well above what has been observed before (AIMD).
+ * 
+ * <pre>
+ * AdaptiveLimiter.Permit permit = limiter.acquire();
+ * try {
+ *     // operation
+ * } catch (SomeOverloadException e) {
+ *     permit.failed();
+ *     throw e;
+ * } finally {
+ *     permit.release();
+ * }
+ * </pre>
+ */
+public class AdaptiveLimiter {
+    private static final Logger logger = Logger.getLogger(AdaptiveLimiter.class.getName());
+
+    // Smoothing factor for the latency average
+    private static final double LATENCY_SMOOTHING = 0.2;
+    // How quickly the baseline follows latency upwards, so one unusually quick operation doesn't pin it forever
+    private static final double BASELINE_DRIFT = 0.05;
+    // Latency beyond this multiple of the baseline is treated as the resource being overloaded
+    private static final double LATENCY_TOLERANCE = 2.0;
+    // The limit is multiplied by this on overload
+    private static final double DECREASE_FACTOR = 0.5;
+
+    private final String name;
+    private final int minLimit, maxLimit;
+    private final boolean latencySignalsOverload;
+    private double limit;
+    private int inFlight = 0;
+    // In milliseconds, negative until the first operation completes
+    private double smoothedLatency = -1, baselineLatency = -1;
+    // Operations started before the last decrease don't cause another one; they ran under the old limit
+    private long lastDecrease;
+
+    /**
+     * Permission to run one operation, must be released exactly once
+     */
+    public final class Permit {
+        private final long started = System.nanoTime();
+        private boolean failed = false, released = false;
+
+        /**
+         * Mark the operation as having failed in a way that suggests the resource is overloaded
+         */
+        public void failed() {
+            this.failed = true;
+        }
+
+        /**
+         * Record the end of the operation, allowing another to start
+         */
+        public void release() {
+            if (!released) {
+                released = true;
+                AdaptiveLimiter.this.release(started, failed);
+            }
+        }
+    }
+
+    /**
+     * @param name - Name used when logging changes to the limit
+     * @param minLimit - The limit never falls below this (at least 1)
+     * @param maxLimit - The limit never grows beyond this, it is also the initial limit
+     * @param latencySignalsOverload - Whether rising latency means the resource is overloaded, false when the
+     *            duration depends on the size of the work so only failures decrease the limit
+     */
+    public AdaptiveLimiter(String name, int minLimit, int maxLimit, boolean latencySignalsOverload) {
+        this.name = name;
+        this.minLimit = Math.max(1, minLimit);
+        this.maxLimit = Math.max(this.minLimit, maxLimit);
+        this.latencySignalsOverload = latencySignalsOverload;
+        this.limit = this.maxLimit;
+        this.lastDecrease = System.nanoTime();
+    }
+
+    /**
+     * Wait until another operation may start
+     * 
+     * @return Permit for the operation, to be released when it ends
+     * @throws InterruptedException
+     */
+    public synchronized Permit acquire() throws InterruptedException {
+        while (inFlight >= getLimit()) {
+            wait();
+        }
+        ++inFlight;
+        return new Permit();
+    }
+
+    /**
+     * Start another operation if the limit allows it now
+     * 
+     * @return Permit for the operation, to be released when it ends, or null if the limit is reached
+     */
+    public synchronized Permit tryAcquire() {
+        if (inFlight >= getLimit()) {
+            return null;
+        }
+        ++inFlight;
+        return new Permit();
+    }
+
+    /**
+     * Record the end of an operation and adjust the limit based on how it went
+     * 
+     * @param started - When the operation started
+     * @param failed - True if the operation failed in a way that suggests the resource is overloaded
+     */
+    private synchronized void release(long started, boolean failed) {
+        --inFlight;
+        int oldLimit = getLimit();
+        if (failed) {
+            decrease(started);
+        } else {
+            double latency = (System.nanoTime() - started) / 1000000.0;
+            if (smoothedLatency < 0) {
+                smoothedLatency = latency;
+                baselineLatency = latency;
+            } else {
+                smoothedLatency += LATENCY_SMOOTHING * (latency - smoothedLatency);
+                if (smoothedLatency < baselineLatency) {
+                    baselineLatency = smoothedLatency;
+                } else {
+                    baselineLatency += BASELINE_DRIFT * (smoothedLatency - baselineLatency);
+                }
+            }
+            if (latencySignalsOverload && smoothedLatency > LATENCY_TOLERANCE * baselineLatency) {
+                decrease(started);
+            } else if (inFlight + 1 >= oldLimit) {
+                // Only grow while we are actually using the whole limit, roughly one step per limit's worth of work
+                limit = Math.min(maxLimit, limit + 1.0 / limit);
+            }
+        }
+        if (getLimit() != oldLimit) {
+            logger.fine("Concurrency limit for " + name + " changed from " + oldLimit + " to " + getLimit());
+        }
+        notifyAll();
+    }
+
+    private void decrease(long started) {
+        if (started - lastDecrease < 0) {
+            return;
+        }
+        limit = Math.max(minLimit, limit * DECREASE_FACTOR);
+        lastDecrease = System.nanoTime();
+    }
+
+    /**
+     * @return The number of operations currently allowed at once
+     */
+    public synchronized int getLimit() {
+        return (int) limit;
+    }
+
+    /**
+     * @return The number of operations currently running
+     */
+    public synchronized int getInFlight() {
+        return inFlight;
+    }
+}
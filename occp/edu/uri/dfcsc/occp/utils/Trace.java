@@ -0,0 +1,219 @@
+package edu.uri.dfcsc.occp.utils;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Timeline of what a run spends its time on, written in the Chrome trace event format so it can be opened in
+ * chrome://tracing or Perfetto. Each span is one operation on one thread (a VM job, a hypervisor call, a file
+ * transfer, a wait for a permit) with whatever details help explain it: the VM, the hypervisor, bytes, retries.
+ * 
+ * <pre>
+ * Trace.Span span = Trace.begin(&quot;hv&quot;, &quot;cloneVM&quot;).arg(&quot;vm&quot;, label);
+ * try {
+ *     // operation
+ * } finally {
+ *     span.end();
+ * }
+ * </pre>
+ * 
+ * Until {@link #start(Path)} is called nothing is recorded and spans cost next to nothing.
+ */
+public final class Trace {
+    private static final Logger logger = Logger.getLogger(Trace.class.getName());
+
+    private static volatile Trace trace = null;
+
+    private final Path path;
+    private final long origin = System.nanoTime();
+    private final ConcurrentLinkedQueue<Span> spans = new ConcurrentLinkedQueue<>();
+    // Last name seen for each thread, threads are renamed after the VM they work on
+    private final Map<Long, String> threadNames = new HashMap<>();
+
+    private Trace(Path path) {
+        this.path = path;
+    }
+
+    /**
+     * One timed operation
+     */
+    public static class Span {
+        private final String category, name;
+        private final long tid, start;
+        private long end;
+        private Map<String, Object> args = null;
+
+        private Span(String category, String name, long tid, long start) {
+            this.category = category;
+            this.name = name;
+            this.tid = tid;
+            this.start = start;
+        }
+
+        /**
+         * Attach a detail to the span
+         * 
+         * @param key - Name of the detail
+         * @param value - Its value, numbers are kept as numbers
+         * @return This span
+         */
+        public Span arg(String key, Object value) {
+            if (args == null) {
+                args = new LinkedHashMap<>();
+            }
+            args.put(key, value);
+            return this;
+        }
+
+        /**
+         * Mark the end of the operation. Only the first call counts.
+         */
+        public void end() {
+            Trace current = trace;
+            if (end == 0 && current != null) {
+                end = System.nanoTime();
+                current.spans.add(this);
+            }
+        }
+    }
+
+    // Given out while not tracing
+    private static final Span NONE = new Span(null, null, 0, 0) {
+        @Override
+        public Span arg(String key, Object value) {
+            return this;
+        }
+
+        @Override
+        public void end() {
+        }
+    };
+
+    /**
+     * Start recording spans
+     * 
+     * @param path - Where the trace will be written
+     */
+    public static synchronized void start(Path path) {
+        if (trace == null) {
+            trace = new Trace(path);
+            logger.fine("Tracing to " + path);
+        }
+    }
+
+    /**
+     * @return True if spans are being recorded
+     */
+    public static boolean isEnabled() {
+        return trace != null;
+    }
+
+    /**
+     * Begin a span on the current thread
+     * 
+     * @param category - Kind of operation, e.g. "hv" or "vm"
+     * @param name - The operation
+     * @return The span, to be ended when the operation is
+     */
+    public static Span begin(String category, String name) {
+        Trace current = trace;
+        if (current == null) {
+            return NONE;
+        }
+        Thread thread = Thread.currentThread();
+        synchronized (current.threadNames) {
+            current.threadNames.put(thread.getId(), thread.getName());
+        }
+        return new Span(category, name, thread.getId(), System.nanoTime());
+    }
+
+    /**
+     * Stop recording and write out everything recorded so far. Problems are logged.
+     */
+    public static synchronized void finish() {
+        Trace current = trace;
+        if (current == null) {
+            return;
+        }
+        trace = null;
+        try {
+            current.write();
+            logger.info("Deploy trace written to " + current.path);
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "Unable to write the trace " + current.path, e);
+        }
+    }
+
+    private void write() throws IOException {
+        List<String> events = new ArrayList<>();
+        synchronized (threadNames) {
+            for (Entry<Long, String> thread : threadNames.entrySet()) {
+                events.add("{\"ph\":\"M\",\"pid\":1,\"tid\":" + thread.getKey()
+                        + ",\"name\":\"thread_name\",\"args\":{\"name\":" + quote(thread.getValue()) + "}}");
+            }
+        }
+        for (Span span : spans) {
+            StringBuilder event = new StringBuilder();
+            event.append("{\"ph\":\"X\",\"pid\":1,\"tid\":").append(span.tid);
+            event.append(",\"cat\":").append(quote(span.category));
+            event.append(",\"name\":").append(quote(span.name));
+            event.append(",\"ts\":").append(micros(span.start - origin));
+            event.append(",\"dur\":").append(micros(span.end - span.start));
+            if (span.args != null) {
+                String separator = "";
+                event.append(",\"args\":{");
+                for (Entry<String, Object> arg : span.args.entrySet()) {
+                    event.append(separator).append(quote(arg.getKey())).append(':');
+                    if (arg.getValue() instanceof Number) {
+                        event.append(arg.getValue());
+                    } else {
+                        event.append(quote(String.valueOf(arg.getValue())));
+                    }
+                    separator = ",";
+                }
+                event.append('}');
+            }
+            events.add(event.append('}').toString());
+        }
+        Files.createDirectories(path.toAbsolutePath().getParent());
+        try (Writer out = Files.newBufferedWriter(path, StandardCharsets.UTF_8)) {
+            out.write("{\"displayTimeUnit\":\"ms\",\"traceEvents\":[\n");
+            for (int i = 0; i < events.size(); ++i) {
+                out.write(events.get(i));
+                out.write(i + 1 < events.size() ? ",\n" : "\n");
+            }
+            out.write("]}\n");
+        }
+    }
+
+    private static String micros(long nanos) {
+        return String.format("%d.%03d", nanos / 1000, nanos % 1000);
+    }
+
+    private static String quote(String value) {
+        StringBuilder result = new StringBuilder("\"");
+        for (int i = 0; i < value.length(); ++i) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                result.append('\\').append(c);
+            } else if (c < 0x20) {
+                result.append(String.format("\\u%04x", (int) c));
+            } else {
+                result.append(c);
+            }
+        }
+        return result.append('"').toString();
+    }
+}